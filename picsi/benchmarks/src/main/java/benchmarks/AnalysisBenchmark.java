@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.binary.HoughTransform;
+import imageprocessing.geometry.ROI;
+import imageprocessing.patternmatching.PatternMatching;
+import imageprocessing.patternmatching.PatternMatching.PMResult;
+import main.Picsi;
+import utils.BoundedPQ;
+
+/**
+ * Pattern matching and Hough transform; both are expensive, so the images are smaller
+ *
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class AnalysisBenchmark {
+	@Param({ "256", "512" })
+	public int size;
+
+	private ImageData m_rgb, m_gray;
+	private ROI m_pattern;
+
+	@Setup
+	public void setup() {
+		m_rgb = TestImages.rgb(size);
+		m_gray = TestImages.gray(size);
+		m_pattern = new ROI(m_gray, new Rectangle(size/2, size/2, 35, 25));
+	}
+
+	@Benchmark
+	public BoundedPQ<PMResult> patternMatching() {
+		return PatternMatching.pm(m_gray, m_pattern, 100);
+	}
+
+	@Benchmark
+	public ImageData hough() {
+		return new HoughTransform().run(m_rgb, Picsi.IMAGE_TYPE_RGB);
+	}
+}
@@ -0,0 +1,156 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.bayerPattern.DebayeringConverter;
+import imageprocessing.binary.MorphologicFilter;
+import imageprocessing.binary.RunningMinMax;
+import imageprocessing.binary.StructureDecomposition;
+import imageprocessing.filter.BilateralGridFilter;
+import imageprocessing.filter.Convolution;
+import imageprocessing.filter.GaussFilter;
+import imageprocessing.filter.GrayMorphologicFilter;
+import imageprocessing.filter.GuidedFilter;
+import imageprocessing.filter.MedianFilter;
+import imageprocessing.filter.RankFilter;
+import imageprocessing.filter.RecursiveGaussFilter;
+import main.Picsi;
+
+/**
+ * Neighbourhood filters: Gauss, median, morphology and debayering
+ *
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+	@Param({ "256", "1024", "2048" })
+	public int size;
+
+	private ImageData m_rgb, m_gray, m_binary;
+	private double[][] m_kernel;	// dense 31x31 kernel
+
+	@Setup
+	public void setup() {
+		m_rgb = TestImages.rgb(size);
+		m_gray = TestImages.gray(size);
+		m_binary = TestImages.binary(size);
+		m_kernel = new double[31][31];
+		for (int j=0; j < 31; j++) {
+			for (int i=0; i < 31; i++) m_kernel[j][i] = (1 + (i*j)%7)/(4.0*31*31);
+		}
+	}
+
+	@Benchmark
+	public ImageData gauss() {
+		return new GaussFilter().run(m_gray, Picsi.IMAGE_TYPE_GRAY);
+	}
+
+	@Benchmark
+	public ImageData gaussRgb() {
+		return GaussFilter.gauss(m_rgb, 2.0, GaussFilter.radius(2.0));
+	}
+
+	@Benchmark
+	public ImageData recursiveGauss() {
+		return RecursiveGaussFilter.gauss(m_gray, 20.0);
+	}
+
+	@Benchmark
+	public ImageData convolution31() {
+		return Convolution.convolve(m_gray, m_kernel, Convolution.Border.MIRROR, Convolution.Method.AUTO);
+	}
+
+	@Benchmark
+	public ImageData convolution31Direct() {
+		return Convolution.convolve(m_gray, m_kernel, Convolution.Border.MIRROR, Convolution.Method.DIRECT);
+	}
+
+	@Benchmark
+	public ImageData bilateralGrid() {
+		return BilateralGridFilter.bilateral(m_gray, 16, 20);
+	}
+
+	@Benchmark
+	public ImageData guided() {
+		return GuidedFilter.guided(m_gray, 8, 400);
+	}
+
+	@Benchmark
+	public ImageData median() {
+		return new MedianFilter().run(m_gray, Picsi.IMAGE_TYPE_GRAY);
+	}
+
+	@Benchmark
+	public ImageData median5x5() {
+		return new MedianFilter(2).run(m_gray, Picsi.IMAGE_TYPE_GRAY);
+	}
+
+	@Benchmark
+	public ImageData median25() {
+		return RankFilter.rank(m_gray, 25, 50);
+	}
+
+	@Benchmark
+	public ImageData medianRgb() {
+		return RankFilter.rank(m_rgb, 5, 50);
+	}
+
+	@Benchmark
+	public ImageData erosion() {
+		return MorphologicFilter.erosion(m_binary, MorphologicFilter.s_circle5, 2, 2);
+	}
+
+	@Benchmark
+	public ImageData dilation() {
+		return MorphologicFilter.dilation(m_binary, MorphologicFilter.s_circle5, 2, 2);
+	}
+
+	@Benchmark
+	public ImageData openingDisk30() {
+		return MorphologicFilter.morph(m_binary, Picsi.IMAGE_TYPE_BINARY, 2, MorphologicFilter.disk(30), 30, 30, StructureDecomposition.disk(30));
+	}
+
+	@Benchmark
+	public ImageData closing51() {
+		return RunningMinMax.closing(m_binary, 51, 51, 25, 25);
+	}
+
+	@Benchmark
+	public ImageData closing51Gray() {
+		return RunningMinMax.closing(m_gray, 51, 51, 25, 25);
+	}
+
+	@Benchmark
+	public ImageData grayGradient() {
+		return GrayMorphologicFilter.morph(m_gray, 6, MorphologicFilter.s_circle5, 2, 2);
+	}
+
+	@Benchmark
+	public ImageData grayTopHatDisk30() {
+		return GrayMorphologicFilter.morph(m_gray, 4, MorphologicFilter.disk(30), 30, 30, StructureDecomposition.disk(30));
+	}
+
+	@Benchmark
+	public ImageData debayer() {
+		return DebayeringConverter.debayer(m_gray, Picsi.IMAGE_TYPE_GRAY);
+	}
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.fourier.FFT;
+import utils.FrequencyDomain;
+
+/**
+ * 2D Fourier and Hartley transforms of power-of-two images
+ *
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FourierBenchmark {
+	@Param({ "256", "512", "1024" })
+	public int size;
+
+	private ImageData m_gray;
+
+	@Setup
+	public void setup() {
+		m_gray = TestImages.gray(size);
+	}
+
+	@Benchmark
+	public FrequencyDomain fft2D() {
+		return FFT.fft2D(m_gray);
+	}
+
+	@Benchmark
+	public FrequencyDomain fht2D() {
+		return FFT.fht2D(m_gray);
+	}
+}
@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.ImageProcessing;
+import imageprocessing.colors.Inverter;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.PixelKernels;
+import utils.RgbBuffer;
+
+/**
+ * Scalar and vector pixel kernels, single-threaded over all rows of an image
+ *
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class KernelBenchmark {
+	@Param({ "1024" })
+	public int size;
+
+	@Param({ "scalar", "vector" })
+	public String kernels;
+
+	private PixelKernels m_kernels;
+	private RgbBuffer m_rgb;
+	private GrayBuffer m_gray, m_gray2, m_out;
+	private byte[] m_bits;
+
+	@Setup
+	public void setup() {
+		m_kernels = kernels.equals("vector") ? PixelKernels.get() : PixelKernels.scalar();
+		if (kernels.equals("vector") && !m_kernels.isVectorized()) throw new IllegalStateException("vector kernels not available");
+
+		final ImageData gray = TestImages.gray(size);
+		final ImageData gray2 = (ImageData)gray.clone();
+
+		Inverter.invert(gray2, Picsi.IMAGE_TYPE_GRAY);
+		m_rgb = new RgbBuffer(TestImages.rgb(size));
+		m_gray = new GrayBuffer(gray);
+		m_gray2 = new GrayBuffer(gray2);
+		m_out = new GrayBuffer(ImageProcessing.createImage(size, size, Picsi.IMAGE_TYPE_GRAY));
+		m_bits = new byte[(size + 7)/8*size];
+	}
+
+	@Benchmark
+	public byte[] gray() {
+		for (int v=0; v < size; v++) {
+			m_kernels.gray(m_rgb.m_data, m_rgb.rowOffset(v), m_rgb.m_bytesPerPixel, m_rgb.m_r, m_rgb.m_g, m_rgb.m_b, m_out.m_data, m_out.rowOffset(v), size);
+		}
+		return m_out.m_data;
+	}
+
+	@Benchmark
+	public byte[] threshold() {
+		for (int v=0; v < size; v++) {
+			m_kernels.threshold(m_gray.m_data, m_gray.rowOffset(v), m_out.m_data, m_out.rowOffset(v), size, 127, 0, 255);
+		}
+		return m_out.m_data;
+	}
+
+	@Benchmark
+	public byte[] thresholdBits() {
+		for (int v=0; v < size; v++) {
+			m_kernels.thresholdBits(m_gray.m_data, m_gray.rowOffset(v), m_bits, v*((size + 7)/8), size, 127, 1, 0);
+		}
+		return m_bits;
+	}
+
+	@Benchmark
+	public byte[] absDiff() {
+		for (int v=0; v < size; v++) {
+			m_kernels.absDiff(m_gray.m_data, m_gray.rowOffset(v), m_gray2.m_data, m_gray2.rowOffset(v), m_out.m_data, m_out.rowOffset(v), size);
+		}
+		return m_out.m_data;
+	}
+
+	@Benchmark
+	public long squaredDiff() {
+		long sum = 0;
+
+		for (int v=0; v < size; v++) {
+			sum += m_kernels.squaredDiff(m_gray.m_data, m_gray.rowOffset(v), m_gray2.m_data, m_gray2.rowOffset(v), 1, 0, size);
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import imageprocessing.ImageProcessing;
+import imageprocessing.binary.OtsuThresholdConverter;
+import imageprocessing.colors.GrayScaleConverter;
+import main.Picsi;
+
+/**
+ * Histogram, grayscale conversion and Otsu thresholding
+ *
+ * @author Christoph Stamm
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PointBenchmark {
+	@Param({ "256", "1024", "2048" })
+	public int size;
+
+	private ImageData m_rgb, m_gray;
+
+	@Setup
+	public void setup() {
+		m_rgb = TestImages.rgb(size);
+		m_gray = TestImages.gray(size);
+	}
+
+	@Benchmark
+	public int[] histogram() {
+		return ImageProcessing.histogram(m_gray, 256);
+	}
+
+	@Benchmark
+	public ImageData grayscale() {
+		return GrayScaleConverter.convert(m_rgb, Picsi.IMAGE_TYPE_RGB);
+	}
+
+	@Benchmark
+	public ImageData otsu() {
+		return new OtsuThresholdConverter().run(m_gray, Picsi.IMAGE_TYPE_GRAY);
+	}
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
+import imageprocessing.binary.OtsuThresholdConverter;
+import imageprocessing.colors.ColorSpaces;
+import imageprocessing.colors.GrayScaleConverter;
+import main.Picsi;
+
+/**
+ * Synthetic benchmark inputs of arbitrary size. The images are tiled from the ColorSpaces test image,
+ * so they contain edges and flat regions and no SWT display is needed.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class TestImages {
+	private static ImageData s_pattern; // 1000 x 1000 RGB test image
+
+	/**
+	 * Creates a RGB image
+	 * @param size width and height
+	 * @return
+	 */
+	public static synchronized ImageData rgb(int size) {
+		if (s_pattern == null) s_pattern = ColorSpaces.rgbTestImage();
+
+		final ImageData outData = ImageProcessing.createImage(size, size, Picsi.IMAGE_TYPE_RGB);
+		final int[] row = new int[size];
+
+		for (int v=0; v < size; v++) {
+			for (int u=0; u < size; u += s_pattern.width) {
+				s_pattern.getPixels(0, v%s_pattern.height, Math.min(s_pattern.width, size - u), row, u);
+			}
+			outData.setPixels(0, v, size, row, 0);
+		}
+		return outData;
+	}
+
+	/**
+	 * Creates a grayscale image
+	 * @param size width and height
+	 * @return
+	 */
+	public static ImageData gray(int size) {
+		return GrayScaleConverter.convert(rgb(size), Picsi.IMAGE_TYPE_RGB);
+	}
+
+	/**
+	 * Creates a binary image by Otsu thresholding
+	 * @param size width and height
+	 * @return
+	 */
+	public static ImageData binary(int size) {
+		final ImageData gray = gray(size);
+		return OtsuThresholdConverter.binarization(gray, OtsuThresholdConverter.otsuThreshold(gray).threshold(), true, true);
+	}
+}
@@ -4,6 +4,8 @@ import javax.swing.JTextArea;
 
 import org.eclipse.swt.graphics.ImageData;
 
+import imageprocessing.ImageProcessing;
+
 /**
  * Image file interface
  * 
@@ -41,4 +43,30 @@ public interface IImageFile {
 	 * @return
 	 */
 	public boolean isBinaryFormat();
+
+	/**
+	 * Opens an image file for reading row by row.
+	 * The default implementation decodes the whole image; file formats storing uncompressed rows keep only the requested rows in memory.
+	 * @param fileName
+	 * @return row reader
+	 * @throws Exception
+	 */
+	public default IRowReader openRows(String fileName) throws Exception {
+		return new ImageRows.Reader(read(fileName));
+	}
+
+	/**
+	 * Creates an image file written row by row.
+	 * The default implementation collects all rows and saves the image on close; file formats storing uncompressed rows write them immediately.
+	 * @param fileName
+	 * @param fileType
+	 * @param width image width
+	 * @param height image height
+	 * @param strip image data with the pixel layout of the rows to be written
+	 * @return row writer
+	 * @throws Exception
+	 */
+	public default IRowWriter createRows(String fileName, int fileType, int width, int height, ImageData strip) throws Exception {
+		return new ImageRows.Writer(this, fileName, fileType, ImageProcessing.createImage(width, height, strip));
+	}
 }
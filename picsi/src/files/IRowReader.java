@@ -0,0 +1,44 @@
+package files;
+
+import java.io.IOException;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Sequential reader of the rows of an image file
+ *
+ * @author Christoph Stamm
+ *
+ */
+public interface IRowReader extends AutoCloseable {
+	/**
+	 * Returns the image width
+	 * @return
+	 */
+	public int getWidth();
+
+	/**
+	 * Returns the image height
+	 * @return
+	 */
+	public int getHeight();
+
+	/**
+	 * Creates an empty strip with the pixel layout of the image file
+	 * @param height number of rows
+	 * @return image data of image width and the given height
+	 */
+	public ImageData createStrip(int height);
+
+	/**
+	 * Reads the next n rows of the image file
+	 * @param strip strip created by createStrip
+	 * @param v first strip row to be filled
+	 * @param n number of rows
+	 * @throws IOException
+	 */
+	public void read(ImageData strip, int v, int n) throws IOException;
+
+	@Override
+	public void close() throws IOException;
+}
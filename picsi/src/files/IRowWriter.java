@@ -0,0 +1,37 @@
+package files;
+
+import java.io.IOException;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Sequential writer of the rows of an image file. The file is complete after close.
+ * If the rows cannot be completed, abort discards the file instead.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public interface IRowWriter extends AutoCloseable {
+	/**
+	 * Appends n rows of a strip to the image file
+	 * @param strip image data of image width with the pixel layout given when the writer has been created
+	 * @param v first strip row to be written
+	 * @param n number of rows
+	 * @throws Exception
+	 */
+	public void write(ImageData strip, int v, int n) throws Exception;
+
+	/**
+	 * Completes the image file
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException;
+
+	/**
+	 * Releases the image file without completing it and deletes the partial output.
+	 * It may also be called after a failed close.
+	 * @throws IOException
+	 */
+	public void abort() throws IOException;
+}
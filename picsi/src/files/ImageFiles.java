@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
 
 import main.Picsi;
 
@@ -101,6 +104,61 @@ public class ImageFiles {
 		}
 	}
 	
+	/**
+	 * Reads an image file with the image file class registered for its extension
+	 * @param fileName
+	 * @return image data
+	 * @throws Exception
+	 */
+	public static ImageData read(String fileName) throws Exception {
+		final int fileType = determinefileType(fileName);
+		
+		if (fileType == SWT.IMAGE_UNDEFINED) throw new Exception("unknown file type: " + fileName);
+		return createImageFile(fileType).read(fileName);
+	}
+	
+	/**
+	 * Saves an image file with the image file class registered for its extension
+	 * @param fileName
+	 * @param imageData
+	 * @throws Exception
+	 */
+	public static void save(String fileName, ImageData imageData) throws Exception {
+		final int fileType = determinefileType(fileName);
+		
+		if (fileType == SWT.IMAGE_UNDEFINED) throw new Exception("unknown file type: " + fileName);
+		createImageFile(fileType).save(fileName, fileType, imageData, ImageProcessing.determineImageType(imageData));
+	}
+	
+	/**
+	 * Opens an image file for reading row by row with the image file class registered for its extension
+	 * @param fileName
+	 * @return row reader
+	 * @throws Exception
+	 */
+	public static IRowReader openRows(String fileName) throws Exception {
+		final int fileType = determinefileType(fileName);
+		
+		if (fileType == SWT.IMAGE_UNDEFINED) throw new Exception("unknown file type: " + fileName);
+		return createImageFile(fileType).openRows(fileName);
+	}
+	
+	/**
+	 * Creates an image file written row by row with the image file class registered for its extension
+	 * @param fileName
+	 * @param width image width
+	 * @param height image height
+	 * @param strip image data with the pixel layout of the rows to be written
+	 * @return row writer
+	 * @throws Exception
+	 */
+	public static IRowWriter createRows(String fileName, int width, int height, ImageData strip) throws Exception {
+		final int fileType = determinefileType(fileName);
+		
+		if (fileType == SWT.IMAGE_UNDEFINED) throw new Exception("unknown file type: " + fileName);
+		return createImageFile(fileType).createRows(fileName, fileType, width, height, strip);
+	}
+	
 	/**
 	 * Determine file type by file name extension
 	 * @param filename
@@ -0,0 +1,101 @@
+package files;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Image I/O pipeline for many files: loading and saving run on virtual threads,
+ * the processing of the decoded images runs on a bounded pool of platform threads.
+ * Disk latency of some images overlaps with the processing of others.
+ * The number of images in flight is bounded, so the memory usage doesn't depend on the number of files.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class ImagePipeline implements AutoCloseable {
+	/**
+	 * CPU stage of the pipeline
+	 */
+	public static interface Stage {
+		/**
+		 * @param inData decoded input image
+		 * @param fileName name of the input file
+		 * @return output image or null if nothing has to be saved
+		 * @throws Exception
+		 */
+		ImageData run(ImageData inData, String fileName) throws Exception;
+	}
+
+	private final ExecutorService m_io;		// one virtual thread per read or save
+	private final ExecutorService m_cpu;	// platform threads of the processing stage
+	private final Semaphore m_inFlight;		// bounds the number of images between reading and saving
+	private final int m_maxInFlight;
+
+	/**
+	 * Creates a pipeline
+	 * @param cpuThreads number of platform threads used for processing
+	 * @param maxInFlight maximum number of images loaded but not yet saved
+	 */
+	public ImagePipeline(int cpuThreads, int maxInFlight) {
+		assert cpuThreads > 0 && maxInFlight > 0;
+		m_io = Executors.newVirtualThreadPerTaskExecutor();
+		m_cpu = Executors.newFixedThreadPool(cpuThreads);
+		m_inFlight = new Semaphore(maxInFlight);
+		m_maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Loads the input file, runs the stage and saves the output.
+	 * Blocks until the number of images in flight is below the limit.
+	 * @param inFile input file name
+	 * @param outFile output file name; the file type is determined by its extension
+	 * @param stage processing stage
+	 * @return future completed after saving; completed exceptionally with the cause of a failure
+	 * @throws InterruptedException
+	 */
+	public CompletableFuture<Void> submit(String inFile, String outFile, Stage stage) throws InterruptedException {
+		m_inFlight.acquire();
+		try {
+			return CompletableFuture
+				.supplyAsync(() -> call(() -> ImageFiles.read(inFile)), m_io)
+				.thenApplyAsync(inData -> call(() -> stage.run(inData, inFile)), m_cpu)
+				.thenAcceptAsync(outData -> {
+					if (outData != null) call(() -> { ImageFiles.save(outFile, outData); return null; });
+				}, m_io)
+				.whenComplete((v, e) -> m_inFlight.release());
+		} catch(RuntimeException e) {
+			// rejected because the pipeline has been closed
+			m_inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits for all submitted images and releases the threads
+	 */
+	@Override
+	public void close() {
+		m_inFlight.acquireUninterruptibly(m_maxInFlight);
+		m_io.close();
+		m_cpu.close();
+	}
+
+	private static interface Call<T> {
+		T run() throws Exception;
+	}
+
+	private static <T> T call(Call<T> c) {
+		try {
+			return c.run();
+		} catch(RuntimeException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new CompletionException(e);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package files;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
+
+/**
+ * Row copies between images of the same pixel layout and row-wise access to image files
+ * that have to be decoded or encoded as a whole
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class ImageRows {
+	/**
+	 * Copies n rows including alpha values. Source and destination may be the same image if srcV >= dstV.
+	 * @param src source image
+	 * @param srcV first source row
+	 * @param dst destination image with the same width, depth and palette as src
+	 * @param dstV first destination row
+	 * @param n number of rows
+	 */
+	public static void copy(ImageData src, int srcV, ImageData dst, int dstV, int n) {
+		assert src.width == dst.width && src.depth == dst.depth : "different pixel layouts";
+
+		final int rowBytes = (src.width*src.depth + 7)/8;
+
+		for (int i=0; i < n; i++) {
+			System.arraycopy(src.data, (srcV + i)*src.bytesPerLine, dst.data, (dstV + i)*dst.bytesPerLine, rowBytes);
+			if (src.alphaData != null && dst.alphaData != null) {
+				System.arraycopy(src.alphaData, (srcV + i)*src.width, dst.alphaData, (dstV + i)*dst.width, src.width);
+			}
+		}
+	}
+
+	/**
+	 * Reader of a completely decoded image
+	 */
+	static class Reader implements IRowReader {
+		private final ImageData m_image;
+		private int m_row;	// next row to be read
+
+		Reader(ImageData image) {
+			m_image = image;
+		}
+
+		@Override
+		public int getWidth() {
+			return m_image.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return m_image.height;
+		}
+
+		@Override
+		public ImageData createStrip(int height) {
+			return ImageProcessing.createImage(m_image.width, height, m_image);
+		}
+
+		@Override
+		public void read(ImageData strip, int v, int n) {
+			copy(m_image, m_row, strip, v, n);
+			m_row += n;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Writer collecting all rows in an image that is saved on close
+	 */
+	static class Writer implements IRowWriter {
+		private final IImageFile m_file;
+		private final String m_fileName;
+		private final int m_fileType;
+		private final ImageData m_image;
+		private int m_row;	// next row to be written
+		private boolean m_saving;	// the file has been opened by close
+
+		Writer(IImageFile file, String fileName, int fileType, ImageData image) {
+			m_file = file;
+			m_fileName = fileName;
+			m_fileType = fileType;
+			m_image = image;
+		}
+
+		@Override
+		public void write(ImageData strip, int v, int n) {
+			copy(strip, v, m_image, m_row, n);
+			m_row += n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			m_saving = true;
+			try {
+				m_file.save(m_fileName, m_fileType, m_image, ImageProcessing.determineImageType(m_image));
+			} catch(IOException e) {
+				throw e;
+			} catch(Exception e) {
+				throw new IOException(e);
+			}
+		}
+
+		@Override
+		public void abort() throws IOException {
+			// the file is only written by close
+			if (m_saving) Files.deleteIfExists(Path.of(m_fileName));
+		}
+	}
+}
@@ -5,7 +5,9 @@ import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
 
+import imageprocessing.ImageProcessing;
 import main.Picsi;
+import utils.RgbBuffer;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -14,6 +16,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import javax.swing.JTextArea;
 
@@ -77,22 +81,7 @@ public class PNM implements IImageFile {
 		m_ascii = false;
 		
 		// write header
-		switch(m_imageType) {
-		case Picsi.IMAGE_TYPE_BINARY:
-			raf.writeBytes("P4");
-			break;
-		case Picsi.IMAGE_TYPE_GRAY:
-			raf.writeBytes("P5");
-			break;
-		case Picsi.IMAGE_TYPE_RGB:
-			raf.writeBytes("P6");
-			break;
-		}
-		raf.writeBytes("\n" + m_width + " " + m_height);
-		if (m_imageType != Picsi.IMAGE_TYPE_BINARY) {
-			raf.writeBytes("\n" + m_maxValue);
-		}
-		raf.writeBytes("\n");		
+		writeBinHeader(raf);
 		
 		// save image in binary format
 		switch(m_imageType) {
@@ -105,6 +94,44 @@ public class PNM implements IImageFile {
 		}
 	}
 	
+	/**
+	 * Opens a binary PNM file for reading row by row; ASCII files are decoded as a whole
+	 */
+	@Override
+	public IRowReader openRows(String fileName) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		
+		// read header
+		readHeader(raf);
+		
+		if (m_ascii) {
+			raf.close();
+			return IImageFile.super.openRows(fileName);
+		}
+		return new RowReader(raf);
+	}
+
+	/**
+	 * Creates a binary PNM file written row by row
+	 */
+	@Override
+	public IRowWriter createRows(String fileName, int fileType, int width, int height, ImageData strip) throws Exception {
+		m_imageType = ImageProcessing.determineImageType(strip);
+		if (m_imageType != Picsi.IMAGE_TYPE_BINARY && m_imageType != Picsi.IMAGE_TYPE_GRAY && m_imageType != Picsi.IMAGE_TYPE_RGB) {
+			throw new Exception("Write PNM: Wrong image type");
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(fileName, "rw");
+		
+		raf.setLength(0);
+		m_width = width;
+		m_height = height;
+		if (m_maxValue == 0) m_maxValue = 255;
+		m_ascii = false;
+		writeBinHeader(raf);
+		return new RowWriter(raf, fileName);
+	}
+
 	/**
 	 * Checks PNM header structure
 	 * @param fileName
@@ -340,6 +367,157 @@ public class PNM implements IImageFile {
 		}
 	}
 	
+	private void writeBinHeader(RandomAccessFile out) throws IOException {
+		switch(m_imageType) {
+		case Picsi.IMAGE_TYPE_BINARY:
+			out.writeBytes("P4");
+			break;
+		case Picsi.IMAGE_TYPE_GRAY:
+			out.writeBytes("P5");
+			break;
+		case Picsi.IMAGE_TYPE_RGB:
+			out.writeBytes("P6");
+			break;
+		}
+		out.writeBytes("\n" + m_width + " " + m_height);
+		if (m_imageType != Picsi.IMAGE_TYPE_BINARY) {
+			out.writeBytes("\n" + m_maxValue);
+		}
+		out.writeBytes("\n");		
+	}
+
+	/**
+	 * Number of bytes of a row in a binary PNM file
+	 */
+	private int binRowBytes() {
+		switch(m_imageType) {
+		case Picsi.IMAGE_TYPE_BINARY: return (m_width + 7)/8;
+		case Picsi.IMAGE_TYPE_RGB: return 3*m_width;
+		default: return m_width;
+		}
+	}
+
+	/**
+	 * Reads the rows of a binary PNM file into strips with the same pixel layout as read
+	 */
+	private class RowReader implements IRowReader {
+		private final RandomAccessFile m_in;
+		private final byte[] m_line;
+		
+		RowReader(RandomAccessFile in) {
+			m_in = in;
+			m_line = new byte[binRowBytes()];
+		}
+
+		@Override
+		public int getWidth() {
+			return m_width;
+		}
+
+		@Override
+		public int getHeight() {
+			return m_height;
+		}
+
+		@Override
+		public ImageData createStrip(int height) {
+			final byte[] data = new byte[m_line.length*height];
+			
+			switch(m_imageType) {
+			case Picsi.IMAGE_TYPE_BINARY:
+				return new ImageData(m_width, height, 1, new PaletteData(new RGB[]{ new RGB(255, 255, 255), new RGB(0, 0, 0) }), 1, data);
+			case Picsi.IMAGE_TYPE_GRAY:
+				RGB[] grayscale = new RGB[256];
+				for(int i = 0; i < grayscale.length; i++) grayscale[i] = new RGB(i, i, i);
+				return new ImageData(m_width, height, 8, new PaletteData(grayscale), 1, data);
+			default:
+				return new ImageData(m_width, height, 24, new PaletteData(0xFF0000, 0xFF00, 0xFF), 1, data); // LSB is R
+			}
+		}
+
+		@Override
+		public void read(ImageData strip, int v, int n) throws IOException {
+			for (int y = v; y < v + n; y++) {
+				int pos = y*strip.bytesPerLine;
+				
+				m_in.readFully(m_line);
+				if (m_imageType == Picsi.IMAGE_TYPE_BINARY) {
+					for (int x = 0; x < m_line.length; x++) strip.data[pos++] = (byte)(~m_line[x]);
+				} else if (m_maxValue == 255) {
+					System.arraycopy(m_line, 0, strip.data, pos, m_line.length);
+				} else {
+					for (int x = 0; x < m_line.length; x++) strip.data[pos++] = (byte)((0xFF & m_line[x])*255/m_maxValue);
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			m_in.close();
+		}
+	}
+
+	/**
+	 * Writes the rows of binary, gray or RGB strips to a binary PNM file
+	 */
+	private class RowWriter implements IRowWriter {
+		private final RandomAccessFile m_out;
+		private final String m_fileName;
+		private final byte[] m_line;
+		
+		RowWriter(RandomAccessFile out, String fileName) {
+			m_out = out;
+			m_fileName = fileName;
+			m_line = new byte[binRowBytes()];
+		}
+
+		@Override
+		public void write(ImageData strip, int v, int n) throws IOException {
+			final RgbBuffer rgb = (m_imageType == Picsi.IMAGE_TYPE_RGB && RgbBuffer.supports(strip)) ? new RgbBuffer(strip) : null;
+			
+			for (int y = v; y < v + n; y++) {
+				int pos = y*strip.bytesPerLine;
+				
+				switch(m_imageType) {
+				case Picsi.IMAGE_TYPE_BINARY:
+					for (int x = 0; x < m_line.length; x++) m_line[x] = (byte)(~strip.data[pos++]);
+					break;
+				case Picsi.IMAGE_TYPE_GRAY:
+					for (int x = 0; x < m_line.length; x++) m_line[x] = (byte)((0xFF & strip.data[pos++])*m_maxValue/255);
+					break;
+				default:
+					for (int x = 0, i = 0; x < m_width; x++) {
+						if (rgb != null) {
+							final int p = rgb.offset(x, y);
+							m_line[i++] = (byte)(rgb.red(p)*m_maxValue/255);
+							m_line[i++] = (byte)(rgb.green(p)*m_maxValue/255);
+							m_line[i++] = (byte)(rgb.blue(p)*m_maxValue/255);
+						} else {
+							RGB c = strip.palette.getRGB(strip.getPixel(x, y));
+							m_line[i++] = (byte)(c.red*m_maxValue/255);
+							m_line[i++] = (byte)(c.green*m_maxValue/255);
+							m_line[i++] = (byte)(c.blue*m_maxValue/255);
+						}
+					}
+					break;
+				}
+				m_out.write(m_line);
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			m_out.close();
+		}
+
+		@Override
+		public void abort() throws IOException {
+			// the header is written on creation: the file is never complete before all rows are written
+			m_out.close();
+			Files.deleteIfExists(Path.of(m_fileName));
+		}
+	}
+
 	/**
 	 * Read binary image using the given buffered reader
 	 * White = 0, Black = 1
@@ -417,10 +595,10 @@ public class PNM implements IImageFile {
 		try {
 			// write data
 			final int stride = (m_width + 7)/8;
-			int pos = 0;
 			byte[] line = new byte[stride];
 	
 			for (int y = 0; y < m_height; y++) {
+				int pos = y*imageData.bytesPerLine;
 				for (int x = 0; x < stride; x++) {
 					line[x] = (byte)(~imageData.data[pos++]);
 				}
@@ -0,0 +1,99 @@
+package files;
+
+import java.util.function.UnaryOperator;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Strip-wise processing of images that are too large to be held in memory as a whole.
+ * The rows of the input file are read into a rolling window of strip height + 2*halo rows; the processing chain runs on the window,
+ * and the strip rows of its output are written to the output file. The halo rows at the bottom of a window are moved to its top
+ * and complemented by the next strip, so every input row is read once.
+ * The memory usage depends on the image width and the halo, but not on the image height.
+ * The output rows are identical to processing the whole image if every output row only depends on the input rows inside the halo
+ * (see IImageProcessor.getHalo).
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class StripStream {
+	public static final int MinStripHeight = 64;	// strips are much higher than the halo
+
+	/**
+	 * Creates the writer of the output file
+	 */
+	public static interface WriterCreator {
+		/**
+		 * @param strip first processed strip: its pixel layout determines the output format
+		 * @return row writer
+		 * @throws Exception
+		 */
+		IRowWriter create(ImageData strip) throws Exception;
+	}
+
+	/**
+	 * Processes an image file strip by strip and writes the output file
+	 * @param inFile input file name
+	 * @param outFile output file name; the file type is determined by its extension
+	 * @param halo number of rows above and below an output row the processing chain reads
+	 * @param chain processing chain; it must not change its input and must preserve the image size
+	 * @throws Exception
+	 */
+	public static void run(String inFile, String outFile, int halo, UnaryOperator<ImageData> chain) throws Exception {
+		try (IRowReader in = ImageFiles.openRows(inFile)) {
+			run(in, halo, chain, strip -> ImageFiles.createRows(outFile, in.getWidth(), in.getHeight(), strip));
+		}
+	}
+
+	/**
+	 * Processes all rows of a row reader strip by strip.
+	 * If the processing, reading or writing fails, the output is aborted and the original exception is thrown.
+	 * @param in row reader
+	 * @param halo number of rows above and below an output row the processing chain reads
+	 * @param chain processing chain; it must not change its input and must preserve the image size
+	 * @param creator creates the writer when the pixel layout of the output is known
+	 * @throws Exception
+	 */
+	public static void run(IRowReader in, int halo, UnaryOperator<ImageData> chain, WriterCreator creator) throws Exception {
+		if (halo < 0) throw new IllegalArgumentException("negative halo: " + halo);
+
+		final int h = in.getHeight();
+		final int stripHeight = Math.max(MinStripHeight, 4*halo);
+		ImageData window = null;
+		int lo = 0, hi = 0;		// image rows [lo, hi) in the window
+		IRowWriter out = null;
+
+		try {
+			for (int y0=0; y0 < h; y0 += stripHeight) {
+				final int y1 = Math.min(h, y0 + stripHeight);
+				final int nextLo = Math.max(0, y0 - halo), nextHi = Math.min(h, y1 + halo);
+				final ImageData next = (window != null && window.height == nextHi - nextLo) ? window : in.createStrip(nextHi - nextLo);
+
+				// keep the rows shared with the previous window and read the others
+				if (window != null) ImageRows.copy(window, nextLo - lo, next, 0, hi - nextLo);
+				in.read(next, Math.max(0, hi - nextLo), nextHi - Math.max(hi, nextLo));
+				window = next;
+				lo = nextLo;
+				hi = nextHi;
+
+				final ImageData outData = chain.apply(window);
+				if (outData == null || outData.width != window.width || outData.height != window.height) {
+					throw new IllegalStateException("the processing chain doesn't preserve the image size");
+				}
+				if (out == null) out = creator.create(outData);
+				out.write(outData, y0 - lo, y1 - y0);
+			}
+			if (out != null) out.close();
+		} catch(Throwable e) {
+			// don't leave a truncated file that looks like a result
+			if (out != null) {
+				try {
+					out.abort();
+				} catch(Throwable e2) {
+					e.addSuppressed(e2);
+				}
+			}
+			throw e;
+		}
+	}
+}
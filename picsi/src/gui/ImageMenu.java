@@ -55,6 +55,11 @@ public class ImageMenu extends UserMenu {
         add("Pattern Matching",                  SWT.F10,        new PatternMatching());
         add("Gauss Filter",                      SWT.F11,        new imageprocessing.filter.GaussFilter());
         add("Median Filter",                     SWT.F12,        new imageprocessing.filter.MedianFilter());
+        add("Rank Filter...",                    SWT.NONE,       new imageprocessing.filter.RankFilter());
+        add("Recursive Gauss Filter...",         SWT.NONE,       new imageprocessing.filter.RecursiveGaussFilter());
+        add("Bilateral Grid Filter...",          SWT.NONE,       new imageprocessing.filter.BilateralGridFilter());
+        add("Guided Filter...",                  SWT.NONE,       new imageprocessing.filter.GuidedFilter());
+        add("Gray Morphologic Filter...",        SWT.NONE,       new imageprocessing.filter.GrayMorphologicFilter());
         // TODO add here further image processing entries (they are inserted into the Image menu)
     }
 }
@@ -17,6 +17,7 @@ import main.Picsi;
 import files.Document;
 import files.ImageFiles;
 import imageprocessing.ImageProcessing;
+import imageprocessing.ProcessorStats;
 import imageprocessing.colors.ColorSpaces;
 
 /**
@@ -37,7 +38,9 @@ public class MainWindow {
     private Clipboard m_clipboard; 
 	private Editor m_editor;
 	private String m_lastPath; // used to seed the file dialog
-	private Label m_statusLabel, m_zoomLabel;
+	private Label m_statusLabel, m_statsLabel, m_zoomLabel;
+	private ProgressBar m_progressBar;
+	private ProcessorExecutor m_executor; // runs image processors off the UI thread
 	private MenuItem m_editMenuItem;
 	private ImageMenu m_imageMenu; // used in find-and-run
 
@@ -130,6 +133,15 @@ public class MainWindow {
 			});			
 		}
 		
+		// background execution of image processors: Esc cancels the running operation
+		m_executor = new ProcessorExecutor(this, m_display);
+		m_display.addFilter(SWT.KeyDown, new Listener() {
+			@Override
+			public void handleEvent(Event e) {
+				if (e.keyCode == SWT.ESC && m_executor.isBusy()) m_executor.cancel();
+			}
+		});
+		
 		// create twin view: must be done before createMenuBar, because of dynamic image processing menu items
 		m_views = new TwinView(this, m_shell, SWT.NONE);
 		
@@ -150,7 +162,7 @@ public class MainWindow {
 			
 			GridLayout gridLayout = new GridLayout();
 			gridLayout.marginRight = 5;
-			gridLayout.numColumns = 2;
+			gridLayout.numColumns = 4;
 			gridLayout.horizontalSpacing = 10;
 			gridLayout.marginHeight = 0;
 			gridLayout.marginWidth = 0;
@@ -161,6 +173,18 @@ public class MainWindow {
 			data = new GridData(SWT.FILL, SWT.FILL, true, true);
 			m_statusLabel.setLayoutData(data);
 			
+			// Progress of the running image processing operation
+			m_progressBar = new ProgressBar(compo, SWT.HORIZONTAL | SWT.SMOOTH);
+			data = new GridData(SWT.RIGHT, SWT.CENTER, false, false);
+			data.exclude = true;
+			m_progressBar.setLayoutData(data);
+			m_progressBar.setVisible(false);
+			
+			// Label to show the statistics of the last image processing operation
+			m_statsLabel = new Label(compo, SWT.RIGHT);
+			data = new GridData(SWT.RIGHT, SWT.FILL, false, true);
+			m_statsLabel.setLayoutData(data);
+			
 			// Label to show image size and zoom value
 			m_zoomLabel = new Label(compo, SWT.RIGHT);
 			data = new GridData(SWT.RIGHT, SWT.FILL, false, true);
@@ -212,6 +236,50 @@ public class MainWindow {
 		}
 	}
 	
+	/**
+	 * Show timing and allocation statistics of the last image processing operation in status bar
+	 * @param stats
+	 */
+	public void showProcessorStats(ProcessorStats stats) {
+		showOperationInfo(stats.toString());
+	}
+	
+	/**
+	 * Show information about the last image processing operation in status bar
+	 * @param text
+	 */
+	public void showOperationInfo(String text) {
+		m_statsLabel.setText(text);
+		m_statsLabel.getParent().layout();
+	}
+	
+	/**
+	 * Show or hide the progress of the running image processing operation in status bar
+	 * @param operation running operation or null to hide the progress
+	 * @param percent progress in [0, 100]
+	 */
+	public void showProgress(String operation, int percent) {
+		final boolean visible = operation != null;
+		
+		if (visible) {
+			m_progressBar.setSelection(percent);
+			m_statsLabel.setText(Picsi.createMsg("{0}: {1}% (Esc cancels)", new Object[] { operation, percent }));
+		}
+		if (m_progressBar.getVisible() != visible) {
+			((GridData)m_progressBar.getLayoutData()).exclude = !visible;
+			m_progressBar.setVisible(visible);
+		}
+		m_statsLabel.getParent().layout();
+	}
+	
+	/**
+	 * Returns the executor running image processors off the UI thread
+	 * @return
+	 */
+	public ProcessorExecutor getExecutor() {
+		return m_executor;
+	}
+	
 	/**
 	 * Show image size and zoom factors in status bar
 	 * @param zoom1
@@ -1038,7 +1106,7 @@ public class MainWindow {
 					
 					box.setText("PSNR");
 					if (psnr != null) {
-						if (imageType == Picsi.IMAGE_TYPE_INDEXED || imageType == Picsi.IMAGE_TYPE_RGB) {
+						if (psnr.length == 3) {
 							box.setMessage(Picsi.createMsg("Red: {0}, Green: {1}, Blue: {2}", new Object[] { psnr[0], psnr[1], psnr[2] }));
 						} else {
 							box.setMessage("PSNR: " + psnr[0]);
@@ -180,6 +180,10 @@ public class OptionPane extends Dialog {
 	}
 
 	public static int showOptionDialog(String message, int style, Object[] options, int defOption) {
+		if (Display.getCurrent() == null) {
+			// called from a background thread
+			return Picsi.syncExec(() -> showOptionDialog(message, style, options, defOption));
+		}
 		OptionPane op = new OptionPane(Picsi.s_shell, style);
 		op.m_title = "Options";
 		op.m_message = message;
@@ -188,6 +192,10 @@ public class OptionPane extends Dialog {
 	}
 	
 	public static String showInputDialog(String message) {
+		if (Display.getCurrent() == null) {
+			// called from a background thread
+			return Picsi.syncExec(() -> showInputDialog(message));
+		}
 		OptionPane op = new OptionPane(Picsi.s_shell, SWT.ICON_QUESTION);
 		op.m_title = "Input";
 		op.m_message = message;
@@ -0,0 +1,135 @@
+package gui;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.widgets.Display;
+
+import imageprocessing.IImageProcessor;
+import imageprocessing.IProgressMonitor;
+import imageprocessing.ProcessorStats;
+import imageprocessing.ResultCache;
+
+/**
+ * Runs image processors off the SWT UI thread.
+ * The input image is copied before the processor starts, so the views can be changed during processing.
+ * Progress is shown in the status bar, the result is delivered to the second view on the UI thread.
+ * Only one operation runs at a time; the processors use the shared parallel pool themselves.
+ * Outputs of repeated operations on the same input are taken from the ResultCache.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class ProcessorExecutor {
+	private final MainWindow m_mainWnd;
+	private final Display m_display;
+	private final ExecutorService m_executor;
+	private Monitor m_current; // running operation or null; only accessed in the UI thread
+
+	/**
+	 * Progress monitor of one operation
+	 */
+	private class Monitor implements IProgressMonitor {
+		private final String m_operation;
+		private final AtomicInteger m_percent = new AtomicInteger();
+		private volatile boolean m_canceled;
+
+		Monitor(String operation) {
+			m_operation = operation;
+		}
+
+		@Override
+		public void setProgress(double fraction) {
+			final int percent = (int)Math.max(0, Math.min(100, 100*fraction));
+			final int old = m_percent.getAndSet(percent);
+
+			// update the status bar only if the shown value changes
+			if (percent != old) asyncExec(() -> {
+				if (m_current == this) m_mainWnd.showProgress(m_operation, m_percent.get());
+			});
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return m_canceled;
+		}
+	}
+
+	public ProcessorExecutor(MainWindow mainWnd, Display display) {
+		m_mainWnd = mainWnd;
+		m_display = display;
+		m_executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "Picsi Processor");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Returns true if an operation is running
+	 * @return
+	 */
+	public boolean isBusy() {
+		return m_current != null;
+	}
+
+	/**
+	 * Requests the cancellation of the running operation
+	 */
+	public void cancel() {
+		if (m_current != null) m_current.m_canceled = true;
+	}
+
+	/**
+	 * Starts the processor on a background thread. Must be called in the UI thread.
+	 * @param operation name of the operation
+	 * @param proc image processor
+	 * @param inData input image; it is copied
+	 * @param imageType
+	 * @param views the output image is shown in the second view
+	 * @return false if another operation is still running
+	 */
+	public boolean submit(String operation, IImageProcessor proc, ImageData inData, int imageType, TwinView views) {
+		if (m_current != null) return false;
+
+		final ImageData snapshot = (ImageData)inData.clone();
+		final Monitor monitor = new Monitor(operation);
+
+		m_current = monitor;
+		m_mainWnd.showProgress(operation, 0);
+		m_executor.execute(() -> {
+			ImageData output = null;
+			Throwable error = null;
+
+			try {
+				output = ProcessorStats.measure(operation, snapshot, () -> ResultCache.getDefault().run(proc, snapshot, imageType, monitor),
+					stats -> asyncExec(() -> m_mainWnd.showProcessorStats(stats)));
+			} catch(Throwable e) {
+				error = e;
+			}
+
+			final ImageData outData = output;
+			final Throwable e = error;
+
+			asyncExec(() -> {
+				m_current = null;
+				m_mainWnd.showProgress(null, 0);
+				if (monitor.isCanceled() || e instanceof CancellationException) {
+					m_mainWnd.showOperationInfo(operation + ": canceled");
+				} else if (e != null) {
+					m_mainWnd.showErrorDialog("ImageProcessing", operation, e);
+				} else if (outData != null) {
+					views.showImageInSecondView(outData);
+				}
+			});
+		});
+		return true;
+	}
+
+	private void asyncExec(Runnable r) {
+		if (!m_display.isDisposed()) m_display.asyncExec(r);
+	}
+}
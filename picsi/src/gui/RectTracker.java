@@ -31,6 +31,16 @@ public class RectTracker {
 		Picsi.getTwinView().m_mainWnd.setEnabledMenu(false);
 	}
 	
+	/**
+	 * Creates and starts a rectangle tracker on the UI thread; can be called from background threads
+	 * @param w rectangle width
+	 * @param h rectangle height
+	 * @return rectangle or null
+	 */
+	public static Rectangle track(int w, int h) {
+		return Picsi.syncExec(() -> new RectTracker().start(w, h));
+	}
+
 	/**
 	 * Starts a rectangle tracker for entering a x-y-oriented rectangle
 	 * @param w rectangle width
@@ -3,7 +3,6 @@ package gui;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
 import org.eclipse.swt.events.SelectionEvent;
-import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Menu;
@@ -92,19 +91,20 @@ public class UserMenu {
 	}
 	
 	private void run(MenuItem mi) {
-		try {
-			IImageProcessor proc = (IImageProcessor)mi.getData();
-			
-			ImageData output = proc.run(m_views.getImage(true), m_views.getImageType(true));
-			if (output != null) {
-				m_views.showImageInSecondView(output);
-			}		
-		} catch(Throwable e) {
-			String text = mi.getText();
-			int last = text.indexOf('\t');
-			if (last == -1) last = text.length();
-			String location = text.substring(0, last).replace("&", "");
-			m_views.m_mainWnd.showErrorDialog("ImageProcessing", location, e);
-		}						
+		IImageProcessor proc = (IImageProcessor)mi.getData();
+		ProcessorExecutor executor = m_views.m_mainWnd.getExecutor();
+		
+		// the processor runs on a background thread; its statistics are shown in the status bar and emitted as JFR event
+		if (!executor.submit(operationName(mi), proc, m_views.getImage(true), m_views.getImageType(true), m_views)) {
+			// another operation is still running
+			mi.getDisplay().beep();
+		}
+	}
+
+	private static String operationName(MenuItem mi) {
+		String text = mi.getText();
+		int last = text.indexOf('\t');
+		if (last == -1) last = text.length();
+		return text.substring(0, last).replace("&", "");
 	}
 }
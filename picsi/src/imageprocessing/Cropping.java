@@ -20,12 +20,11 @@ public class Cropping implements IImageProcessor {
 
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
-		final float zoom = Picsi.getTwinView().getZoomFactor(true);
+		final float zoom = Picsi.syncExec(() -> Picsi.getTwinView().getZoomFactor(true));
 		final int w = inData.width, h = inData.height;
 		
 		// let the user choose the ROI using a tracker
-		RectTracker rt = new RectTracker();
-		Rectangle r = rt.start((int)(w*zoom/4), (int)(h*zoom/4));
+		Rectangle r = RectTracker.track((int)(w*zoom/4), (int)(h*zoom/4));
 		
 		return ImageProcessing.crop(inData, r.x, r.y, r.width, r.height);
 	}
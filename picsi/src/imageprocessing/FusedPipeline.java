@@ -0,0 +1,441 @@
+package imageprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.RGB;
+
+import imageprocessing.binary.MorphologicFilter;
+import main.Picsi;
+import utils.BinaryBuffer;
+import utils.GrayBuffer;
+import utils.Parallel;
+import utils.PixelKernels;
+import utils.RgbBuffer;
+
+/**
+ * Fused processing chain: point and neighbourhood operations are composed and executed in one pass over the image.
+ * The image is processed in horizontal strips; each strip streams its rows through all stages,
+ * so intermediate results only exist as a few rows in reusable scratch buffers instead of full-size images.
+ * Neighbourhood stages keep a ring buffer of 2r+1 rows; the rows in the halo of a strip are computed by both neighbouring strips.
+ *
+ * Pixel values are ints: direct color images deliver 0xRRGGBB, all other images their pixel values.
+ * A pipeline is immutable; each operation returns a new pipeline that shares the source image.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class FusedPipeline {
+	/**
+	 * Neighbourhood kernel computing one output row
+	 */
+	public static interface RowKernel {
+		/**
+		 * @param rows window of 2r+1 input rows centered at the output row; rows outside of the image are null
+		 * @param dst output row
+		 * @param width number of pixels per row
+		 */
+		void run(int[][] rows, int[] dst, int width);
+	}
+
+	private static interface RowSink {
+		void run(int v, int[] row);
+	}
+
+	private static record Stage(IntUnaryOperator point, int radius, RowKernel kernel) {}
+
+	static final int MinStripHeight = 64;	// strips are much higher than the halo of the chain
+
+	private final ImageData m_source;
+	private final int m_sourceType;
+	private final List<Stage> m_stages;
+	private final boolean m_gray;			// pixel values are gray values
+
+	/**
+	 * Creates an empty pipeline reading the given image
+	 * @param source input image; it isn't changed
+	 * @return
+	 */
+	public static FusedPipeline of(ImageData source) {
+		final int imageType = ImageProcessing.determineImageType(source);
+		return new FusedPipeline(source, imageType, new ArrayList<>(), imageType == Picsi.IMAGE_TYPE_GRAY);
+	}
+
+	private FusedPipeline(ImageData source, int sourceType, List<Stage> stages, boolean gray) {
+		m_source = source;
+		m_sourceType = sourceType;
+		m_stages = stages;
+		m_gray = gray;
+	}
+
+	private FusedPipeline append(Stage stage, boolean gray) {
+		List<Stage> stages = new ArrayList<>(m_stages);
+		stages.add(stage);
+		return new FusedPipeline(m_source, m_sourceType, stages, gray);
+	}
+
+	/**
+	 * Appends a point operation
+	 * @param op maps an input value to an output value
+	 * @return new pipeline
+	 */
+	public FusedPipeline map(IntUnaryOperator op) {
+		return append(new Stage(op, 0, null), false);
+	}
+
+	/**
+	 * Converts the pixel values to gray values with the weights of GrayScaleConverter.
+	 * Gray images pass unchanged.
+	 * @return new pipeline
+	 */
+	public FusedPipeline toGray() {
+		if (m_gray) return this;
+
+		if (m_stages.isEmpty() && !m_source.palette.isDirect) {
+			// indexed image: look-up table of the palette
+			final RGB[] rgbs = m_source.getRGBs();
+			final int[] lut = new int[rgbs.length];
+
+			for (int i=0; i < lut.length; i++) {
+				lut[i] = PixelKernels.gray(rgbs[i].red, rgbs[i].green, rgbs[i].blue);
+			}
+			return append(new Stage(v -> lut[v], 0, null), true);
+		} else {
+			return append(new Stage(c -> PixelKernels.gray((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF), 0, null), true);
+		}
+	}
+
+	/**
+	 * Appends a neighbourhood operation
+	 * @param radius number of rows above and below the output row read by the kernel
+	 * @param kernel
+	 * @return new pipeline
+	 */
+	public FusedPipeline neighbourhood(int radius, RowKernel kernel) {
+		assert radius >= 0 : "negative radius";
+		return append(new Stage(null, radius, kernel), false);
+	}
+
+	/**
+	 * Binary erosion with the same result as MorphologicFilter.erosion
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new pipeline
+	 */
+	public FusedPipeline erosion(boolean[][] struct, int cx, int cy) {
+		final int fg = MorphologicFilter.s_foreground, bg = MorphologicFilter.s_background;
+		return morph(struct, cx, cy, true, (in, all) -> all ? fg : bg);
+	}
+
+	/**
+	 * Binary dilation with the same result as MorphologicFilter.dilation
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new pipeline
+	 */
+	public FusedPipeline dilation(boolean[][] struct, int cx, int cy) {
+		final int fg = MorphologicFilter.s_foreground, bg = MorphologicFilter.s_background;
+		return morph(struct, cx, cy, false, (in, any) -> any ? fg : bg);
+	}
+
+	/**
+	 * Binary contour with the same result as MorphologicFilter.contour
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @param inner true = inner contour, false = outer contour
+	 * @return new pipeline
+	 */
+	public FusedPipeline contour(boolean[][] struct, int cx, int cy, boolean inner) {
+		final int fg = MorphologicFilter.s_foreground, bg = MorphologicFilter.s_background;
+
+		if (inner) {
+			return morph(struct, cx, cy, true, (in, all) -> (in == fg && !all) ? bg : in);
+		} else {
+			return morph(struct, cx, cy, false, (in, any) -> (in == bg && any) ? fg : in);
+		}
+	}
+
+	private static interface MorphRule {
+		/**
+		 * @param in input value of the center pixel
+		 * @param hit all (erosion) or any (dilation) structure pixels are foreground
+		 * @return output value
+		 */
+		int run(int in, boolean hit);
+	}
+
+	/**
+	 * Appends a binary morphological operation; pixels outside of the image are not foreground
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @param all true: hit if all structure pixels are foreground, false: hit if any structure pixel is foreground
+	 * @param rule computes the output value
+	 * @return new pipeline
+	 */
+	private FusedPipeline morph(boolean[][] struct, int cx, int cy, boolean all, MorphRule rule) {
+		final int fg = MorphologicFilter.s_foreground;
+		int n = 0, radius = 0;
+
+		for (boolean[] row : struct) for (boolean b : row) if (b) n++;
+
+		// offsets of the structure elements
+		final int[] dx = new int[n], dy = new int[n];
+		for (int j=0, k=0; j < struct.length; j++) {
+			for (int i=0; i < struct[j].length; i++) {
+				if (struct[j][i]) {
+					dx[k] = i - cx;
+					dy[k] = j - cy;
+					radius = Math.max(radius, Math.abs(dy[k]));
+					k++;
+				}
+			}
+		}
+
+		final int r = radius, nElems = n;
+		return neighbourhood(r, (rows, dst, width) -> {
+			final int[] center = rows[r];
+
+			for (int u=0; u < width; u++) {
+				boolean hit = all;
+
+				for (int k=0; hit == all && k < nElems; k++) {
+					final int[] row = rows[r + dy[k]];
+					final int u0 = u + dx[k];
+
+					if (all != (row != null && u0 >= 0 && u0 < width && row[u0] == fg)) hit = !all;
+				}
+				dst[u] = rule.run(center[u], hit);
+			}
+		});
+	}
+
+	/**
+	 * Runs the pipeline and writes the result into the given image
+	 * @param outData output image of the same size as the source image
+	 * @return outData
+	 */
+	public ImageData into(ImageData outData) {
+		assert outData.width == m_source.width && outData.height == m_source.height : "wrong image size";
+
+		final RowSink sink;
+
+		if (BinaryBuffer.supports(outData)) {
+			final BinaryBuffer out = new BinaryBuffer(outData);
+			sink = out::setRow;
+		} else if (GrayBuffer.supports(outData)) {
+			final GrayBuffer out = new GrayBuffer(outData);
+			sink = out::setRow;
+		} else {
+			sink = (v, row) -> outData.setPixels(0, v, outData.width, row, 0);
+		}
+		execute(() -> sink, null);
+		return outData;
+	}
+
+	/**
+	 * Runs the pipeline and returns the result as a new image
+	 * @param imageType type of the output image
+	 * @return new image
+	 */
+	public ImageData toImage(int imageType) {
+		return into(ImageProcessing.createImage(m_source.width, m_source.height, imageType));
+	}
+
+	/**
+	 * Runs the pipeline and returns the histogram of the output values without storing them
+	 * @param nClasses number of histogram classes; all output values must be in [0, nClasses)
+	 * @return histogram
+	 */
+	public int[] histogram(int nClasses) {
+		final int[] histo = new int[nClasses];
+
+		execute(() -> new HistogramSink(nClasses), sink -> {
+			// reduction in the calling thread
+			for (int i=0; i < nClasses; i++) histo[i] += sink.m_histo[i];
+		});
+		return histo;
+	}
+
+	private class HistogramSink implements RowSink {
+		final int[] m_histo;
+
+		HistogramSink(int nClasses) {
+			m_histo = new int[nClasses];
+		}
+
+		@Override
+		public void run(int v, int[] row) {
+			for (int u=0; u < m_source.width; u++) m_histo[row[u]]++;
+		}
+	}
+
+	/**
+	 * Processes all strips in parallel. Each task owns a worker with its own scratch buffers and sink.
+	 * @param creator creates the sink of a task
+	 * @param reducer called in the calling thread with the sink of each task or null
+	 */
+	private <S extends RowSink> void execute(Parallel.RedDataCreator<S> creator, Parallel.Reducer<S> reducer) {
+		final int h = m_source.height;
+		int halo = 0;
+
+		for (Stage s : m_stages) halo += s.radius();
+
+		final int stripHeight = Math.max(MinStripHeight, 16*halo);
+		final int nStrips = (h + stripHeight - 1)/stripHeight;
+
+		Parallel.For(0, nStrips,
+			// creator
+			() -> new Worker<>(creator.run()),
+			// loop body
+			(s, worker) -> worker.run(s*stripHeight, Math.min(h, (s + 1)*stripHeight)),
+			// reducer
+			worker -> {
+				if (reducer != null) reducer.run(worker.m_sink);
+			}
+		);
+	}
+
+	/**
+	 * Streams the rows of strips through all stages
+	 */
+	private class Worker<S extends RowSink> {
+		final S m_sink;
+		final int[] m_row;			// source row
+		final int[][][] m_rings;	// input rows of neighbourhood stages
+		final int[][][] m_windows;// window of the current output row of neighbourhood stages
+		final int[][] m_out;		// output row of neighbourhood stages
+		final int[] m_lo, m_hi;		// output range [lo, hi) of each stage in the current strip
+		final RgbBuffer m_rgb;		// direct access to the source or null
+		final GrayBuffer m_gray;
+		final BinaryBuffer m_bin;
+
+		Worker(S sink) {
+			final int w = m_source.width;
+			final int n = m_stages.size();
+
+			m_sink = sink;
+			m_row = new int[w];
+			m_rings = new int[n][][];
+			m_windows = new int[n][][];
+			m_out = new int[n][];
+			m_lo = new int[n];
+			m_hi = new int[n];
+			for (int i=0; i < n; i++) {
+				final int r = m_stages.get(i).radius();
+
+				if (m_stages.get(i).kernel() != null) {
+					m_rings[i] = new int[2*r + 1][w];
+					m_windows[i] = new int[2*r + 1][];
+					m_out[i] = new int[w];
+				}
+			}
+			m_rgb = (m_source.palette.isDirect && RgbBuffer.supports(m_source)) ? new RgbBuffer(m_source) : null;
+			m_gray = (!m_source.palette.isDirect || m_sourceType == Picsi.IMAGE_TYPE_GRAY) && GrayBuffer.supports(m_source) ? new GrayBuffer(m_source) : null;
+			m_bin = BinaryBuffer.supports(m_source) ? new BinaryBuffer(m_source) : null;
+		}
+
+		/**
+		 * Produces the output rows [y0, y1)
+		 * @param y0
+		 * @param y1
+		 */
+		void run(int y0, int y1) {
+			final int h = m_source.height;
+			final int n = m_stages.size();
+			int halo = 0;
+
+			for (int i=n - 1; i >= 0; i--) {
+				m_lo[i] = Math.max(0, y0 - halo);
+				m_hi[i] = Math.min(h, y1 + halo);
+				halo += m_stages.get(i).radius();
+			}
+
+			// stream the source rows of the strip and its halo
+			final int hi = Math.min(h, y1 + halo);
+			for (int v = Math.max(0, y0 - halo); v < hi; v++) {
+				readRow(v);
+				push(0, v, m_row);
+			}
+
+			// the input of stage i is complete after stage i-1 has been flushed
+			for (int i=0; i < n; i++) {
+				final int r = m_stages.get(i).radius();
+
+				if (m_stages.get(i).kernel() != null) {
+					final int inHi = (i == 0) ? hi : m_hi[i - 1];
+
+					for (int t = Math.max(m_lo[i], inHi - r); t < m_hi[i]; t++) emit(i, t);
+				}
+			}
+		}
+
+		/**
+		 * Passes row v to stage i
+		 */
+		private void push(int i, int v, int[] row) {
+			if (i == m_stages.size()) {
+				m_sink.run(v, row);
+				return;
+			}
+
+			final Stage stage = m_stages.get(i);
+
+			if (stage.kernel() == null) {
+				// point operation in place
+				final IntUnaryOperator op = stage.point();
+				for (int u=0; u < row.length; u++) row[u] = op.applyAsInt(row[u]);
+				push(i + 1, v, row);
+			} else {
+				final int[][] ring = m_rings[i];
+				final int t = v - stage.radius();
+
+				System.arraycopy(row, 0, ring[v%ring.length], 0, row.length);
+				if (t >= m_lo[i] && t < m_hi[i]) emit(i, t);
+			}
+		}
+
+		/**
+		 * Computes output row t of neighbourhood stage i and passes it to the next stage
+		 */
+		private void emit(int i, int t) {
+			final int h = m_source.height;
+			final int r = m_stages.get(i).radius();
+			final int[][] ring = m_rings[i];
+			final int[][] window = m_windows[i];
+
+			for (int k=-r; k <= r; k++) {
+				final int v = t + k;
+				window[k + r] = (v < 0 || v >= h) ? null : ring[v%ring.length];
+			}
+			m_stages.get(i).kernel().run(window, m_out[i], m_source.width);
+			push(i + 1, t, m_out[i]);
+		}
+
+		/**
+		 * Reads row v of the source image into m_row
+		 */
+		private void readRow(int v) {
+			if (m_rgb != null) {
+				m_rgb.getRow(v, m_row);
+			} else if (m_gray != null) {
+				m_gray.getRow(v, m_row);
+			} else if (m_bin != null) {
+				m_bin.getRow(v, m_row);
+			} else {
+				m_source.getPixels(0, v, m_source.width, m_row, 0);
+				if (m_source.palette.isDirect) {
+					for (int u=0; u < m_row.length; u++) {
+						final RGB rgb = m_source.palette.getRGB(m_row[u]);
+						m_row[u] = rgb.red << 16 | rgb.green << 8 | rgb.blue;
+					}
+				}
+			}
+		}
+	}
+}
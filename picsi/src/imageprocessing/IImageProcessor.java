@@ -23,4 +23,36 @@ public interface IImageProcessor {
 	 * @return output image or null if the image processing cannot produce a useful output
 	 */
 	public ImageData run(final ImageData inData, int imageType);
+
+	/**
+	 * Runs the image processing routine with progress reporting and cancellation.
+	 * The GUI calls this method on a background thread; the default implementation ignores the monitor.
+	 * @param inData input image data
+	 * @param imageType one of the image types define in Picsi.IMAGE_TYPE_XXX
+	 * @param monitor progress and cancellation callback
+	 * @return output image or null if the image processing cannot produce a useful output
+	 * @throws java.util.concurrent.CancellationException if the operation has been canceled
+	 */
+	public default ImageData run(final ImageData inData, int imageType, IProgressMonitor monitor) {
+		return run(inData, imageType);
+	}
+
+	/**
+	 * Returns the parameters that determine the output together with the input image and the processor class.
+	 * Processors asking the user for parameters inside run or with side effects return null; their outputs aren't cached.
+	 * @return parameters with value based equals and hashCode, or null if the output must not be cached
+	 */
+	public default Object getCacheKey() {
+		return null;
+	}
+
+	/**
+	 * Returns the number of input rows above and below an output row that determine the output row.
+	 * Processors with a finite halo can run on horizontal strips of an image that is streamed row by row (see files.StripStream);
+	 * the output must not depend on the absolute row position, and the image border must be handled as in the whole image.
+	 * @return halo in rows (0 for point operations), or -1 if the processor needs the whole image
+	 */
+	public default int getHalo() {
+		return -1;
+	}
 }
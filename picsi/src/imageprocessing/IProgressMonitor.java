@@ -0,0 +1,43 @@
+package imageprocessing;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Progress and cancellation callback of a running image processor.
+ * Long running processors report their progress and poll for cancellation, e.g. once per image row.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public interface IProgressMonitor {
+	/**
+	 * Monitor that ignores the progress and is never canceled
+	 */
+	public static final IProgressMonitor NONE = new IProgressMonitor() {
+		@Override
+		public void setProgress(double fraction) {}
+
+		@Override
+		public boolean isCanceled() { return false; }
+	};
+
+	/**
+	 * Reports the progress
+	 * @param fraction finished part of the work in [0, 1]
+	 */
+	public void setProgress(double fraction);
+
+	/**
+	 * Returns true if the user has canceled the operation
+	 * @return
+	 */
+	public boolean isCanceled();
+
+	/**
+	 * Stops the operation if it has been canceled
+	 * @throws CancellationException
+	 */
+	public default void checkCanceled() {
+		if (isCanceled()) throw new CancellationException();
+	}
+}
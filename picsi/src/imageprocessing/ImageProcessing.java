@@ -7,7 +7,11 @@ import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
 import org.eclipse.swt.graphics.RGB;
 
+import utils.GrayBuffer;
+import utils.ImageBuffer;
 import utils.Parallel;
+import utils.PixelKernels;
+import utils.RgbBuffer;
 
 /**
  * Image processing class: contains widely used image processing functions
@@ -124,8 +128,115 @@ public class ImageProcessing {
 	 * @return double-array of length 1 or 3 containing the separate PSNR of each channel
 	 */
 	public static double[] psnr(ImageData inData1, ImageData inData2, int imageType) {
-		// TODO
-		return null;
+		assert inData1.width == inData2.width && inData1.height == inData2.height : "different image sizes";
+
+		final int nChannels = (imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_BINARY) ? 1 : 3;
+		final long[] sums = new long[nChannels];
+
+		if (nChannels == 1 && GrayBuffer.supports(inData1) && GrayBuffer.supports(inData2)) {
+			// one byte per pixel, vectorized if available
+			final GrayBuffer in1 = new GrayBuffer(inData1), in2 = new GrayBuffer(inData2);
+			final PixelKernels kernels = PixelKernels.get();
+
+			Parallel.For(0, inData1.height,
+				() -> new long[1],
+				(v, s) -> s[0] += kernels.squaredDiff(in1.m_data, in1.rowOffset(v), in2.m_data, in2.rowOffset(v), 1, 0, inData1.width),
+				s -> sums[0] += s[0]
+			);
+		} else if (RgbBuffer.supports(inData1) && RgbBuffer.supports(inData2) && inData1.depth == inData2.depth) {
+			// same pixel size, but the channel order may differ
+			final RgbBuffer in1 = new RgbBuffer(inData1), in2 = new RgbBuffer(inData2);
+			final int[] c1 = { in1.m_r, in1.m_g, in1.m_b }, c2 = { in2.m_r, in2.m_g, in2.m_b };
+			final PixelKernels kernels = PixelKernels.get();
+
+			Parallel.For(0, inData1.height,
+				() -> new long[3],
+				(v, s) -> {
+					for (int c=0; c < 3; c++) {
+						if (c1[c] == c2[c]) {
+							s[c] += kernels.squaredDiff(in1.m_data, in1.rowOffset(v), in2.m_data, in2.rowOffset(v), in1.m_bytesPerPixel, c1[c], inData1.width);
+						} else {
+							for (int u=0, pos1 = in1.rowOffset(v), pos2 = in2.rowOffset(v); u < inData1.width; u++, pos1 += in1.m_bytesPerPixel, pos2 += in2.m_bytesPerPixel) {
+								final int d = in1.channel(pos1, c) - in2.channel(pos2, c);
+								s[c] += d*d;
+							}
+						}
+					}
+				},
+				s -> { for (int c=0; c < 3; c++) sums[c] += s[c]; }
+			);
+		} else {
+			// works for images with/without palette
+			Parallel.For(0, inData1.height,
+				() -> new long[nChannels],
+				(v, s) -> {
+					for (int u=0; u < inData1.width; u++) {
+						final RGB rgb1 = inData1.palette.getRGB(inData1.getPixel(u, v));
+						final RGB rgb2 = inData2.palette.getRGB(inData2.getPixel(u, v));
+						final int dr = rgb1.red - rgb2.red;
+
+						s[0] += dr*dr;
+						if (nChannels == 3) {
+							final int dg = rgb1.green - rgb2.green, db = rgb1.blue - rgb2.blue;
+							s[1] += dg*dg;
+							s[2] += db*db;
+						}
+					}
+				},
+				s -> { for (int c=0; c < nChannels; c++) sums[c] += s[c]; }
+			);
+		}
+
+		final double[] psnr = new double[nChannels];
+		final double n = (double)inData1.width*inData1.height;
+
+		for (int c=0; c < nChannels; c++) {
+			psnr[c] = (sums[c] == 0) ? Double.POSITIVE_INFINITY : 10*Math.log10(255*255*n/sums[c]);
+		}
+		return psnr;
+	}
+
+	/**
+	 * Compute the absolute difference image |inData1 - inData2| of two images of the same size.
+	 * Direct color channels and gray values are subtracted separately; the output has the image type of inData1 without alpha values
+	 * @param inData1
+	 * @param inData2
+	 * @return difference image
+	 */
+	public static ImageData difference(ImageData inData1, ImageData inData2) {
+		assert inData1.width == inData2.width && inData1.height == inData2.height : "different image sizes";
+
+		final PaletteData p1 = inData1.palette, p2 = inData2.palette;
+		final int imageType = determineImageType(inData1);
+
+		if (imageType == Picsi.IMAGE_TYPE_GRAY && determineImageType(inData2) == Picsi.IMAGE_TYPE_GRAY && GrayBuffer.supports(inData1) && GrayBuffer.supports(inData2)
+			|| RgbBuffer.supports(inData1) && inData1.depth == inData2.depth && p2.isDirect
+				&& p1.redMask == p2.redMask && p1.greenMask == p2.greenMask && p1.blueMask == p2.blueMask) {
+			// same pixel format: subtract all bytes of each row, vectorized if available
+			final ImageData outData = new ImageData(inData1.width, inData1.height, inData1.depth, p1);
+			final ImageBuffer in1 = new ImageBuffer(inData1), in2 = new ImageBuffer(inData2), out = new ImageBuffer(outData);
+			final PixelKernels kernels = PixelKernels.get();
+
+			Parallel.For(0, inData1.height, v -> {
+				kernels.absDiff(in1.m_data, in1.rowOffset(v), in2.m_data, in2.rowOffset(v), out.m_data, out.rowOffset(v), out.m_rowBytes);
+			});
+			return outData;
+		}
+
+		// works for images with/without palette
+		final boolean gray = imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_BINARY;
+		final ImageData outData = createImage(inData1.width, inData1.height, gray ? Picsi.IMAGE_TYPE_GRAY : Picsi.IMAGE_TYPE_RGB);
+
+		Parallel.For(0, inData1.height, v -> {
+			for (int u=0; u < inData1.width; u++) {
+				final RGB rgb1 = p1.getRGB(inData1.getPixel(u, v));
+				final RGB rgb2 = p2.getRGB(inData2.getPixel(u, v));
+				final RGB diff = new RGB(Math.abs(rgb1.red - rgb2.red), Math.abs(rgb1.green - rgb2.green), Math.abs(rgb1.blue - rgb2.blue));
+
+				outData.setPixel(u, v, gray ? diff.red : outData.palette.getPixel(diff));
+			}
+		});
+		return outData;
 	}
 	
 	/**
@@ -7,7 +7,6 @@ import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.Point;
 
 import main.Picsi;
-import utils.Parallel;
 
 public class ParticleAnalyzer implements IImageProcessor {
 
@@ -41,18 +40,21 @@ public class ParticleAnalyzer implements IImageProcessor {
 
     @Override
     public ImageData run(ImageData sourceImage, int imageType) {
-        var targetImage = sourceImage;
-        
-        if (imageType != Picsi.IMAGE_TYPE_GRAY && imageType != Picsi.IMAGE_TYPE_BINARY) {
-            targetImage = convertToGrayscale(sourceImage);
-        }
-        
+        // grayscale conversion, binarization and closing run fused in one pass without intermediate images
+        var pipeline = FusedPipeline.of(sourceImage);
+        ImageData targetImage;
+
         if (imageType != Picsi.IMAGE_TYPE_BINARY) {
-            final var otsuThreshold = otsuThreshold(targetImage);
-            targetImage = convertToBinary(targetImage, otsuThreshold.threshold(), otsuThreshold.smallValuesAreForeground());
+            pipeline = pipeline.toGray();
+
+            final var otsuThreshold = otsuThreshold(pipeline.histogram(256), sourceImage.width * sourceImage.height);
+            pipeline = convertToBinary(pipeline, otsuThreshold.threshold(), otsuThreshold.smallValuesAreForeground());
+            targetImage = ImageProcessing.createImage(sourceImage.width, sourceImage.height, Picsi.IMAGE_TYPE_GRAY);
+        } else {
+            targetImage = new ImageData(sourceImage.width, sourceImage.height, sourceImage.depth, sourceImage.palette);
         }
-        
-        targetImage = closing(targetImage);
+
+        closing(pipeline).into(targetImage);
         fillHolesInsideBorder(targetImage);
 
         final var particles = floodFillAndParticleAnalyzation(targetImage);
@@ -65,27 +67,7 @@ public class ParticleAnalyzer implements IImageProcessor {
     }
 
 
-    private static ImageData convertToGrayscale(ImageData image) {
-        final var targetImage = ImageProcessing.createImage(image.width, image.height, Picsi.IMAGE_TYPE_GRAY);
-        final var wr = 0.299;
-        final var wg = 0.587;
-        final var wb = 0.114;
-
-        Parallel.For(0, image.height, y -> {
-            for (var x = 0; x < image.width; x++) {
-                var rgb = image.palette.getRGB(image.getPixel(x, y));
-                var gray = ImageProcessing.clamp8(wr * rgb.red + wg * rgb.green + wb * rgb.blue);
-                targetImage.setPixel(x, y, gray);
-            }
-        });
-
-        return targetImage;
-    }
-    
-    private static OtsuThreshold otsuThreshold(ImageData image) {
-        var histogram = ImageProcessing.histogram(image, 256);
-        
-        var totalPixels = image.width * image.height;
+    private static OtsuThreshold otsuThreshold(int[] histogram, int totalPixels) {
 
         var sum = 0d;
         for (int i = 0; i < histogram.length; i++) {
@@ -133,81 +115,17 @@ public class ParticleAnalyzer implements IImageProcessor {
 
     private static record OtsuThreshold(int threshold, boolean smallValuesAreForeground) {}
 
-    private static ImageData convertToBinary(ImageData image, int threshold, boolean smallValuesAreForeground) {        
-        final var targetImage = ImageProcessing.createImage(image.width, image.height, Picsi.IMAGE_TYPE_GRAY);
+    private static FusedPipeline convertToBinary(FusedPipeline pipeline, int threshold, boolean smallValuesAreForeground) {
         final var foregroundColor = (smallValuesAreForeground) ? BINARY_COLOR_FOREGROUND : BINARY_COLOR_BACKGROUND;
         final var backgroundColor = (smallValuesAreForeground) ? BINARY_COLOR_BACKGROUND : BINARY_COLOR_FOREGROUND;
-        
-        Parallel.For(0, image.height, y -> {
-            for (var x = 0; x < image.width; x++) {
-                targetImage.setPixel(x, y, (image.getPixel(x,y) <= threshold) ? foregroundColor : backgroundColor);
-            }
-        });
-
-        return targetImage;
-    }
 
-    private static ImageData closing(ImageData image) {
-        var targetImage = dilation(image);
-        return erosion(targetImage);
+        return pipeline.map(value -> (value <= threshold) ? foregroundColor : backgroundColor);
     }
 
-    private static ImageData erosion(ImageData image) {        
-        var targetImage = (ImageData)image.clone();
-
-        Parallel.For(0, image.height, y -> {
-            for (int x=0; x < image.width; x++) {
-                boolean set = true;
-                
-                for (int j=0; set && j < MORPHOLOGY_STRUCTURE.length; j++) {
-                    final int v0 = y + j - MORPHOLOGY_STRUCTURE_DIMENSION;
-                    
-                    for (int i=0; set && i < MORPHOLOGY_STRUCTURE[j].length; i++) {
-                        final int u0 = x + i - MORPHOLOGY_STRUCTURE_DIMENSION;
-                        
-                        if (MORPHOLOGY_STRUCTURE[j][i] && (v0 < 0 || v0 >= image.height || u0 < 0 || u0 >= image.width || image.getPixel(u0, v0) != BINARY_COLOR_FOREGROUND)) {
-                            set = false;
-                        }
-                    }
-                }
-                if (set) {
-                    targetImage.setPixel(x, y, BINARY_COLOR_FOREGROUND);
-                } else {
-                    targetImage.setPixel(x, y, BINARY_COLOR_BACKGROUND);
-                }
-            }
-        });
-
-        return targetImage;
-    }
-
-    private static ImageData dilation(ImageData image) {
-        var targetImage = new ImageData(image.width, image.height, image.depth, image.palette);
-
-        Parallel.For(0, targetImage.height, y -> {
-            for (int x = 0; x < targetImage.width; x++) {
-                boolean set = false;
-                
-                for (int j=0; !set && j < MORPHOLOGY_STRUCTURE.length; j++) {
-                    final int v0 = y + j - MORPHOLOGY_STRUCTURE_DIMENSION;
-                    
-                    for (int i=0; !set && i < MORPHOLOGY_STRUCTURE[j].length; i++) {
-                        final int u0 = x + i - MORPHOLOGY_STRUCTURE_DIMENSION;
-                        
-                        if (MORPHOLOGY_STRUCTURE[j][i] && v0 >= 0 && v0 < image.height && u0 >= 0 && u0 < image.width && image.getPixel(u0, v0) == BINARY_COLOR_FOREGROUND) {
-                            set = true;
-                        }
-                    }
-                }
-                if (set) {
-                    targetImage.setPixel(x, y, BINARY_COLOR_FOREGROUND);
-                } else {
-                    targetImage.setPixel(x, y, BINARY_COLOR_BACKGROUND);
-                }
-            }
-        });
-        
-        return targetImage;
+    private static FusedPipeline closing(FusedPipeline pipeline) {
+        return pipeline
+            .dilation(MORPHOLOGY_STRUCTURE, MORPHOLOGY_STRUCTURE_DIMENSION, MORPHOLOGY_STRUCTURE_DIMENSION)
+            .erosion(MORPHOLOGY_STRUCTURE, MORPHOLOGY_STRUCTURE_DIMENSION, MORPHOLOGY_STRUCTURE_DIMENSION);
     }
 
      private static void fillHolesInsideBorder(ImageData imageData) {
@@ -0,0 +1,47 @@
+package imageprocessing;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of one image processor invocation. The event duration is the wall time.
+ * Record with: java -XX:StartFlightRecording=filename=picsi.jfr ... and inspect with: jfr print --events picsi.ImageProcessor picsi.jfr
+ *
+ * @author Christoph Stamm
+ *
+ */
+@Name("picsi.ImageProcessor")
+@Label("Image Processor")
+@Category("Picsi")
+@Description("Invocation of an image processing operation")
+public class ProcessorEvent extends Event {
+	@Label("Operation")
+	public String operation;
+
+	@Label("CPU Time")
+	@Description("CPU time of the whole process, including the worker threads of parallel loops; -1 if other invocations ran concurrently")
+	@Timespan(Timespan.NANOSECONDS)
+	public long cpuTime;
+
+	@Label("Allocated")
+	@Description("Bytes allocated by all threads; -1 if other invocations ran concurrently")
+	@DataAmount(DataAmount.BYTES)
+	public long allocatedBytes;
+
+	@Label("Input Width")
+	public int inWidth;
+
+	@Label("Input Height")
+	public int inHeight;
+
+	@Label("Output Width")
+	public int outWidth;
+
+	@Label("Output Height")
+	public int outHeight;
+}
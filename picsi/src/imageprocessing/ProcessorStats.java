@@ -0,0 +1,139 @@
+package imageprocessing;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import main.Picsi;
+
+/**
+ * Timing and allocation statistics of one image processor invocation.
+ * CPU time and allocated bytes are process-wide deltas over all threads, because the processors run their loops on the shared pool.
+ * They can only be attributed to the invocation if no other invocation is measured at the same time, e.g. by concurrent batch jobs.
+ * Otherwise, and if the JVM doesn't provide them, both are -1 and only the wall time is recorded.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public record ProcessorStats(String operation, long wallTime, long cpuTime, long allocatedBytes, int inWidth, int inHeight, int outWidth, int outHeight) {
+	public static interface Operation {
+		ImageData run();
+	}
+
+	public static interface Listener {
+		void run(ProcessorStats stats);
+	}
+
+	private static final AtomicInteger s_running = new AtomicInteger();	// number of running measurements
+	private static final AtomicLong s_started = new AtomicLong();		// number of started measurements
+
+	/**
+	 * Runs an image processing operation, commits a ProcessorEvent and reports the statistics
+	 * @param operation name of the operation
+	 * @param inData input image or null
+	 * @param op
+	 * @param listener receives the statistics or is null
+	 * @return output image of op
+	 */
+	public static ImageData measure(String operation, ImageData inData, Operation op, Listener listener) {
+		final ProcessorEvent event = new ProcessorEvent();
+		final boolean alone = s_running.incrementAndGet() == 1;
+		final long started = s_started.incrementAndGet();
+		final long cpu0 = processCpuTime();
+		final Map<Long, Long> alloc0 = threadAllocations();
+		final long wall0 = System.nanoTime();
+		ImageData outData = null;
+
+		event.begin();
+		try {
+			outData = op.run();
+			return outData;
+		} finally {
+			event.end();
+
+			final long wall = System.nanoTime() - wall0;
+			final long cpu1 = processCpuTime();
+			final long allocated = allocatedSince(alloc0);
+
+			// other measurements started or still running: the process-wide deltas contain their work, too
+			final boolean attributable = alone && s_started.get() == started;
+			s_running.decrementAndGet();
+
+			final ProcessorStats stats = new ProcessorStats(operation, wall,
+				(!attributable || cpu0 < 0 || cpu1 < 0) ? -1 : cpu1 - cpu0,
+				(attributable) ? allocated : -1,
+				(inData == null) ? 0 : inData.width, (inData == null) ? 0 : inData.height,
+				(outData == null) ? 0 : outData.width, (outData == null) ? 0 : outData.height);
+
+			if (event.shouldCommit()) {
+				event.operation = operation;
+				event.cpuTime = stats.cpuTime;
+				event.allocatedBytes = stats.allocatedBytes;
+				event.inWidth = stats.inWidth;
+				event.inHeight = stats.inHeight;
+				event.outWidth = stats.outWidth;
+				event.outHeight = stats.outHeight;
+				event.commit();
+			}
+			if (listener != null) listener.run(stats);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return Picsi.createMsg("{0}: {1} ms, CPU {2} ms, {3} MB allocated, {4}x{5} -> {6}x{7}", new Object[] {
+			operation, wallTime/1_000_000, (cpuTime < 0) ? "?" : cpuTime/1_000_000, (allocatedBytes < 0) ? "?" : String.format("%.1f", allocatedBytes/1e6),
+			String.valueOf(inWidth), String.valueOf(inHeight), String.valueOf(outWidth), String.valueOf(outHeight) });
+	}
+
+	/**
+	 * Returns the CPU time used by the process in nanoseconds or -1
+	 * @return
+	 */
+	private static long processCpuTime() {
+		if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+			return os.getProcessCpuTime();
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of bytes allocated so far by each live thread or null
+	 * @return thread id -> allocated bytes
+	 */
+	private static Map<Long, Long> threadAllocations() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemoryEnabled()) {
+			final long[] ids = threads.getAllThreadIds();
+			final long[] bytes = threads.getThreadAllocatedBytes(ids);
+			final Map<Long, Long> map = new HashMap<>();
+
+			for (int i=0; i < ids.length; i++) {
+				if (bytes[i] >= 0) map.put(ids[i], bytes[i]);
+			}
+			return map;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the bytes allocated by all threads since the given snapshot or -1.
+	 * Allocations of threads that terminated in the meantime are missing.
+	 * @param before snapshot of threadAllocations
+	 * @return
+	 */
+	private static long allocatedSince(Map<Long, Long> before) {
+		final Map<Long, Long> after = threadAllocations();
+
+		if (before == null || after == null) return -1;
+
+		long sum = 0;
+		for (Map.Entry<Long, Long> e : after.entrySet()) {
+			sum += e.getValue() - before.getOrDefault(e.getKey(), 0L);
+		}
+		return sum;
+	}
+}
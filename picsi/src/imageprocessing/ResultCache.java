@@ -0,0 +1,212 @@
+package imageprocessing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+import utils.Parallel;
+
+/**
+ * Bounded cache of image processor outputs.
+ * The key consists of a content hash of the input image, the processor class and the processor parameters (IImageProcessor.getCacheKey).
+ * Entries are evicted in least recently used order as soon as the cached images exceed the capacity in bytes.
+ * The cache stores and returns copies, so callers may change the returned images.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class ResultCache {
+	/**
+	 * Cache key
+	 */
+	public static record Key(long hash, int width, int height, int depth, int imageType, Class<?> proc, Object params) {}
+
+	private static final VarHandle s_longs = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final long C1 = 0x87C37B91114253D5L, C2 = 0x4CF5AD432745937FL;
+	private static final String CapacityProperty = "picsi.cache.mb"; // system property used to configure the capacity of the default cache
+	private static final ResultCache s_default = new ResultCache(Long.getLong(CapacityProperty, Runtime.getRuntime().maxMemory()/8/(1 << 20)) << 20);
+
+	private final LinkedHashMap<Key, ImageData> m_map = new LinkedHashMap<>(16, 0.75f, true); // access order
+	private final long m_capacity;
+	private long m_size;	// bytes of all cached images
+	private int m_hits, m_misses;
+
+	/**
+	 * Creates an empty cache
+	 * @param capacity maximum number of bytes of all cached images
+	 */
+	public ResultCache(long capacity) {
+		m_capacity = capacity;
+	}
+
+	/**
+	 * Returns the cache shared by the GUI
+	 * @return
+	 */
+	public static ResultCache getDefault() {
+		return s_default;
+	}
+
+	/**
+	 * Returns the cached output of proc or runs proc and caches its output
+	 * @param proc image processor
+	 * @param inData input image
+	 * @param imageType
+	 * @param monitor progress and cancellation callback
+	 * @return output image or null
+	 */
+	public ImageData run(IImageProcessor proc, ImageData inData, int imageType, IProgressMonitor monitor) {
+		final Key key = key(proc, inData, imageType);
+
+		if (key != null) {
+			final ImageData cached = get(key);
+			if (cached != null) return cached;
+		}
+
+		final ImageData outData = proc.run(inData, imageType, monitor);
+		if (key != null && outData != null) put(key, outData);
+		return outData;
+	}
+
+	/**
+	 * Creates the cache key of a processor invocation
+	 * @param proc image processor
+	 * @param inData input image
+	 * @param imageType
+	 * @return key or null if the processor output must not be cached
+	 */
+	public static Key key(IImageProcessor proc, ImageData inData, int imageType) {
+		final Object params = proc.getCacheKey();
+
+		if (params == null) return null;
+		return new Key(hash(inData), inData.width, inData.height, inData.depth, imageType, proc.getClass(), params);
+	}
+
+	/**
+	 * Returns a copy of the cached image or null
+	 * @param key
+	 * @return
+	 */
+	public synchronized ImageData get(Key key) {
+		final ImageData imageData = m_map.get(key);
+
+		if (imageData == null) {
+			m_misses++;
+			return null;
+		} else {
+			m_hits++;
+			return (ImageData)imageData.clone();
+		}
+	}
+
+	/**
+	 * Stores a copy of the image and evicts the least recently used images if the capacity is exceeded
+	 * @param key
+	 * @param imageData
+	 */
+	public synchronized void put(Key key, ImageData imageData) {
+		final long bytes = bytes(imageData);
+
+		if (bytes > m_capacity) return;
+
+		final ImageData old = m_map.put(key, (ImageData)imageData.clone());
+		if (old != null) m_size -= bytes(old);
+		m_size += bytes;
+
+		for (Iterator<ImageData> it = m_map.values().iterator(); m_size > m_capacity && it.hasNext(); ) {
+			m_size -= bytes(it.next());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	public synchronized void clear() {
+		m_map.clear();
+		m_size = 0;
+	}
+
+	/**
+	 * Returns the number of bytes of all cached images
+	 * @return
+	 */
+	public synchronized long size() {
+		return m_size;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d images, %.1f of %.1f MB, %d hits, %d misses", m_map.size(), m_size/1e6, m_capacity/1e6, m_hits, m_misses);
+	}
+
+	/**
+	 * Fast 64-bit content hash of pixels, palette and alpha values. Padding bytes at the end of the rows are ignored.
+	 * @param imageData
+	 * @return
+	 */
+	public static long hash(ImageData imageData) {
+		final int rowBytes = (imageData.width*imageData.depth + 7)/8;
+		final long[] rowHashes = new long[imageData.height];
+
+		Parallel.For(0, imageData.height, v -> {
+			rowHashes[v] = hash(imageData.data, v*imageData.bytesPerLine, rowBytes, v);
+		});
+
+		long h = imageData.width*31L + imageData.height;
+		for (long rh : rowHashes) h = mix(h, rh);
+
+		final PaletteData palette = imageData.palette;
+		if (palette.isDirect) {
+			h = mix(h, ((long)palette.redMask << 32) ^ palette.greenMask);
+			h = mix(h, palette.blueMask);
+		} else {
+			for (RGB rgb : palette.getRGBs()) h = mix(h, rgb.hashCode());
+		}
+		if (imageData.alphaData != null) h = mix(h, hash(imageData.alphaData, 0, imageData.alphaData.length, 1));
+		h = mix(h, ((long)imageData.alpha << 32) ^ imageData.transparentPixel);
+		return fmix(h);
+	}
+
+	private static long hash(byte[] data, int offset, int len, long seed) {
+		final int end = offset + len;
+		long h = seed;
+		int i = offset;
+
+		for (; i + 8 <= end; i += 8) h = mix(h, (long)s_longs.get(data, i));
+
+		long tail = 0;
+		for (int shift = 0; i < end; i++, shift += 8) tail |= (0xFFL & data[i]) << shift;
+		return mix(h, tail ^ len);
+	}
+
+	private static long mix(long h, long k) {
+		k *= C1;
+		k = Long.rotateLeft(k, 31);
+		k *= C2;
+		h ^= k;
+		return Long.rotateLeft(h, 27)*5 + 0x52DCE729;
+	}
+
+	private static long fmix(long h) {
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	private static long bytes(ImageData imageData) {
+		long bytes = imageData.data.length;
+
+		if (imageData.alphaData != null) bytes += imageData.alphaData.length;
+		if (imageData.maskData != null) bytes += imageData.maskData.length;
+		return bytes;
+	}
+}
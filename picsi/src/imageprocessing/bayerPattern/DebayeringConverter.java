@@ -25,6 +25,11 @@ public class DebayeringConverter implements IImageProcessor {
         return true;
     }
 
+    @Override
+    public Object getCacheKey() {
+        return ""; // no parameters
+    }
+
     @Override
     public ImageData run(ImageData inData, int imageType) {
         return debayer(inData, imageType);
@@ -33,10 +38,13 @@ public class DebayeringConverter implements IImageProcessor {
     public static ImageData debayer(ImageData inData, int imageType) {
         var outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_RGB);
 
-        Parallel.For(0, outData.height, y -> {
-            for (int x = 0; x < outData.width; x++) {
-                var rgb = interpolateRGB(inData, x, y);
-                outData.setPixel(x, y, outData.palette.getPixel(rgb));
+        // the 3x3 neighbourhood of the tile stays in cache
+        Parallel.forTiles(outData.width, outData.height, 4, 1, 1, tile -> {
+            for (int y = tile.y(); y < tile.bottom(); y++) {
+                for (int x = tile.x(); x < tile.right(); x++) {
+                    var rgb = interpolateRGB(inData, x, y);
+                    outData.setPixel(x, y, outData.palette.getPixel(rgb));
+                }
             }
         });
 
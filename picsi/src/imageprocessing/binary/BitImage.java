@@ -0,0 +1,221 @@
+package imageprocessing.binary;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
+import utils.BinaryBuffer;
+import utils.Parallel;
+
+/**
+ * Bit-packed binary image: 64 pixels per long, bit (u & 63) of word (u >> 6) of a row is pixel u, set bits are foreground.
+ * Morphological operations process whole words: each structure element shifts the words of a row and combines them with AND (erosion)
+ * or OR (dilation). Rows are processed in parallel. The bits beyond the image width are always 0, so pixels outside of the image
+ * are background, as in MorphologicFilter.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class BitImage {
+	private static final byte[] s_reverse = new byte[256];	// bit-reversed bytes: SWT stores the leftmost pixel in the most significant bit
+
+	static {
+		for (int i=0; i < s_reverse.length; i++) s_reverse[i] = (byte)(Integer.reverse(i) >>> 24);
+	}
+
+	public final int m_width, m_height;
+	public final int m_words;			// number of words per row
+	private final long[] m_bits;		// m_words words per row
+	private final long m_lastMask;		// valid bits of the last word of a row
+
+	/**
+	 * Creates an empty (background) image
+	 * @param width
+	 * @param height
+	 */
+	public BitImage(int width, int height) {
+		m_width = width;
+		m_height = height;
+		m_words = (width + 63) >> 6;
+		m_bits = new long[m_words*height];
+		m_lastMask = (width%64 == 0) ? -1L : (1L << width%64) - 1;
+	}
+
+	/**
+	 * Packs a binary image: pixels with value MorphologicFilter.s_foreground are set
+	 * @param imageData image with depth 1
+	 */
+	public BitImage(ImageData imageData) {
+		this(imageData.width, imageData.height);
+
+		final BinaryBuffer in = new BinaryBuffer(imageData);
+		final int invert = (MorphologicFilter.s_foreground == 1) ? 0 : 0xFF;
+
+		Parallel.For(0, m_height, v -> {
+			final int offset = in.rowOffset(v), bytes = (m_width + 7) >> 3;
+			final int row = v*m_words;
+
+			for (int i=0; i < bytes; i++) {
+				m_bits[row + (i >> 3)] |= (0xFFL & s_reverse[(in.m_data[offset + i] ^ invert) & 0xFF]) << ((i & 7) << 3);
+			}
+			m_bits[row + m_words - 1] &= m_lastMask;
+		});
+	}
+
+	/**
+	 * Unpacks this image into a new binary image with the palette of the given image
+	 * @param template binary image with depth 1
+	 * @return new binary image: set pixels have the value MorphologicFilter.s_foreground
+	 */
+	public ImageData toImageData(ImageData template) {
+		final ImageData outData = ImageProcessing.createImage(m_width, m_height, template);
+		final BinaryBuffer out = new BinaryBuffer(outData);
+		final int invert = (MorphologicFilter.s_foreground == 1) ? 0 : 0xFF;
+
+		Parallel.For(0, m_height, v -> {
+			final int offset = out.rowOffset(v), bytes = (m_width + 7) >> 3;
+			final int row = v*m_words;
+
+			for (int i=0; i < bytes; i++) {
+				out.m_data[offset + i] = (byte)(s_reverse[(int)(m_bits[row + (i >> 3)] >>> ((i & 7) << 3)) & 0xFF] ^ invert);
+			}
+		});
+		return outData;
+	}
+
+	/**
+	 * Returns true if pixel (u,v) is set
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public boolean get(int u, int v) {
+		return (m_bits[v*m_words + (u >> 6)] & (1L << u)) != 0;
+	}
+
+	/**
+	 * Erosion: a pixel is set if all structure elements hit set pixels
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new eroded image
+	 */
+	public BitImage erosion(boolean[][] struct, int cx, int cy) {
+		return morph(struct, cx, cy, true);
+	}
+
+	/**
+	 * Dilation: a pixel is set if any structure element hits a set pixel
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new dilated image
+	 */
+	public BitImage dilation(boolean[][] struct, int cx, int cy) {
+		return morph(struct, cx, cy, false);
+	}
+
+	/**
+	 * Returns this AND other
+	 * @param other image of the same size
+	 * @return new image
+	 */
+	public BitImage and(BitImage other) {
+		final BitImage out = new BitImage(m_width, m_height);
+		Parallel.For(0, m_height, v -> {
+			for (int i=v*m_words; i < (v + 1)*m_words; i++) out.m_bits[i] = m_bits[i] & other.m_bits[i];
+		});
+		return out;
+	}
+
+	/**
+	 * Returns this AND NOT other
+	 * @param other image of the same size
+	 * @return new image
+	 */
+	public BitImage andNot(BitImage other) {
+		final BitImage out = new BitImage(m_width, m_height);
+		Parallel.For(0, m_height, v -> {
+			for (int i=v*m_words; i < (v + 1)*m_words; i++) out.m_bits[i] = m_bits[i] & ~other.m_bits[i];
+		});
+		return out;
+	}
+
+	/**
+	 * Returns this OR other
+	 * @param other image of the same size
+	 * @return new image
+	 */
+	public BitImage or(BitImage other) {
+		final BitImage out = new BitImage(m_width, m_height);
+		Parallel.For(0, m_height, v -> {
+			for (int i=v*m_words; i < (v + 1)*m_words; i++) out.m_bits[i] = m_bits[i] | other.m_bits[i];
+		});
+		return out;
+	}
+
+	/**
+	 * Output pixel (u,v) combines the input pixels (u + i - cx, v + j - cy) of all structure elements struct[j][i]
+	 * @param all true: AND (erosion), false: OR (dilation)
+	 */
+	private BitImage morph(boolean[][] struct, int cx, int cy, boolean all) {
+		int n = 0;
+		for (boolean[] row : struct) for (boolean b : row) if (b) n++;
+
+		// offsets of the structure elements
+		final int[] dx = new int[n], dy = new int[n];
+		for (int j=0, k=0; j < struct.length; j++) {
+			for (int i=0; i < struct[j].length; i++) {
+				if (struct[j][i]) {
+					dx[k] = i - cx;
+					dy[k] = j - cy;
+					k++;
+				}
+			}
+		}
+
+		final BitImage out = new BitImage(m_width, m_height);
+		final long[] dst = out.m_bits;
+
+		Parallel.For(0, m_height, v -> {
+			final int row = v*m_words;
+
+			if (all) Arrays.fill(dst, row, row + m_words, -1L);
+			for (int k=0; k < dx.length; k++) {
+				final int y = v + dy[k];
+
+				if (y < 0 || y >= m_height) {
+					// outside of the image: background
+					if (all) {
+						Arrays.fill(dst, row, row + m_words, 0);
+						break;
+					}
+				} else if (all) {
+					for (int i=0; i < m_words; i++) dst[row + i] &= shifted(y*m_words, i, dx[k]);
+				} else {
+					for (int i=0; i < m_words; i++) dst[row + i] |= shifted(y*m_words, i, dx[k]);
+				}
+			}
+			dst[row + m_words - 1] &= m_lastMask;
+		});
+		return out;
+	}
+
+	/**
+	 * Returns word i of a row shifted by d pixels: bit b contains pixel 64*i + b + d
+	 * @param row index of the first word of the row
+	 * @param i word index
+	 * @param d shift in pixels
+	 * @return
+	 */
+	private long shifted(int row, int i, int d) {
+		final int s = (i << 6) + d;
+		final int q = s >> 6, r = s & 63;	// floor division
+		final long lo = (q >= 0 && q < m_words) ? m_bits[row + q] : 0;
+
+		if (r == 0) return lo;
+		final long hi = (q + 1 >= 0 && q + 1 < m_words) ? m_bits[row + q + 1] : 0;
+		return (lo >>> r) | (hi << (64 - r));
+	}
+}
@@ -7,9 +7,9 @@ import java.util.List;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.RGB;
 
+import imageprocessing.FusedPipeline;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
-import imageprocessing.colors.GrayScaleConverter;
 import main.Picsi;
 import utils.Parallel;
 
@@ -26,14 +26,13 @@ public class HoughTransform implements IImageProcessor {
 
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
-        var binImg = (ImageData)inData.clone();
-        if (imageType != Picsi.IMAGE_TYPE_GRAY){
-            binImg = GrayScaleConverter.convert(binImg, imageType);
-        }
-        final int threshold = OtsuThresholdConverter.otsuThreshold(binImg).threshold();
-        binImg = OtsuThresholdConverter.binarization(binImg, threshold, true, true);
-        boolean[][] s_square4 = new boolean[][] {{ true, true, true, true},{true, true, true, true},{true, true, true, true},{true, true, true, true}};
-        binImg = MorphologicFilter.contour(binImg, Picsi.IMAGE_TYPE_BINARY, s_square4, 1, 1, true);
+        // gray conversion, binarization and contour run fused in one pass without intermediate images
+        var gray = FusedPipeline.of(inData).toGray();
+        final int threshold = OtsuThresholdConverter.otsuThreshold(gray.histogram(256)).threshold();
+        final int fg = OtsuThresholdConverter.FOREGROUND_COLOR, bg = OtsuThresholdConverter.BACKGROUND_COLOR;
+        var binImg = gray.map(v -> (v <= threshold) ? fg : bg)
+            .contour(MorphologicFilter.s_square4, 1, 1, true)
+            .toImage(Picsi.IMAGE_TYPE_BINARY);
 
 		var paramSpace = rhoThetaTransform(binImg);
 
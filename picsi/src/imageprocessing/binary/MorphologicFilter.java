@@ -6,10 +6,13 @@ import org.eclipse.swt.graphics.ImageData;
 import gui.OptionPane;
 import imageprocessing.IImageProcessor;
 import main.Picsi;
+import utils.BinaryBuffer;
 import utils.Parallel;
 
 /**
- * Morphologic filter and demo
+ * Morphologic filter and demo.
+ * Images with one bit per pixel are processed bit-parallel by BitImage, binarized images with more bits per pixel pixel by pixel.
+ * Rectangles and diamonds of images with one bit per pixel are decomposed into lines (see StructureDecomposition) if this is faster.
  * @author Christoph Stamm
  *
  */
@@ -49,6 +52,40 @@ public class MorphologicFilter implements IImageProcessor {
 	public static boolean[][] s_square3 = new boolean[][] {{ true, true, true},{true, true, true},{true, true, true}};
 	public static boolean[][] s_square4 = new boolean[][] {{ true, true, true, true},{true, true, true, true},{true, true, true, true},{true, true, true, true}};
 	public static boolean[][] s_square5 = new boolean[][] {{ true, true, true, true, true},{true, true, true, true, true},{true, true, true, true, true},{true, true, true, true, true},{true, true, true, true, true}};
+	public static String[] s_operations = { "Erosion", "Dilation", "Opening", "Closing", "Inner Contour", "Outer Contour" };
+	public static String[] s_structures = { "None", "Dot", "Circle-3", "Circle-5", "Circle-7", "Diamond-5", "Diamond-7", "Square-2", "Square-3", "Square-4", "Square-5" };
+	public static final double ElementCost = 0.07;		// run time of BitImage per pixel and structure element in ns
+	public static final double ConversionCost = 10;		// run time of the conversion between images and planes per pixel in ns
+
+	/**
+	 * Disk x*x + y*y < radius*(radius + 1) with the same shape as s_circle3, s_circle5 and s_circle7
+	 * @param radius
+	 * @return structure of size 2*radius + 1 with the origin in the center
+	 */
+	public static boolean[][] disk(int radius) {
+		final int n = 2*radius + 1;
+		final boolean[][] struct = new boolean[n][n];
+
+		for (int j=0; j < n; j++) {
+			for (int i=0; i < n; i++) struct[j][i] = (i - radius)*(i - radius) + (j - radius)*(j - radius) < radius*(radius + 1);
+		}
+		return struct;
+	}
+
+	/**
+	 * Diamond |x| + |y| <= radius with the same shape as s_diamond5 and s_diamond7
+	 * @param radius
+	 * @return structure of size 2*radius + 1 with the origin in the center
+	 */
+	public static boolean[][] diamond(int radius) {
+		final int n = 2*radius + 1;
+		final boolean[][] struct = new boolean[n][n];
+
+		for (int j=0; j < n; j++) {
+			for (int i=0; i < n; i++) struct[j][i] = Math.abs(i - radius) + Math.abs(j - radius) <= radius;
+		}
+		return struct;
+	}
 
 	@Override
 	public boolean isEnabled(int imageType) {
@@ -57,30 +94,99 @@ public class MorphologicFilter implements IImageProcessor {
 
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
-		Object[] operations = { "Erosion", "Dilation", "Opening", "Closing", "Inner Contour", "Outer Contour" };
-		int ch = OptionPane.showOptionDialog("Morphological Operation", SWT.ICON_INFORMATION, operations, 0);
+		int ch = OptionPane.showOptionDialog("Morphological Operation", SWT.ICON_INFORMATION, s_operations, 0);
 		if (ch < 0) return null;
 		
-		Object[] structure = { "None", "Dot", "Circle-3", "Circle-5", "Circle-7", "Diamond-5", "Diamond-7", "Square-2", "Square-3", "Square-4", "Square-5" };
-		int s = OptionPane.showOptionDialog("Structure", SWT.ICON_INFORMATION, structure, 2);
+		int s = OptionPane.showOptionDialog("Structure", SWT.ICON_INFORMATION, s_structures, 2);
 		if (s < 0) return null;
-		boolean[][] struct;
-		int cx, cy;
+		
+		return morph(inData, imageType, ch, s);
+	}
+
+	/**
+	 * Applies a morphological operation with a predefined structure without user interaction
+	 * @param inData binary image
+	 * @param imageType
+	 * @param ch operation: index in s_operations
+	 * @param s structure: index in s_structures
+	 * @return new binary image or null if the operation is unknown
+	 */
+	public static ImageData morph(ImageData inData, int imageType, int ch, int s) {
+		final int c = origin(s);
+		return morph(inData, imageType, ch, structure(s), c, c);
+	}
+
+	/**
+	 * Returns a predefined structure
+	 * @param s structure: index in s_structures
+	 * @return
+	 */
+	public static boolean[][] structure(int s) {
 		switch(s) {
 		    default:
-            case 0: struct = new boolean[][] {{}}; cx = cy = 0; break;
-            case 1: struct = new boolean[][] {{true}}; cx = cy = 0; break;
-            case 2: struct = s_circle3; cx = cy = 1; break;
-            case 3: struct = s_circle5; cx = cy = 2; break;
-            case 4: struct = s_circle7; cx = cy = 3; break;
-            case 5: struct = s_diamond5; cx = cy = 2; break;
-            case 6: struct = s_diamond7; cx = cy = 3; break;
-            case 7: struct = s_square2; cx = cy = 0; break;
-            case 8: struct = s_square3; cx = cy = 1; break;
-            case 9: struct = s_square4; cx = cy = 1; break;
-            case 10: struct = s_square5; cx = cy = 2; break;
+            case 0: return new boolean[][] {{}};
+            case 1: return new boolean[][] {{true}};
+            case 2: return s_circle3;
+            case 3: return s_circle5;
+            case 4: return s_circle7;
+            case 5: return s_diamond5;
+            case 6: return s_diamond7;
+            case 7: return s_square2;
+            case 8: return s_square3;
+            case 9: return s_square4;
+            case 10: return s_square5;
+		}
+	}
+
+	/**
+	 * Returns the origin (hotspot) of a predefined structure: cx = cy
+	 * @param s structure: index in s_structures
+	 * @return
+	 */
+	public static int origin(int s) {
+		final int[] origins = { 0, 0, 1, 2, 3, 2, 3, 0, 1, 1, 2 };
+		return (s >= 0 && s < origins.length) ? origins[s] : 0;
+	}
+
+	/**
+	 * Applies a morphological operation without user interaction
+	 * @param inData binary image
+	 * @param imageType
+	 * @param ch operation: index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new binary image or null if the operation is unknown
+	 */
+	public static ImageData morph(ImageData inData, int imageType, int ch, boolean[][] struct, int cx, int cy) {
+		return morph(inData, imageType, ch, struct, cx, cy, null);
+	}
+
+	/**
+	 * Applies a morphological operation without user interaction
+	 * @param inData binary image
+	 * @param imageType
+	 * @param ch operation: index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @param approximation decomposition used instead of struct if it is faster, e.g. StructureDecomposition.disk, or null
+	 * @return new binary image or null if the operation is unknown
+	 */
+	public static ImageData morph(ImageData inData, int imageType, int ch, boolean[][] struct, int cx, int cy, StructureDecomposition approximation) {
+		final StructureDecomposition d = decomposition(inData, struct, cx, cy, approximation);
+
+		if (d != null) {
+			switch(ch) {
+			case 0: return d.erosion(inData);
+			case 1: return d.dilation(inData);
+			case 2: return d.opening(inData);
+			case 3: return d.closing(inData);
+			case 4: return new BitImage(inData).and(new BitImage(d.erosion(inData))).toImageData(inData);
+			case 5: return new BitImage(inData).or(new BitImage(d.dilation(inData))).toImageData(inData);
+			}
+			return null;
 		}
-		
 		switch(ch) {
             case 0: return erosion(inData, struct, cx, cy);
             case 1: return dilation(inData, struct, cx, cy);
@@ -92,6 +198,43 @@ public class MorphologicFilter implements IImageProcessor {
 		return null;
 	}
 
+	/**
+	 * Returns the number of rows above and below an output row read by morph
+	 * @param ch operation: index in s_operations
+	 * @param s structure: index in s_structures
+	 * @return halo in rows
+	 */
+	public static int halo(int ch, int s) {
+		return halo(ch, structure(s), origin(s));
+	}
+
+	/**
+	 * Returns the number of rows above and below an output row read by morph
+	 * @param ch operation: index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cy origin of the structure (hotspot)
+	 * @return halo in rows
+	 */
+	public static int halo(int ch, boolean[][] struct, int cy) {
+		final int halo = haloY(struct, cy);
+
+		// opening and closing apply two operations
+		return (ch == 2 || ch == 3) ? 2*halo : halo;
+	}
+
+	/**
+	 * Returns the decomposition of a point-symmetric structure if the image has one bit per pixel and it is faster than BitImage
+	 * @param inData
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @param approximation decomposition accepted instead of struct or null: only exact decompositions are used
+	 * @return decomposition or null
+	 */
+	private static StructureDecomposition decomposition(ImageData inData, boolean[][] struct, int cx, int cy, StructureDecomposition approximation) {
+		return (BinaryBuffer.supports(inData)) ? StructureDecomposition.decompose(struct, cx, cy, approximation, ElementCost, ConversionCost) : null;
+	}
+
 	/**
 	 * Erosion: if the structure element is empty, then the eroded image only contains foreground pixels
 	 * @param inData binary image or binarized grayscale image
@@ -102,26 +245,33 @@ public class MorphologicFilter implements IImageProcessor {
 	 */
 	public static ImageData erosion(ImageData inData, boolean[][] struct, int cx, int cy) {
 		//assert Picsi.determineImageType(inData) == Picsi.IMAGE_TYPE_BINARY || Picsi.determineImageType(inData) == Picsi.IMAGE_TYPE_GRAY;
+		final StructureDecomposition d = decomposition(inData, struct, cx, cy, null);
+		if (d != null) return d.erosion(inData);
+		if (BinaryBuffer.supports(inData)) return new BitImage(inData).erosion(struct, cx, cy).toImageData(inData);
 		
 		ImageData outData = (ImageData)inData.clone();
 		
-		Parallel.For(0, outData.height, v -> {
-			for (int u=0; u < outData.width; u++) {
-				boolean set = true;
-				
-				for (int j=0; set && j < struct.length; j++) {
-					final int v0 = v + j - cy;
+		Parallel.forTiles(outData.width, outData.height, 1, haloX(struct, cx), haloY(struct, cy), tile -> {
+			final boolean interior = tile.isInterior(); // no bounds checks needed
+			
+			for (int v=tile.y(); v < tile.bottom(); v++) {
+				for (int u=tile.x(); u < tile.right(); u++) {
+					boolean set = true;
 					
-					for (int i=0; set && i < struct[j].length; i++) {
-						final int u0 = u + i - cx;
+					for (int j=0; set && j < struct.length; j++) {
+						final int v0 = v + j - cy;
 						
-						if (struct[j][i] && (v0 < 0 || v0 >= inData.height || u0 < 0 || u0 >= inData.width || inData.getPixel(u0, v0) != s_foreground)) {
-							set = false;
+						for (int i=0; set && i < struct[j].length; i++) {
+							final int u0 = u + i - cx;
+							
+							if (struct[j][i] && ((!interior && (v0 < 0 || v0 >= inData.height || u0 < 0 || u0 >= inData.width)) || inData.getPixel(u0, v0) != s_foreground)) {
+								set = false;
+							}
 						}
 					}
+					if (set) outData.setPixel(u, v, s_foreground); // foreground
+					else outData.setPixel(u, v, s_background); // background
 				}
-				if (set) outData.setPixel(u, v, s_foreground); // foreground
-				else outData.setPixel(u, v, s_background); // background
 			}
 		});
 		return outData;
@@ -137,32 +287,61 @@ public class MorphologicFilter implements IImageProcessor {
 	 */
 	public static ImageData dilation(ImageData inData, boolean[][] struct, int cx, int cy) {
 		//assert Picsi.determineImageType(inData) == Picsi.IMAGE_TYPE_BINARY || Picsi.determineImageType(inData) == Picsi.IMAGE_TYPE_GRAY;
+		final StructureDecomposition d = decomposition(inData, struct, cx, cy, null);
+		if (d != null) return d.dilation(inData);
+		if (BinaryBuffer.supports(inData)) return new BitImage(inData).dilation(struct, cx, cy).toImageData(inData);
 		
 		ImageData outData = new ImageData(inData.width, inData.height, inData.depth, inData.palette); // outData is initialized with 0
 
-        Parallel.For(0, outData.height, v -> {
-            for (int u=0; u < outData.width; u++) {
-                boolean set = false;
-                
-                for (int j=0; !set && j < struct.length; j++) {
-                    final int v0 = v + j - cy;
+        Parallel.forTiles(outData.width, outData.height, 1, haloX(struct, cx), haloY(struct, cy), tile -> {
+            final boolean interior = tile.isInterior(); // no bounds checks needed
+            
+            for (int v=tile.y(); v < tile.bottom(); v++) {
+                for (int u=tile.x(); u < tile.right(); u++) {
+                    boolean set = false;
                     
-                    for (int i=0; !set && i < struct[j].length; i++) {
-                        final int u0 = u + i - cx;
+                    for (int j=0; !set && j < struct.length; j++) {
+                        final int v0 = v + j - cy;
                         
-                        if (struct[j][i] && v0 >= 0 && v0 < inData.height && u0 >= 0 && u0 < inData.width && inData.getPixel(u0, v0) == s_foreground) {
-                            set = true;
+                        for (int i=0; !set && i < struct[j].length; i++) {
+                            final int u0 = u + i - cx;
+                            
+                            if (struct[j][i] && (interior || (v0 >= 0 && v0 < inData.height && u0 >= 0 && u0 < inData.width)) && inData.getPixel(u0, v0) == s_foreground) {
+                                set = true;
+                            }
                         }
                     }
+                    if (set) outData.setPixel(u, v, s_foreground); // foreground
+                    else outData.setPixel(u, v, s_background); // background
                 }
-                if (set) outData.setPixel(u, v, s_foreground); // foreground
-                else outData.setPixel(u, v, s_background); // background
             }
         });
 		
 		return outData;
 	}
 	
+	/**
+	 * Number of columns left or right of a pixel read by the structure
+	 * @param struct
+	 * @param cx origin of the structure (hotspot)
+	 * @return
+	 */
+	private static int haloX(boolean[][] struct, int cx) {
+		int w = 0;
+		for (boolean[] row : struct) w = Math.max(w, row.length);
+		return Math.max(0, Math.max(cx, w - 1 - cx));
+	}
+
+	/**
+	 * Number of rows above or below a pixel read by the structure
+	 * @param struct
+	 * @param cy origin of the structure (hotspot)
+	 * @return
+	 */
+	private static int haloY(boolean[][] struct, int cy) {
+		return Math.max(0, Math.max(cy, struct.length - 1 - cy));
+	}
+
 	/**
 	 * Opening
 	 * @param inData not an indexed-color image
@@ -174,6 +353,9 @@ public class MorphologicFilter implements IImageProcessor {
 	 * @return new opened binary image
 	 */
 	public static ImageData opening(ImageData inData, boolean[][] struct, int cx, int cy) {
+		final StructureDecomposition d = decomposition(inData, struct, cx, cy, null);
+		if (d != null) return d.opening(inData);
+		if (BinaryBuffer.supports(inData)) return new BitImage(inData).erosion(struct, cx, cy).dilation(struct, cx, cy).toImageData(inData);
         
         ImageData outData = erosion(inData, struct, cx, cy);
         return dilation(outData, struct, cx, cy);
@@ -191,6 +373,9 @@ public class MorphologicFilter implements IImageProcessor {
 	 * @return new closed binary image
 	 */
 	public static ImageData closing(ImageData inData, boolean[][] struct, int cx, int cy) {
+		final StructureDecomposition d = decomposition(inData, struct, cx, cy, null);
+		if (d != null) return d.closing(inData);
+		if (BinaryBuffer.supports(inData)) return new BitImage(inData).dilation(struct, cx, cy).erosion(struct, cx, cy).toImageData(inData);
         ImageData outData = dilation(inData, struct, cx, cy);
         return erosion(outData, struct, cx, cy);
 	}
@@ -206,6 +391,16 @@ public class MorphologicFilter implements IImageProcessor {
 	 * @return new closed binary image
 	 */
 	public static ImageData contour(ImageData inData, int imageType, boolean[][] struct, int cx, int cy, boolean inner) {
+		if (BinaryBuffer.supports(inData)) {
+			final StructureDecomposition d = decomposition(inData, struct, cx, cy, null);
+			if (d != null) return morph(inData, imageType, (inner) ? 4 : 5, struct, cx, cy);
+
+			final BitImage in = new BitImage(inData);
+
+			// same rules as below: inner removes the foreground pixels eroded to background, outer adds the dilated background pixels
+			if (inner) return in.and(in.erosion(struct, cx, cy)).toImageData(inData);
+			else return in.or(in.dilation(struct, cx, cy)).toImageData(inData);
+		}
 		if (inner) {
             ImageData outData = (ImageData)inData.clone();
             ImageData tmpData = erosion(inData, struct, cx, cy);
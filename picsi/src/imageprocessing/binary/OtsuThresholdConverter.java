@@ -5,7 +5,10 @@ import org.eclipse.swt.graphics.ImageData;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
 import main.Picsi;
+import utils.BinaryBuffer;
+import utils.GrayBuffer;
 import utils.Parallel;
+import utils.PixelKernels;
 
 public class OtsuThresholdConverter implements IImageProcessor {
 
@@ -17,6 +20,11 @@ public class OtsuThresholdConverter implements IImageProcessor {
         return imageType == Picsi.IMAGE_TYPE_GRAY;
     }
 
+    @Override
+    public Object getCacheKey() {
+        return ""; // no parameters
+    }
+
     @Override
     public ImageData run(ImageData inData, int imageType) {
         final int threshold = otsuThreshold(inData).threshold;
@@ -31,18 +39,47 @@ public class OtsuThresholdConverter implements IImageProcessor {
         final int fg = (smallValuesAreForeground) ? FOREGROUND_COLOR : BACKGROUND_COLOR;
         final int bg = (smallValuesAreForeground) ? BACKGROUND_COLOR : FOREGROUND_COLOR;
         
-        Parallel.For(0, inData.height, v -> {
-            for (int u=0; u < inData.width; u++) {
-                outData.setPixel(u, v, (inData.getPixel(u,v) <= threshold) ? fg : bg);
+        if (GrayBuffer.supports(inData)) {
+            // direct access to the gray values and the output bits or bytes, vectorized if available
+            final var in = new GrayBuffer(inData);
+            final var kernels = PixelKernels.get();
+
+            if (binary) {
+                final var out = new BinaryBuffer(outData);
+
+                Parallel.For(0, inData.height, v -> {
+                    kernels.thresholdBits(in.m_data, in.rowOffset(v), out.m_data, out.rowOffset(v), inData.width, threshold, fg, bg);
+                });
+            } else {
+                final var out = new GrayBuffer(outData);
+
+                Parallel.For(0, inData.height, v -> {
+                    kernels.threshold(in.m_data, in.rowOffset(v), out.m_data, out.rowOffset(v), inData.width, threshold, fg, bg);
+                });
             }
-        });
+        } else {
+            Parallel.For(0, inData.height, v -> {
+                for (int u=0; u < inData.width; u++) {
+                    outData.setPixel(u, v, (inData.getPixel(u,v) <= threshold) ? fg : bg);
+                }
+            });
+        }
         return outData;
     }
     
     public static OtsuThreshold otsuThreshold(ImageData inData) {
-        int[] histogram = ImageProcessing.histogram(inData, 256);
-        
-        int total = inData.width * inData.height;
+        return otsuThreshold(ImageProcessing.histogram(inData, 256));
+    }
+
+    /**
+     * Otsu threshold of a gray value histogram, e.g. computed by FusedPipeline.histogram without a gray image
+     * @param histogram 256 classes
+     * @return threshold and polarity
+     */
+    public static OtsuThreshold otsuThreshold(int[] histogram) {
+        int total = 0;
+        for (int h : histogram) total += h;
+
         double sum = 0;
         for (int i = 0; i < 256; i++) {
             sum += i * histogram[i];
@@ -80,8 +117,7 @@ public class OtsuThresholdConverter implements IImageProcessor {
             }
         }
 
-        var totalPixels = inData.width * inData.height;
-        var smallValuesAreForeground = darkPixels <= (totalPixels / 2);
+        var smallValuesAreForeground = darkPixels <= (total / 2);
         
         return new OtsuThreshold(threshold, smallValuesAreForeground);
     }
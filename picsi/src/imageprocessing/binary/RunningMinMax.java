@@ -0,0 +1,367 @@
+package imageprocessing.binary;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.ImageProcessing;
+import utils.BinaryBuffer;
+import utils.GrayBuffer;
+import utils.Parallel;
+
+/**
+ * Erosion and dilation with line and rectangle structures by running minimum and maximum filters (van Herk/Gil-Werman).
+ * A sequence is split into blocks of the line length n. The prefix and suffix minima of the blocks yield the minimum of any window
+ * of n values with three comparisons per value, independent of n. Maxima are computed as minima of inverted values.
+ * A rectangle is decomposed into a horizontal and a vertical line; rows are processed in parallel, columns in parallel blocks
+ * of adjacent columns. Periodic lines with an arbitrary step (dx, dy) are processed along the sequences of pixels they connect.
+ *
+ * Binary images are processed as planes of 0 (background) and 255 (foreground); pixels outside of the image are background
+ * as in MorphologicFilter. For gray images, pixels outside of the image are ignored.
+ * The structure element offsets (u + i - cx, v + j - cy) follow MorphologicFilter for erosion and dilation.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class RunningMinMax {
+	private static final int BlockWidth = 64;	// number of columns processed together in the column pass
+	private static final int RowsPerTask = 16;	// number of rows or sequences sharing the work arrays of a task
+
+	/**
+	 * Erosion with a rectangle
+	 * @param inData binary or gray image
+	 * @param width rectangle width
+	 * @param height rectangle height
+	 * @param cx origin of the rectangle (hotspot)
+	 * @param cy origin of the rectangle (hotspot)
+	 * @return new eroded image
+	 */
+	public static ImageData erosion(ImageData inData, int width, int height, int cx, int cy) {
+		final byte[] plane = toPlane(inData);
+
+		rectangle(plane, inData.width, inData.height, width, height, cx, cy, false, erosionPad(inData));
+		return fromPlane(plane, inData);
+	}
+
+	/**
+	 * Dilation with a rectangle
+	 * @param inData binary or gray image
+	 * @param width rectangle width
+	 * @param height rectangle height
+	 * @param cx origin of the rectangle (hotspot)
+	 * @param cy origin of the rectangle (hotspot)
+	 * @return new dilated image
+	 */
+	public static ImageData dilation(ImageData inData, int width, int height, int cx, int cy) {
+		final byte[] plane = toPlane(inData);
+
+		rectangle(plane, inData.width, inData.height, width, height, cx, cy, true, 0);
+		return fromPlane(plane, inData);
+	}
+
+	/**
+	 * Opening with a rectangle: erosion followed by dilation with the reflected rectangle
+	 * @param inData binary or gray image
+	 * @param width rectangle width
+	 * @param height rectangle height
+	 * @param cx origin of the rectangle (hotspot)
+	 * @param cy origin of the rectangle (hotspot)
+	 * @return new opened image
+	 */
+	public static ImageData opening(ImageData inData, int width, int height, int cx, int cy) {
+		final byte[] plane = toPlane(inData);
+
+		rectangle(plane, inData.width, inData.height, width, height, cx, cy, false, erosionPad(inData));
+		rectangle(plane, inData.width, inData.height, width, height, width - 1 - cx, height - 1 - cy, true, 0);
+		return fromPlane(plane, inData);
+	}
+
+	/**
+	 * Closing with a rectangle: dilation followed by erosion with the reflected rectangle
+	 * @param inData binary or gray image
+	 * @param width rectangle width
+	 * @param height rectangle height
+	 * @param cx origin of the rectangle (hotspot)
+	 * @param cy origin of the rectangle (hotspot)
+	 * @return new closed image
+	 */
+	public static ImageData closing(ImageData inData, int width, int height, int cx, int cy) {
+		final byte[] plane = toPlane(inData);
+
+		rectangle(plane, inData.width, inData.height, width, height, cx, cy, true, 0);
+		rectangle(plane, inData.width, inData.height, width, height, width - 1 - cx, height - 1 - cy, false, erosionPad(inData));
+		return fromPlane(plane, inData);
+	}
+
+	/**
+	 * Erosion with a periodic line of n pixels (k*dx, k*dy), k = -n/2 .. n - 1 - n/2
+	 * @param inData binary or gray image
+	 * @param n number of pixels
+	 * @param dx horizontal step
+	 * @param dy vertical step
+	 * @return new eroded image
+	 */
+	public static ImageData lineErosion(ImageData inData, int n, int dx, int dy) {
+		final byte[] plane = toPlane(inData);
+
+		line(plane, inData.width, inData.height, n, dx, dy, n/2, false, erosionPad(inData));
+		return fromPlane(plane, inData);
+	}
+
+	/**
+	 * Dilation with a periodic line of n pixels (k*dx, k*dy), k = -n/2 .. n - 1 - n/2
+	 * @param inData binary or gray image
+	 * @param n number of pixels
+	 * @param dx horizontal step
+	 * @param dy vertical step
+	 * @return new dilated image
+	 */
+	public static ImageData lineDilation(ImageData inData, int n, int dx, int dy) {
+		final byte[] plane = toPlane(inData);
+
+		line(plane, inData.width, inData.height, n, dx, dy, n/2, true, 0);
+		return fromPlane(plane, inData);
+	}
+
+	/**
+	 * Returns the value of pixels outside of the image for erosions: background of binary images, ignored for gray images
+	 * @param inData
+	 * @return
+	 */
+	public static int erosionPad(ImageData inData) {
+		return BinaryBuffer.supports(inData) ? 0 : 255;
+	}
+
+	/**
+	 * Copies a binary or gray image to a plane of width*height values: binary images yield 255 for foreground and 0 for background
+	 * @param inData binary or gray image
+	 * @return new plane
+	 */
+	public static byte[] toPlane(ImageData inData) {
+		final int w = inData.width, h = inData.height;
+		final byte[] plane = new byte[w*h];
+
+		if (BinaryBuffer.supports(inData)) {
+			final BinaryBuffer in = new BinaryBuffer(inData);
+			final int fg = MorphologicFilter.s_foreground;
+
+			Parallel.For(0, h, v -> {
+				for (int u=0; u < w; u++) plane[v*w + u] = (in.get(u, v) == fg) ? (byte)255 : 0;
+			});
+		} else if (GrayBuffer.supports(inData)) {
+			final GrayBuffer in = new GrayBuffer(inData);
+
+			Parallel.For(0, h, v -> in.getRow(v, plane, v*w));
+		} else {
+			throw new IllegalArgumentException("binary or gray image expected");
+		}
+		return plane;
+	}
+
+	/**
+	 * Creates an image of the same type as template from a plane
+	 * @param plane width*height values; for binary images all values different from 0 are foreground
+	 * @param template binary or gray image
+	 * @return new image
+	 */
+	public static ImageData fromPlane(byte[] plane, ImageData template) {
+		final int w = template.width, h = template.height;
+		final ImageData outData = ImageProcessing.createImage(w, h, template);
+
+		if (BinaryBuffer.supports(outData)) {
+			final BinaryBuffer out = new BinaryBuffer(outData);
+			final int fg = MorphologicFilter.s_foreground, bg = MorphologicFilter.s_background;
+
+			Parallel.For(0, h, v -> {
+				for (int u=0; u < w; u++) out.set(u, v, (plane[v*w + u] != 0) ? fg : bg);
+			});
+		} else {
+			final GrayBuffer out = new GrayBuffer(outData);
+
+			Parallel.For(0, h, v -> out.setRow(v, plane, v*w));
+		}
+		return outData;
+	}
+
+	/**
+	 * Running minimum or maximum over rectangles in place: (u,v) gets the extremum of (u + i - cx, v + j - cy), i < width, j < height
+	 * @param plane w*h values
+	 * @param w plane width
+	 * @param h plane height
+	 * @param width rectangle width
+	 * @param height rectangle height
+	 * @param cx origin of the rectangle (hotspot)
+	 * @param cy origin of the rectangle (hotspot)
+	 * @param max true: maximum (dilation), false: minimum (erosion)
+	 * @param pad value of pixels outside of the plane
+	 */
+	public static void rectangle(byte[] plane, int w, int h, int width, int height, int cx, int cy, boolean max, int pad) {
+		rows(plane, w, h, width, cx, max, pad);
+		columns(plane, w, h, height, cy, max, pad);
+	}
+
+	/**
+	 * Running minimum or maximum along the rows in place: (u,v) gets the extremum of (u - c .. u - c + n - 1, v)
+	 * @param plane w*h values
+	 * @param w plane width
+	 * @param h plane height
+	 * @param n window length >= 1
+	 * @param c origin of the window: 0 <= c < n
+	 * @param max true: maximum (dilation), false: minimum (erosion)
+	 * @param pad value of pixels outside of the plane
+	 */
+	public static void rows(byte[] plane, int w, int h, int n, int c, boolean max, int pad) {
+		checkWindow(n, c);
+		if (n == 1) return;
+
+		final int inv = (max) ? 0xFF : 0;
+
+		Parallel.For(0, h, RowsPerTask, v0 -> {
+			final byte[] g = new byte[w + n - 1], s = new byte[w + n - 1];
+
+			for (int v=v0; v < Math.min(h, v0 + RowsPerTask); v++) {
+				final int offset = v*w;
+
+				// padded row: the window of output u is [u, u + n)
+				for (int q=0; q < s.length; q++) {
+					final int u = q - c;
+					s[q] = (byte)(((u >= 0 && u < w) ? 0xFF & plane[offset + u] : pad) ^ inv);
+				}
+				prefixSuffix(s, g, s.length, n);
+				for (int u=0; u < w; u++) plane[offset + u] = (byte)(Math.min(0xFF & s[u], 0xFF & g[u + n - 1]) ^ inv);
+			}
+		});
+	}
+
+	/**
+	 * Running minimum or maximum along the columns in place: (u,v) gets the extremum of (u, v - c .. v - c + n - 1)
+	 * @param plane w*h values
+	 * @param w plane width
+	 * @param h plane height
+	 * @param n window length >= 1
+	 * @param c origin of the window: 0 <= c < n
+	 * @param max true: maximum (dilation), false: minimum (erosion)
+	 * @param pad value of pixels outside of the plane
+	 */
+	public static void columns(byte[] plane, int w, int h, int n, int c, boolean max, int pad) {
+		checkWindow(n, c);
+		if (n == 1) return;
+
+		final int inv = (max) ? 0xFF : 0;
+		final int len = h + n - 1;	// padded column length
+
+		// a block of adjacent columns is processed row by row, such that the inner loops read contiguous memory
+		Parallel.For(0, w, BlockWidth, u0 -> {
+			final int bw = Math.min(BlockWidth, w - u0);
+			final byte[] g = new byte[len*bw], s = new byte[len*bw];
+
+			for (int q=0; q < len; q++) {
+				final int v = q - c;
+
+				for (int j=0; j < bw; j++) s[q*bw + j] = (byte)(((v >= 0 && v < h) ? 0xFF & plane[v*w + u0 + j] : pad) ^ inv);
+			}
+			for (int b=0; b < len; b += n) {
+				final int e = Math.min(len, b + n);
+
+				// prefix minima from the block start, suffix minima to the block end
+				System.arraycopy(s, b*bw, g, b*bw, bw);
+				for (int q=b + 1; q < e; q++) {
+					for (int j=q*bw; j < (q + 1)*bw; j++) g[j] = (byte)Math.min(0xFF & g[j - bw], 0xFF & s[j]);
+				}
+				for (int q=e - 2; q >= b; q--) {
+					for (int j=q*bw; j < (q + 1)*bw; j++) s[j] = (byte)Math.min(0xFF & s[j + bw], 0xFF & s[j]);
+				}
+			}
+			for (int v=0; v < h; v++) {
+				for (int j=0; j < bw; j++) {
+					plane[v*w + u0 + j] = (byte)(Math.min(0xFF & s[v*bw + j], 0xFF & g[(v + n - 1)*bw + j]) ^ inv);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Running minimum or maximum along a periodic line in place: (u,v) gets the extremum of (u + (k - c)*dx, v + (k - c)*dy), k < n
+	 * @param plane w*h values
+	 * @param w plane width
+	 * @param h plane height
+	 * @param n number of line pixels >= 1
+	 * @param dx horizontal step
+	 * @param dy vertical step
+	 * @param c origin of the line: 0 <= c < n
+	 * @param max true: maximum (dilation), false: minimum (erosion)
+	 * @param pad value of pixels outside of the plane
+	 */
+	public static void line(byte[] plane, int w, int h, int n, int dx, int dy, int c, boolean max, int pad) {
+		checkWindow(n, c);
+		if (dx == 0 && dy == 0) throw new IllegalArgumentException("line step must not be 0");
+		if (n == 1) return;
+
+		// sequences run downwards or to the right; reversing the direction mirrors the origin
+		if (dy < 0 || (dy == 0 && dx < 0)) {
+			dx = -dx;
+			dy = -dy;
+			c = n - 1 - c;
+		}
+		if (dx == 1 && dy == 0) {
+			rows(plane, w, h, n, c, max, pad);
+			return;
+		}
+		if (dx == 0 && dy == 1) {
+			columns(plane, w, h, n, c, max, pad);
+			return;
+		}
+
+		final int inv = (max) ? 0xFF : 0;
+		final int sx = dx, sy = dy, origin = c;
+		final int maxLen = Math.max(w, h);
+
+		// each sequence starts at a pixel whose predecessor lies outside of the plane: in the first sy rows or in the first/last |sx| columns
+		Parallel.For(0, h, RowsPerTask, v0 -> {
+			final int[] pos = new int[maxLen];
+			final byte[] g = new byte[maxLen + n - 1], s = new byte[maxLen + n - 1];
+
+			for (int v=v0; v < Math.min(h, v0 + RowsPerTask); v++) {
+				final int uStart, uStop;
+
+				if (v < sy) {
+					uStart = 0; uStop = w;
+				} else if (sx > 0) {
+					uStart = 0; uStop = Math.min(w, sx);
+				} else {
+					uStart = Math.max(0, w + sx); uStop = w;
+				}
+				for (int u0=uStart; u0 < uStop; u0++) {
+					int len = 0;
+					for (int u=u0, y=v; u >= 0 && u < w && y < h; u += sx, y += sy) pos[len++] = y*w + u;
+
+					for (int q=0; q < len + n - 1; q++) {
+						final int k = q - origin;
+						s[q] = (byte)(((k >= 0 && k < len) ? 0xFF & plane[pos[k]] : pad) ^ inv);
+					}
+					prefixSuffix(s, g, len + n - 1, n);
+					for (int k=0; k < len; k++) plane[pos[k]] = (byte)(Math.min(0xFF & s[k], 0xFF & g[k + n - 1]) ^ inv);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Computes prefix minima of blocks of n values into g and suffix minima of the blocks in place
+	 * @param s values, replaced by suffix minima
+	 * @param g prefix minima
+	 * @param len number of values
+	 * @param n block length
+	 */
+	private static void prefixSuffix(byte[] s, byte[] g, int len, int n) {
+		for (int b=0; b < len; b += n) {
+			final int e = Math.min(len, b + n);
+
+			g[b] = s[b];
+			for (int q=b + 1; q < e; q++) g[q] = (byte)Math.min(0xFF & g[q - 1], 0xFF & s[q]);
+			for (int q=e - 2; q >= b; q--) s[q] = (byte)Math.min(0xFF & s[q + 1], 0xFF & s[q]);
+		}
+	}
+
+	private static void checkWindow(int n, int c) {
+		if (n < 1 || c < 0 || c >= n) throw new IllegalArgumentException("wrong window: length = " + n + ", origin = " + c);
+	}
+}
@@ -7,7 +7,10 @@ import org.eclipse.swt.graphics.RGB;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
 import main.Picsi;
+import utils.GrayBuffer;
 import utils.Parallel;
+import utils.PixelKernels;
+import utils.RgbBuffer;
 
 /**
  * RGBA channel visualizer
@@ -27,6 +30,11 @@ public class ChannelRGBA implements IImageProcessor {
 		return imageType == Picsi.IMAGE_TYPE_RGBA || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_INDEXED;
 	}
 
+	@Override
+	public Object getCacheKey() {
+		return m_channel;
+	}
+
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
 		return getChannel(inData, m_channel);
@@ -34,6 +42,50 @@ public class ChannelRGBA implements IImageProcessor {
 
 	public static ImageData getChannel(ImageData inData, int channel) {
 		ImageData outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
+		GrayBuffer out = new GrayBuffer(outData);
+
+		if (RgbBuffer.supports(inData)) {
+			// direct color: read the channel byte or the alpha value
+			RgbBuffer in = new RgbBuffer(inData);
+			PixelKernels kernels = PixelKernels.get();
+
+			Parallel.For(0, inData.height, v -> {
+				final int outPos = out.rowOffset(v);
+				
+				if (channel == 3) {
+					for (int u=0; u < inData.width; u++) {
+						out.set(outPos + u, in.alpha(u, v)); // 0 = fully transparent, 255 = opaque
+					}
+				} else {
+					final int c = (channel == 0) ? in.m_r : (channel == 1) ? in.m_g : in.m_b;
+					kernels.channel(in.m_data, in.rowOffset(v), in.m_bytesPerPixel, c, out.m_data, outPos, inData.width);
+				}
+			});
+			return outData;
+		} else if (GrayBuffer.supports(inData) && !inData.palette.isDirect && inData.getTransparencyType() != SWT.TRANSPARENCY_ALPHA) {
+			// indexed color: look up the channel value of each palette entry once
+			GrayBuffer in = new GrayBuffer(inData);
+			RGB[] rgbs = inData.getRGBs();
+			int[] lut = new int[256];
+			
+			for (int i=0; i < rgbs.length; i++) {
+				switch (channel) {
+                    case 0: lut[i] = rgbs[i].red; break;
+                    case 1: lut[i] = rgbs[i].green; break;
+                    case 2: lut[i] = rgbs[i].blue; break;
+                    case 3: lut[i] = 255; break;
+				}
+			}
+			Parallel.For(0, inData.height, v -> {
+				final int inPos = in.rowOffset(v);
+				final int outPos = out.rowOffset(v);
+				
+				for (int u=0; u < inData.width; u++) {
+					out.set(outPos + u, lut[in.get(inPos + u)]);
+				}
+			});
+			return outData;
+		}
 
 		// parallel image loop
 		Parallel.For(0, inData.height, v -> {
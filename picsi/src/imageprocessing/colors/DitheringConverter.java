@@ -17,6 +17,11 @@ public class DitheringConverter implements IImageProcessor {
         return imageType != Picsi.IMAGE_TYPE_GRAY && imageType != Picsi.IMAGE_TYPE_INDEXED;
     }
 
+    @Override
+    public Object getCacheKey() {
+        return ""; // no parameters
+    }
+
     @Override
     public ImageData run(ImageData inData, int imageType) {
         return dither(inData, imageType);
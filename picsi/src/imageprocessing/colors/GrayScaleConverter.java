@@ -5,7 +5,10 @@ import org.eclipse.swt.graphics.ImageData;
 import imageprocessing.IImageProcessor;
 import imageprocessing.ImageProcessing;
 import main.Picsi;
+import utils.GrayBuffer;
 import utils.Parallel;
+import utils.PixelKernels;
+import utils.RgbBuffer;
 
 public class GrayScaleConverter implements IImageProcessor {
 
@@ -14,6 +17,16 @@ public class GrayScaleConverter implements IImageProcessor {
         return imageType != Picsi.IMAGE_TYPE_GRAY && imageType != Picsi.IMAGE_TYPE_INDEXED;
 	}
 
+	@Override
+	public Object getCacheKey() {
+		return ""; // no parameters
+	}
+
+	@Override
+	public int getHalo() {
+		return 0;
+	}
+
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
         return convert(inData, imageType);
@@ -27,15 +40,23 @@ public class GrayScaleConverter implements IImageProcessor {
 	public static ImageData convert(ImageData inData, int imageType) {
         var grayScaleImage = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_GRAY);
 
-        double wr = 0.299, wg = 0.587, wb = 0.114;
-
-        Parallel.For(0, inData.height, y -> {
-            for (int x = 0; x < inData.width; x++) {
-                var rgb = inData.palette.getRGB(inData.getPixel(x, y));
-                int gray = ImageProcessing.clamp8(wr * rgb.red + wg * rgb.green + wb * rgb.blue);
-                grayScaleImage.setPixel(x, y, gray);
-            }
-        });
+        if (RgbBuffer.supports(inData)) {
+            // direct access to the channel bytes, vectorized if available
+            var in = new RgbBuffer(inData);
+            var out = new GrayBuffer(grayScaleImage);
+            var kernels = PixelKernels.get();
+
+            Parallel.For(0, inData.height, y -> {
+                kernels.gray(in.m_data, in.rowOffset(y), in.m_bytesPerPixel, in.m_r, in.m_g, in.m_b, out.m_data, out.rowOffset(y), inData.width);
+            });
+        } else {
+            Parallel.For(0, inData.height, y -> {
+                for (int x = 0; x < inData.width; x++) {
+                    var rgb = inData.palette.getRGB(inData.getPixel(x, y));
+                    grayScaleImage.setPixel(x, y, PixelKernels.gray(rgb.red, rgb.green, rgb.blue));
+                }
+            });
+        }
 
         return grayScaleImage;
     }
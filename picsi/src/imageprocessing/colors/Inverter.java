@@ -1,12 +1,12 @@
 package imageprocessing.colors;
 
 import org.eclipse.swt.graphics.ImageData;
-import org.eclipse.swt.graphics.PaletteData;
-import org.eclipse.swt.graphics.RGB;
 
 import imageprocessing.IImageProcessor;
 import main.Picsi;
+import utils.ImageBuffer;
 import utils.Parallel;
+import utils.PixelKernels;
 
 /**
  * Image inverter
@@ -20,6 +20,16 @@ public class Inverter implements IImageProcessor {
 		return true;
 	}
 
+	@Override
+	public Object getCacheKey() {
+		return ""; // no parameters
+	}
+
+	@Override
+	public int getHalo() {
+		return 0;
+	}
+
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
 		ImageData outData = (ImageData)inData.clone();
@@ -37,14 +47,15 @@ public class Inverter implements IImageProcessor {
 		if (imageType == Picsi.IMAGE_TYPE_INDEXED) {
 			// indexed color: change palette
 			// don't change palette for binary and grayscale, because getPixel will return the index not the color
-			RGB[] paletteIn = imageData.getRGBs();
-			RGB[] paletteOut = new RGB[paletteIn.length];
+			new PointOperation().invert().apply(imageData, imageType);
+		} else if (imageData.palette.isDirect ? imageData.depth%8 == 0 : imageData.palette.colors.length == 1 << imageData.depth) {
+			// all bits of a pixel are inverted: invert whole bytes of each row
+			final ImageBuffer buffer = new ImageBuffer(imageData);
+			final PixelKernels kernels = PixelKernels.get();
 			
-			for (int i=0; i < paletteIn.length; i++) {
-				RGB rgbIn = paletteIn[i];
-				paletteOut[i] = new RGB(255 - rgbIn.red, 255 - rgbIn.green, 255 - rgbIn.blue);
-			}
-			imageData.palette = new PaletteData(paletteOut);
+			Parallel.For(0, imageData.height, v -> {
+				kernels.invert(buffer.m_data, buffer.rowOffset(v), buffer.m_rowBytes);
+			});
 		} else {
 			// works for images with/without palette
 			final int mask = imageData.palette.isDirect ? (1 << imageData.depth) - 1 : imageData.palette.colors.length - 1;
@@ -0,0 +1,224 @@
+package imageprocessing.colors;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.eclipse.swt.graphics.RGB;
+
+import imageprocessing.IImageProcessor;
+import imageprocessing.ImageProcessing;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * Point operation engine: any sequence of 8-bit point transforms is composed into one look-up table per channel
+ * and applied in a single parallel pass over the raw pixel bytes.
+ * Indexed images only get a new palette. Gray images use the table of the red channel.
+ * A point operation is immutable; each composition returns a new point operation.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class PointOperation implements IImageProcessor {
+	private final byte[][] m_luts; // one table of 256 entries per channel: red, green, blue
+
+	/**
+	 * Creates the identity
+	 */
+	public PointOperation() {
+		m_luts = new byte[3][256];
+		for (int i=0; i < 256; i++) {
+			m_luts[0][i] = m_luts[1][i] = m_luts[2][i] = (byte)i;
+		}
+	}
+
+	private PointOperation(byte[][] luts) {
+		m_luts = luts;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA || imageType == Picsi.IMAGE_TYPE_INDEXED;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		ImageData outData = (ImageData)inData.clone();
+		apply(outData, imageType);
+
+		return outData;
+	}
+
+	@Override
+	public Object getCacheKey() {
+		// value based equals and hashCode of the tables
+		final ByteBuffer key = ByteBuffer.allocate(3*256);
+		for (byte[] lut : m_luts) key.put(lut);
+		return key.flip();
+	}
+
+	@Override
+	public int getHalo() {
+		return 0;
+	}
+
+	/**
+	 * Appends a transform applied to all channels
+	 * @param op maps a value in [0, 255] to a value that is clamped to [0, 255]
+	 * @return new point operation
+	 */
+	public PointOperation then(IntUnaryOperator op) {
+		return then(op, op, op);
+	}
+
+	/**
+	 * Appends a transform per channel
+	 * @param red maps a red value in [0, 255] to a value that is clamped to [0, 255]
+	 * @param green
+	 * @param blue
+	 * @return new point operation
+	 */
+	public PointOperation then(IntUnaryOperator red, IntUnaryOperator green, IntUnaryOperator blue) {
+		final IntUnaryOperator[] ops = { red, green, blue };
+		final byte[][] luts = new byte[3][256];
+
+		for (int c=0; c < 3; c++) {
+			for (int i=0; i < 256; i++) {
+				luts[c][i] = (byte)ImageProcessing.clamp8(ops[c].applyAsInt(0xFF & m_luts[c][i]));
+			}
+		}
+		return new PointOperation(luts);
+	}
+
+	/**
+	 * Appends another point operation
+	 * @param op applied after this
+	 * @return new point operation
+	 */
+	public PointOperation then(PointOperation op) {
+		final byte[][] luts = new byte[3][256];
+
+		for (int c=0; c < 3; c++) {
+			for (int i=0; i < 256; i++) {
+				luts[c][i] = op.m_luts[c][0xFF & m_luts[c][i]];
+			}
+		}
+		return new PointOperation(luts);
+	}
+
+	/**
+	 * Appends an inversion: v -> 255 - v
+	 * @return new point operation
+	 */
+	public PointOperation invert() {
+		return then(v -> 255 - v);
+	}
+
+	/**
+	 * Appends a threshold: v -> (v <= threshold) ? 0 : 255
+	 * @param threshold in [0, 255]
+	 * @return new point operation
+	 */
+	public PointOperation threshold(int threshold) {
+		if (threshold < 0 || threshold > 255) throw new IllegalArgumentException("threshold must be in [0, 255]: " + threshold);
+		return then(v -> (v <= threshold) ? 0 : 255);
+	}
+
+	/**
+	 * Appends a gamma correction: v -> 255*(v/255)^gamma
+	 * @param gamma > 0
+	 * @return new point operation
+	 */
+	public PointOperation gamma(double gamma) {
+		if (!(gamma > 0) || Double.isInfinite(gamma)) throw new IllegalArgumentException("gamma must be positive: " + gamma);
+		return then(v -> (int)Math.round(255*Math.pow(v/255.0, gamma)));
+	}
+
+	/**
+	 * Appends a linear level mapping: [inLow, inHigh] is mapped to [outLow, outHigh], values outside are clamped
+	 * @param inLow in [0, 255]
+	 * @param inHigh in [0, 255] and > inLow
+	 * @param outLow in [0, 255]
+	 * @param outHigh in [0, 255]
+	 * @return new point operation
+	 */
+	public PointOperation levels(int inLow, int inHigh, int outLow, int outHigh) {
+		if (inLow < 0 || inHigh > 255 || inLow >= inHigh || outLow < 0 || outLow > 255 || outHigh < 0 || outHigh > 255) {
+			throw new IllegalArgumentException("wrong levels: input [" + inLow + ", " + inHigh + "], output [" + outLow + ", " + outHigh + "]");
+		}
+		return then(v -> {
+			final int w = Math.max(inLow, Math.min(inHigh, v));
+			return outLow + (int)Math.round((double)(w - inLow)*(outHigh - outLow)/(inHigh - inLow));
+		});
+	}
+
+	/**
+	 * Returns the table entry of a channel
+	 * @param channel 0 = red, 1 = green, 2 = blue
+	 * @param v input value in [0, 255]
+	 * @return output value in [0, 255]
+	 */
+	public int get(int channel, int v) {
+		return 0xFF & m_luts[channel][v];
+	}
+
+	/**
+	 * Applies the point operation in place
+	 * @param imageData
+	 * @param imageType one of the types enabled by isEnabled
+	 */
+	public void apply(ImageData imageData, int imageType) {
+		if (imageType == Picsi.IMAGE_TYPE_INDEXED) {
+			// indexed color: change palette
+			RGB[] paletteIn = imageData.getRGBs();
+			RGB[] paletteOut = new RGB[paletteIn.length];
+
+			for (int i=0; i < paletteIn.length; i++) {
+				RGB rgbIn = paletteIn[i];
+				paletteOut[i] = new RGB(get(0, rgbIn.red), get(1, rgbIn.green), get(2, rgbIn.blue));
+			}
+			imageData.palette = new PaletteData(paletteOut);
+		} else if (imageType == Picsi.IMAGE_TYPE_GRAY && GrayBuffer.supports(imageData)) {
+			// one table for all bytes
+			final GrayBuffer buffer = new GrayBuffer(imageData);
+			final byte[] lut = m_luts[0];
+
+			Parallel.For(0, imageData.height, v -> {
+				final int offset = buffer.rowOffset(v);
+
+				for (int i=offset; i < offset + buffer.m_width; i++) {
+					buffer.m_data[i] = lut[0xFF & buffer.m_data[i]];
+				}
+			});
+		} else if (RgbBuffer.supports(imageData)) {
+			// one table per channel byte
+			final RgbBuffer buffer = new RgbBuffer(imageData);
+			final byte[] rLut = m_luts[0], gLut = m_luts[1], bLut = m_luts[2];
+			final int r = buffer.m_r, g = buffer.m_g, b = buffer.m_b;
+
+			Parallel.For(0, imageData.height, v -> {
+				final int offset = buffer.rowOffset(v);
+				final byte[] data = buffer.m_data;
+
+				for (int i=offset; i < offset + buffer.m_rowBytes; i += buffer.m_bytesPerPixel) {
+					data[i + r] = rLut[0xFF & data[i + r]];
+					data[i + g] = gLut[0xFF & data[i + g]];
+					data[i + b] = bLut[0xFF & data[i + b]];
+				}
+			});
+		} else {
+			// other direct color formats
+			assert imageData.palette.isDirect : "wrong image type";
+			Parallel.For(0, imageData.height, v -> {
+				for (int u=0; u < imageData.width; u++) {
+					final RGB rgb = imageData.palette.getRGB(imageData.getPixel(u, v));
+					imageData.setPixel(u, v, imageData.palette.getPixel(new RGB(get(0, rgb.red), get(1, rgb.green), get(2, rgb.blue))));
+				}
+			});
+		}
+	}
+}
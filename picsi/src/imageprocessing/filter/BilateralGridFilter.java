@@ -0,0 +1,269 @@
+package imageprocessing.filter;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import gui.OptionPane;
+import imageprocessing.IImageProcessor;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * Edge-preserving smoothing with the bilateral grid of Chen, Paris and Durand.
+ * Each channel is splatted into a 3D grid (x, y, intensity) downsampled by the spatial and the range sigma,
+ * the grid is blurred by a separable [1 4 6 4 1]/16 kernel per axis, and the result is sliced by trilinear interpolation.
+ * The cost is linear in the number of pixels plus the number of grid cells.
+ * Splatting and slicing run in parallel over image rows, the blur over grid slices.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class BilateralGridFilter implements IImageProcessor {
+	private static final int Padding = 2;	// empty grid cells on both sides of each axis: radius of the blur kernel
+	private static final long MaxCells = 1L << 26;	// grid cells of the largest grid: two float arrays of 256 MB each
+
+	private final double m_sigmaSpatial;	// 0: sigmas are asked for in run
+	private final double m_sigmaRange;
+
+	/**
+	 * Bilateral grid filter with interactive input of the sigmas
+	 */
+	public BilateralGridFilter() {
+		m_sigmaSpatial = 0;
+		m_sigmaRange = 0;
+	}
+
+	/**
+	 * Bilateral grid filter
+	 * @param sigmaSpatial spatial standard deviation in pixels >= 1
+	 * @param sigmaRange intensity standard deviation >= 1
+	 */
+	public BilateralGridFilter(double sigmaSpatial, double sigmaRange) {
+		if (sigmaSpatial < 1 || sigmaRange < 1) throw new IllegalArgumentException("wrong parameters: sigmaSpatial = " + sigmaSpatial + ", sigmaRange = " + sigmaRange);
+		m_sigmaSpatial = sigmaSpatial;
+		m_sigmaRange = sigmaRange;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+	}
+
+	@Override
+	public Object getCacheKey() {
+		return (m_sigmaSpatial == 0) ? null : m_sigmaSpatial + ":" + m_sigmaRange;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		double sigmaSpatial = m_sigmaSpatial, sigmaRange = m_sigmaRange;
+
+		if (sigmaSpatial == 0) {
+			Double s = OptionPane.showDoubleDialog("Spatial sigma in pixels", 16);
+			if (s == null) return null;
+			Double r = OptionPane.showDoubleDialog("Range sigma in intensity levels", 20);
+			if (r == null) return null;
+			sigmaSpatial = Math.max(1, s);
+			sigmaRange = Math.max(1, r);
+		}
+		return bilateral(inData, sigmaSpatial, sigmaRange);
+	}
+
+	/**
+	 * Bilateral grid filter of a gray, RGB or RGBA image. Color channels are filtered separately, alpha values are copied.
+	 * Small sigmas on large images lead to grids with more than MaxCells cells; they are rejected.
+	 * @param inData
+	 * @param sigmaSpatial spatial standard deviation in pixels >= 1
+	 * @param sigmaRange intensity standard deviation >= 1
+	 * @return filtered image
+	 */
+	public static ImageData bilateral(ImageData inData, double sigmaSpatial, double sigmaRange) {
+		final ImageData source;
+		final int[] channels;	// byte positions of the filtered channels inside a pixel
+		final int bytesPerPixel;
+
+		if (GrayBuffer.supports(inData)) {
+			source = inData;
+			channels = new int[] { 0 };
+			bytesPerPixel = 1;
+		} else {
+			// other direct color formats are converted to 24 bits per pixel
+			source = RgbBuffer.supports(inData) ? inData : GaussFilter.toRGB(inData);
+			final RgbBuffer rgb = new RgbBuffer(source);
+			channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+			bytesPerPixel = rgb.m_bytesPerPixel;
+		}
+
+		final ImageData outData = (ImageData)source.clone();
+		final ImageBuffer in = new ImageBuffer(source), out = new ImageBuffer(outData);
+		final Grid grid = new Grid(inData.width, inData.height, sigmaSpatial, sigmaRange);
+
+		for (int c : channels) {
+			grid.splat(in, bytesPerPixel, c);
+			grid.blur();
+			grid.slice(in, out, bytesPerPixel, c);
+		}
+		return outData;
+	}
+
+	/**
+	 * Downsampled grid of homogeneous values: sum of intensities and number of pixels per cell
+	 */
+	private static class Grid {
+		private final int m_width, m_height;	// image size
+		private final double m_ss, m_sr;		// sampling rates: spatial and range sigma
+		private final int m_gw, m_gh, m_gd;		// grid size including padding
+		private final float[] m_values, m_weights;	// index (gy*m_gw + gx)*m_gd + gz
+
+		Grid(int width, int height, double sigmaSpatial, double sigmaRange) {
+			m_width = width;
+			m_height = height;
+			m_ss = sigmaSpatial;
+			m_sr = sigmaRange;
+			m_gw = (int)Math.round((width - 1)/m_ss) + 1 + 2*Padding;
+			m_gh = (int)Math.round((height - 1)/m_ss) + 1 + 2*Padding;
+			m_gd = (int)Math.round(255/m_sr) + 1 + 2*Padding;
+
+			final long cells = Math.multiplyExact(Math.multiplyExact((long)m_gw, m_gh), m_gd);
+			if (cells > MaxCells) {
+				throw new IllegalArgumentException("bilateral grid of " + m_gw + "x" + m_gh + "x" + m_gd + " cells is too large: increase sigmaSpatial = "
+						+ sigmaSpatial + " or sigmaRange = " + sigmaRange);
+			}
+			m_values = new float[(int)cells];
+			m_weights = new float[m_values.length];
+		}
+
+		/**
+		 * Accumulates each pixel in its nearest grid cell. Image rows mapped to the same grid row are processed by the same task.
+		 * @param in image
+		 * @param bytesPerPixel
+		 * @param c byte position of the channel
+		 */
+		void splat(ImageBuffer in, int bytesPerPixel, int c) {
+			Arrays.fill(m_values, 0);
+			Arrays.fill(m_weights, 0);
+
+			Parallel.For(Padding, m_gh - Padding, gy -> {
+				// image rows v with round(v/ss) == gy - Padding, the range is one row larger on both sides because of rounding errors
+				final int v0 = Math.max(0, (int)Math.floor((gy - Padding - 0.5)*m_ss));
+				final int v1 = Math.min(m_height, (int)Math.ceil((gy - Padding + 0.5)*m_ss) + 1);
+
+				for (int v=v0; v < v1; v++) {
+					if ((int)Math.round(v/m_ss) + Padding != gy) continue;
+					for (int u=0, pos = in.rowOffset(v) + c; u < m_width; u++, pos += bytesPerPixel) {
+						final int val = 0xFF & in.m_data[pos];
+						final int i = cell((int)Math.round(u/m_ss), gy - Padding, (int)Math.round(val/m_sr));
+
+						m_values[i] += val;
+						m_weights[i]++;
+					}
+				}
+			});
+		}
+
+		/**
+		 * Blurs the grid along all three axes
+		 */
+		void blur() {
+			final int plane = m_gw*m_gd;
+
+			// intensity and x axis: inside a grid row
+			Parallel.For(0, m_gh, gy -> {
+				final float[] line = new float[Math.max(m_gw, m_gd)];
+
+				for (int gx=0; gx < m_gw; gx++) {
+					blurLine(m_values, (gy*m_gw + gx)*m_gd, 1, m_gd, line);
+					blurLine(m_weights, (gy*m_gw + gx)*m_gd, 1, m_gd, line);
+				}
+				for (int gz=0; gz < m_gd; gz++) {
+					blurLine(m_values, gy*plane + gz, m_gd, m_gw, line);
+					blurLine(m_weights, gy*plane + gz, m_gd, m_gw, line);
+				}
+			});
+
+			// y axis
+			Parallel.For(0, m_gw, gx -> {
+				final float[] line = new float[m_gh];
+
+				for (int gz=0; gz < m_gd; gz++) {
+					blurLine(m_values, gx*m_gd + gz, plane, m_gh, line);
+					blurLine(m_weights, gx*m_gd + gz, plane, m_gh, line);
+				}
+			});
+		}
+
+		/**
+		 * Interpolates each pixel trilinearly in the grid and writes the normalized value
+		 * @param in image
+		 * @param out filtered image
+		 * @param bytesPerPixel
+		 * @param c byte position of the channel
+		 */
+		void slice(ImageBuffer in, ImageBuffer out, int bytesPerPixel, int c) {
+			Parallel.For(0, m_height, v -> {
+				final double y = v/m_ss;
+				final int y0 = (int)y;
+				final float fy = (float)(y - y0);
+
+				for (int u=0, pos = in.rowOffset(v) + c; u < m_width; u++, pos += bytesPerPixel) {
+					final int val = 0xFF & in.m_data[pos];
+					final double x = u/m_ss, z = val/m_sr;
+					final int x0 = (int)x, z0 = (int)z;
+					final float fx = (float)(x - x0), fz = (float)(z - z0);
+					final int i = cell(x0, y0, z0);
+					final float value = trilinear(m_values, i, fx, fy, fz);
+					final float weight = trilinear(m_weights, i, fx, fy, fz);
+
+					out.m_data[out.rowOffset(v) + u*bytesPerPixel + c] = (weight > 0) ? (byte)Math.min(255, Math.round(value/weight)) : (byte)val;
+				}
+			});
+		}
+
+		/**
+		 * Returns the index of a grid cell
+		 * @param x unpadded grid column
+		 * @param y unpadded grid row
+		 * @param z unpadded intensity cell
+		 * @return
+		 */
+		private int cell(int x, int y, int z) {
+			return ((y + Padding)*m_gw + x + Padding)*m_gd + z + Padding;
+		}
+
+		private float trilinear(float[] data, int i, float fx, float fy, float fz) {
+			final int dx = m_gd, dy = m_gw*m_gd;
+			final float c00 = lerp(data[i], data[i + 1], fz);
+			final float c10 = lerp(data[i + dx], data[i + dx + 1], fz);
+			final float c01 = lerp(data[i + dy], data[i + dy + 1], fz);
+			final float c11 = lerp(data[i + dy + dx], data[i + dy + dx + 1], fz);
+
+			return lerp(lerp(c00, c10, fx), lerp(c01, c11, fx), fy);
+		}
+
+		private static float lerp(float a, float b, float f) {
+			return a + f*(b - a);
+		}
+
+		/**
+		 * Convolves a grid line with [1 4 6 4 1]/16. The padding cells at both ends are zero before the first blur.
+		 * @param data grid
+		 * @param pos index of the first cell
+		 * @param step distance of adjacent cells
+		 * @param n number of cells
+		 * @param line work array of at least n values
+		 */
+		private static void blurLine(float[] data, int pos, int step, int n, float[] line) {
+			for (int i=0, p = pos; i < n; i++, p += step) line[i] = data[p];
+			for (int i=0, p = pos; i < n; i++, p += step) {
+				final float l2 = (i >= 2) ? line[i - 2] : 0, l1 = (i >= 1) ? line[i - 1] : 0;
+				final float r1 = (i + 1 < n) ? line[i + 1] : 0, r2 = (i + 2 < n) ? line[i + 2] : 0;
+
+				data[p] = (l2 + r2 + 4*(l1 + r1) + 6*line[i])/16;
+			}
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package imageprocessing.filter;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import imageprocessing.IImageProcessor;
+import imageprocessing.fourier.FFTPlan;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * 2D convolution of an image with an arbitrary kernel. The execution method is chosen by estimated cost:
+ * direct summation, two 1D passes for rank-1 (separable) kernels, or FFT of tiles.
+ * The FFT method splits the output into tiles; each tile reads its input block including the overlap of kernel size - 1
+ * (overlap-save), such that the tiles are independent and run in parallel. Two tiles are transformed together
+ * as real and imaginary part, because the kernel is real. Its cost per pixel grows with log(kernel size) instead of kernel size^2.
+ * The kernel center is kernel[kh/2][kw/2]; the result is rounded and clamped to [0, 255].
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class Convolution implements IImageProcessor {
+	/**
+	 * Extension of the image beyond its border
+	 */
+	public static enum Border {
+		CLAMP,	// border pixels are repeated: aaa|abc
+		MIRROR,	// mirrored at the border pixel: cb|abc
+		ZERO	// outside pixels are 0
+	}
+
+	/**
+	 * Execution method
+	 */
+	public static enum Method {
+		AUTO, DIRECT, SEPARABLE, FFT
+	}
+
+	// measured cost in nanoseconds: per multiply-add, per pixel of the intermediate image, per butterfly and per tile pixel (copy, product, rounding)
+	private static final double MultiplyAddCost = 1, SeparableCost = 4, ButterflyCost = 5, TileCost = 10;
+	private static final int MinTileSize = 32, MaxTileSize = 512;	// FFT tile sizes
+	private static final double SeparableTolerance = 1e-9;			// relative error of a rank-1 approximation
+
+	private final double[][] m_kernel;
+	private final Border m_border;
+	private final Method m_method;
+
+	/**
+	 * Convolution with automatic choice of the method
+	 * @param kernel kh x kw coefficients kernel[row][column]
+	 * @param border extension of the image beyond its border
+	 */
+	public Convolution(double[][] kernel, Border border) {
+		this(kernel, border, Method.AUTO);
+	}
+
+	/**
+	 * Convolution
+	 * @param kernel kh x kw coefficients kernel[row][column]
+	 * @param border extension of the image beyond its border
+	 * @param method execution method; SEPARABLE requires a rank-1 kernel
+	 */
+	public Convolution(double[][] kernel, Border border, Method method) {
+		checkKernel(kernel);
+		if (method == Method.SEPARABLE && separate(kernel) == null) throw new IllegalArgumentException("kernel is not separable");
+		m_kernel = kernel;
+		m_border = border;
+		m_method = method;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+	}
+
+	@Override
+	public Object getCacheKey() {
+		// the method doesn't change the result apart from rounding
+		return Arrays.deepToString(m_kernel) + m_border;
+	}
+
+	@Override
+	public int getHalo() {
+		// rows y + kh/2 - kh + 1 .. y + kh/2
+		return m_kernel.length/2;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		return convolve(inData, m_kernel, m_border, m_method);
+	}
+
+	/**
+	 * Chooses the cheapest method for a kernel and an image size
+	 * @param kernel kh x kw coefficients
+	 * @param width image width
+	 * @param height image height
+	 * @return DIRECT, SEPARABLE or FFT
+	 */
+	public static Method choose(double[][] kernel, int width, int height) {
+		final int kh = kernel.length, kw = kernel[0].length;
+		final double direct = MultiplyAddCost*kw*kh;
+		final double separable = (separate(kernel) != null) ? MultiplyAddCost*(kw + kh) + SeparableCost : Double.POSITIVE_INFINITY;
+		final double fft = fftCost(kw, kh, width, height, tileSize(kw, kh, width, height));
+
+		if (separable <= direct && separable <= fft) return Method.SEPARABLE;
+		return (direct <= fft) ? Method.DIRECT : Method.FFT;
+	}
+
+	/**
+	 * Convolution of a gray, RGB or RGBA image. Color channels are convolved separately, alpha values are copied.
+	 * @param inData
+	 * @param kernel kh x kw coefficients kernel[row][column]
+	 * @param border extension of the image beyond its border
+	 * @param method execution method; SEPARABLE requires a rank-1 kernel
+	 * @return convolved image
+	 */
+	public static ImageData convolve(ImageData inData, double[][] kernel, Border border, Method method) {
+		checkKernel(kernel);
+
+		final ImageData source;
+		final int[] channels;	// byte positions of the filtered channels inside a pixel
+		final int bytesPerPixel;
+
+		if (GrayBuffer.supports(inData)) {
+			source = inData;
+			channels = new int[] { 0 };
+			bytesPerPixel = 1;
+		} else {
+			// other direct color formats are converted to 24 bits per pixel
+			source = RgbBuffer.supports(inData) ? inData : GaussFilter.toRGB(inData);
+			final RgbBuffer rgb = new RgbBuffer(source);
+			channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+			bytesPerPixel = rgb.m_bytesPerPixel;
+		}
+
+		final ImageData outData = (ImageData)source.clone();
+		final Image in = new Image(new ImageBuffer(source), bytesPerPixel, border);
+		final ImageBuffer out = new ImageBuffer(outData);
+
+		if (method == Method.AUTO) method = choose(kernel, in.m_width, in.m_height);
+		switch(method) {
+		case SEPARABLE:
+			final double[][] factors = separate(kernel);
+			if (factors == null) throw new IllegalArgumentException("kernel is not separable");
+			separable(in, out, channels, factors[0], factors[1]);
+			break;
+		case FFT:
+			fft(in, out, channels, kernel);
+			break;
+		default:
+			direct(in, out, channels, kernel);
+			break;
+		}
+		return outData;
+	}
+
+	/**
+	 * Factorizes a rank-1 kernel into a column and a row vector: kernel[j][i] = col[j]*row[i]
+	 * @param kernel kh x kw coefficients
+	 * @return { col, row } or null if the kernel is not separable
+	 */
+	public static double[][] separate(double[][] kernel) {
+		final int kh = kernel.length, kw = kernel[0].length;
+		int p = 0, q = 0;
+		double norm = 0;
+
+		// the largest coefficient determines the factors
+		for (int j=0; j < kh; j++) {
+			for (int i=0; i < kw; i++) {
+				norm = Math.max(norm, Math.abs(kernel[j][i]));
+				if (Math.abs(kernel[j][i]) > Math.abs(kernel[p][q])) { p = j; q = i; }
+			}
+		}
+		if (norm == 0) return null;
+
+		final double[] col = new double[kh], row = new double[kw];
+		for (int j=0; j < kh; j++) col[j] = kernel[j][q];
+		for (int i=0; i < kw; i++) row[i] = kernel[p][i]/kernel[p][q];
+		for (int j=0; j < kh; j++) {
+			for (int i=0; i < kw; i++) {
+				if (Math.abs(kernel[j][i] - col[j]*row[i]) > SeparableTolerance*norm) return null;
+			}
+		}
+		return new double[][] { col, row };
+	}
+
+	private static void checkKernel(double[][] kernel) {
+		if (kernel.length == 0 || kernel[0].length == 0) throw new IllegalArgumentException("empty kernel");
+		for (double[] row : kernel) {
+			if (row.length != kernel[0].length) throw new IllegalArgumentException("kernel rows of different length");
+		}
+	}
+
+	/**
+	 * One channel of the input image with border extension
+	 */
+	private static class Image {
+		final ImageBuffer m_buffer;
+		final int m_bytesPerPixel, m_width, m_height;
+		final Border m_border;
+
+		Image(ImageBuffer buffer, int bytesPerPixel, Border border) {
+			m_buffer = buffer;
+			m_bytesPerPixel = bytesPerPixel;
+			m_width = buffer.m_width;
+			m_height = buffer.m_height;
+			m_border = border;
+		}
+
+		/**
+		 * Maps a coordinate to the image
+		 * @param i coordinate
+		 * @param n image width or height
+		 * @return coordinate in [0, n) or -1 for zero values
+		 */
+		int map(int i, int n) {
+			if (i >= 0 && i < n) return i;
+			switch(m_border) {
+			case CLAMP:
+				return (i < 0) ? 0 : n - 1;
+			case MIRROR:
+				if (n == 1) return 0;
+				final int period = 2*(n - 1);
+				i %= period;
+				if (i < 0) i += period;
+				return (i < n) ? i : period - i;
+			default:
+				return -1;
+			}
+		}
+
+		/**
+		 * Copies the extended row v of channel c to dst
+		 * @param c byte position of the channel
+		 * @param v row, may be outside the image
+		 * @param x0 first column, may be outside the image
+		 * @param dst destination of n values
+		 * @param dstPos index of the first value in dst
+		 * @param n number of values
+		 */
+		void getRow(int c, int v, int x0, double[] dst, int dstPos, int n) {
+			final int row = map(v, m_height);
+
+			if (row < 0) {
+				Arrays.fill(dst, dstPos, dstPos + n, 0);
+			} else {
+				final int offset = m_buffer.rowOffset(row) + c;
+				final int start = Math.max(0, Math.min(n, -x0)), stop = Math.max(start, Math.min(n, m_width - x0));
+
+				for (int i=0; i < start; i++) dst[dstPos + i] = value(offset, map(x0 + i, m_width));
+				for (int i=start, pos = offset + (x0 + start)*m_bytesPerPixel; i < stop; i++, pos += m_bytesPerPixel) {
+					dst[dstPos + i] = 0xFF & m_buffer.m_data[pos];
+				}
+				for (int i=stop; i < n; i++) dst[dstPos + i] = value(offset, map(x0 + i, m_width));
+			}
+		}
+
+		private double value(int offset, int u) {
+			return (u < 0) ? 0 : 0xFF & m_buffer.m_data[offset + u*m_bytesPerPixel];
+		}
+	}
+
+	/**
+	 * Writes a row of results rounded and clamped to [0, 255]
+	 */
+	private static void setRow(ImageBuffer out, int bytesPerPixel, int c, int v, double[] src, int srcPos, int x0, int n) {
+		for (int i=0, pos = out.rowOffset(v) + x0*bytesPerPixel + c; i < n; i++, pos += bytesPerPixel) {
+			out.m_data[pos] = (byte)Math.max(0, Math.min(255, Math.round(src[srcPos + i])));
+		}
+	}
+
+	/**
+	 * Direct summation over all kernel coefficients, parallel over the output rows
+	 */
+	private static void direct(Image in, ImageBuffer out, int[] channels, double[][] kernel) {
+		final int kh = kernel.length, kw = kernel[0].length, ax = kw/2, ay = kh/2;
+		final int width = in.m_width, ew = width + kw - 1;
+
+		Parallel.For(0, in.m_height, v -> {
+			final double[] row = new double[ew], acc = new double[width];
+
+			for (int c : channels) {
+				Arrays.fill(acc, 0);
+				for (int j=0; j < kh; j++) {
+					// out(x,y) = sum k[j][i]*in(x + ax - i, y + ay - j)
+					in.getRow(c, v + ay - j, ax - kw + 1, row, 0, ew);
+					for (int i=0; i < kw; i++) {
+						final double k = kernel[j][i];
+						final int offset = kw - 1 - i;
+
+						if (k != 0) {
+							for (int u=0; u < width; u++) acc[u] += k*row[offset + u];
+						}
+					}
+				}
+				setRow(out, in.m_bytesPerPixel, c, v, acc, 0, 0, width);
+			}
+		});
+	}
+
+	/**
+	 * Row pass with the row vector followed by a column pass with the column vector
+	 */
+	private static void separable(Image in, ImageBuffer out, int[] channels, double[] col, double[] row) {
+		final int kh = col.length, kw = row.length, ax = kw/2, ay = kh/2;
+		final int width = in.m_width, height = in.m_height, ew = width + kw - 1;
+		final double[][] tmp = new double[channels.length][width*height];
+
+		// row pass
+		Parallel.For(0, height, v -> {
+			final double[] line = new double[ew];
+
+			for (int ch=0; ch < channels.length; ch++) {
+				final double[] t = tmp[ch];
+				final int offset = v*width;
+
+				in.getRow(channels[ch], v, ax - kw + 1, line, 0, ew);
+				for (int i=0; i < kw; i++) {
+					final double k = row[i];
+					final int o = kw - 1 - i;
+
+					if (k != 0) {
+						for (int u=0; u < width; u++) t[offset + u] += k*line[o + u];
+					}
+				}
+			}
+		});
+
+		// column pass: the extended rows of the intermediate image are mapped like the input rows
+		Parallel.For(0, height, v -> {
+			final double[] acc = new double[width];
+
+			for (int ch=0; ch < channels.length; ch++) {
+				final double[] t = tmp[ch];
+
+				Arrays.fill(acc, 0);
+				for (int j=0; j < kh; j++) {
+					final int r = in.map(v + ay - j, height);
+					final double k = col[j];
+
+					if (r >= 0 && k != 0) {
+						for (int u=0, i = r*width; u < width; u++, i++) acc[u] += k*t[i];
+					}
+				}
+				setRow(out, in.m_bytesPerPixel, channels[ch], v, acc, 0, 0, width);
+			}
+		});
+	}
+
+	/**
+	 * Returns the FFT tile size with the smallest estimated cost
+	 */
+	private static int tileSize(int kw, int kh, int width, int height) {
+		int best = MaxTileSize;
+
+		for (int t=MinTileSize; t <= MaxTileSize; t *= 2) {
+			if (fftCost(kw, kh, width, height, t) < fftCost(kw, kh, width, height, best)) best = t;
+		}
+		return best;
+	}
+
+	/**
+	 * Estimated cost per output pixel of tiles of size t x t: a forward and an inverse 2D FFT per pair of tiles.
+	 * Tiles at the right and bottom border are counted in full.
+	 */
+	private static double fftCost(int kw, int kh, int width, int height, int t) {
+		final int bw = t - kw + 1, bh = t - kh + 1;	// output tile size
+
+		if (bw < 1 || bh < 1) return Double.POSITIVE_INFINITY;
+		final double tiles = (double)((width + bw - 1)/bw)*((height + bh - 1)/bh);
+		final double butterflies = (double)t*t*Integer.numberOfTrailingZeros(t);	// per 2D FFT: t*t/2*log(t) butterflies per dimension
+
+		return tiles*(ButterflyCost*butterflies + TileCost*t*t)/((double)width*height);
+	}
+
+	/**
+	 * Overlap-save convolution of tiles with FFTs. Pairs of tiles are transformed as one complex array.
+	 */
+	private static void fft(Image in, ImageBuffer out, int[] channels, double[][] kernel) {
+		final int kh = kernel.length, kw = kernel[0].length, ax = kw/2, ay = kh/2;
+		final int t = tileSize(kw, kh, in.m_width, in.m_height);
+		final int bw = t - kw + 1, bh = t - kh + 1;	// output tile size
+		final int tilesX = (in.m_width + bw - 1)/bw, tilesY = (in.m_height + bh - 1)/bh;
+		final int tiles = channels.length*tilesX*tilesY;
+		final FFTPlan plan = new FFTPlan(t);
+
+		// kernel spectrum including the normalization of the inverse transform
+		final double[] kRe = new double[t*t], kIm = new double[t*t];
+		for (int j=0; j < kh; j++) {
+			for (int i=0; i < kw; i++) kRe[j*t + i] = kernel[j][i]/((double)t*t);
+		}
+		plan.transform2D(kRe, kIm, false);
+
+		Parallel.For(0, (tiles + 1)/2, pair -> {
+			final double[] re = new double[t*t], im = new double[t*t];
+			final int first = 2*pair, last = Math.min(first + 2, tiles);
+
+			// tile index: channel, tile row, tile column
+			for (int k=first; k < last; k++) {
+				final int c = channels[k/(tilesX*tilesY)], tile = k%(tilesX*tilesY);
+				final int x0 = (tile%tilesX)*bw + ax - kw + 1, y0 = (tile/tilesX)*bh + ay - kh + 1;
+				final double[] dst = (k == first) ? re : im;
+
+				for (int v=0; v < t; v++) in.getRow(c, y0 + v, x0, dst, v*t, t);
+			}
+			plan.transform2D(re, im, false);
+			for (int i=0; i < t*t; i++) {
+				final double r = re[i]*kRe[i] - im[i]*kIm[i];
+
+				im[i] = re[i]*kIm[i] + im[i]*kRe[i];
+				re[i] = r;
+			}
+			plan.transform2D(re, im, true);
+
+			// the valid part starts at (kw - 1, kh - 1)
+			for (int k=first; k < last; k++) {
+				final int c = channels[k/(tilesX*tilesY)], tile = k%(tilesX*tilesY);
+				final int u0 = (tile%tilesX)*bw, v0 = (tile/tilesX)*bh;
+				final int w = Math.min(bw, in.m_width - u0), h = Math.min(bh, in.m_height - v0);
+				final double[] src = (k == first) ? re : im;
+
+				for (int v=0; v < h; v++) setRow(out, in.m_bytesPerPixel, c, v0 + v, src, (kh - 1 + v)*t + kw - 1, u0, w);
+			}
+		});
+	}
+}
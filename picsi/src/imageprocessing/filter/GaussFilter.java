@@ -3,55 +3,234 @@ package imageprocessing.filter;
 import org.eclipse.swt.graphics.ImageData;
 
 import imageprocessing.IImageProcessor;
+import imageprocessing.ImageProcessing;
 import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
 
+/**
+ * Separable Gaussian filter with integer fixed-point taps.
+ * A row pass into a 16-bit intermediate image is followed by a column pass, both parallelized over the rows.
+ * The image border is extended by repeating the border pixels.
+ * A (2r+1)x(2r+1) kernel costs 2(r+1) multiplications per pixel and channel, because the taps are symmetric.
+ */
 public class GaussFilter implements IImageProcessor {
+    public static final int TapBits = 14;        // fixed-point precision of the taps: the taps sum up to 1 << TapBits
+    private static final int FractionBits = 8;   // fraction bits of the intermediate image
+
+    private final double m_sigma;
+    private final int m_radius;
+
+    /**
+     * Gaussian filter with sigma = 1 and radius = 3
+     */
+    public GaussFilter() {
+        this(1.0, 3);
+    }
+
+    /**
+     * Gaussian filter
+     * @param sigma standard deviation > 0
+     * @param radius kernel size is 2*radius + 1
+     */
+    public GaussFilter(double sigma, int radius) {
+        if (sigma <= 0 || radius < 0) throw new IllegalArgumentException("wrong parameters: sigma = " + sigma + ", radius = " + radius);
+        m_sigma = sigma;
+        m_radius = radius;
+    }
 
     @Override
     public boolean isEnabled(int imageType) {
-        return imageType == Picsi.IMAGE_TYPE_GRAY;
+        return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+    }
+
+    @Override
+    public Object getCacheKey() {
+        return m_sigma + ":" + m_radius;
+    }
+
+    @Override
+    public int getHalo() {
+        return m_radius;
     }
 
     @Override
     public ImageData run(ImageData inData, int imageType) {
-        var sigma = 1.0;
-        var radius = 3;
-        var kernel = new double[radius * 2 + 1][radius * 2 + 1];
+        return gauss(inData, m_sigma, m_radius);
+    }
+
+    /**
+     * Returns the default radius of a given sigma, such that the kernel covers +-3 sigma
+     * @param sigma
+     * @return
+     */
+    public static int radius(double sigma) {
+        return (int)Math.ceil(3*sigma);
+    }
+
+    /**
+     * Computes the fixed-point taps k[0..radius] of the symmetric kernel k[-radius..radius]
+     * @param sigma standard deviation > 0
+     * @param radius
+     * @return taps; k[0] + 2*(k[1] + ... + k[radius]) == 1 << TapBits
+     */
+    public static int[] kernel(double sigma, int radius) {
+        var weights = new double[radius + 1];
         var sum = 0.0;
-        for (var y = -radius; y <= radius; y++) {
-            for (var x = -radius; x <= radius; x++) {
-                var g = Math.exp(-(x * x + y * y) / (2 * sigma * sigma));
-                kernel[y + radius][x + radius] = g;
-                sum += g;
-            }
+
+        for (var i = 0; i <= radius; i++) {
+            weights[i] = Math.exp(-i * i / (2 * sigma * sigma));
+            sum += (i == 0) ? weights[i] : 2 * weights[i];
         }
 
-        for (var y = 0; y < kernel.length; y++) {
-            for (var x = 0; x < kernel[y].length; x++) {
-                kernel[y][x] /= sum;
-            }
+        var taps = new int[radius + 1];
+        var total = 0;
+
+        for (var i = radius; i > 0; i--) {
+            taps[i] = (int)Math.round(weights[i] / sum * (1 << TapBits));
+            total += 2 * taps[i];
+        }
+        // the center tap absorbs the rounding errors
+        taps[0] = (1 << TapBits) - total;
+        return taps;
+    }
+
+    /**
+     * Gaussian filter of a gray, RGB or RGBA image. Alpha values are copied.
+     * @param inData
+     * @param sigma standard deviation > 0
+     * @param radius kernel size is 2*radius + 1
+     * @return filtered image
+     */
+    public static ImageData gauss(ImageData inData, double sigma, int radius) {
+        final ImageData source;
+        final int[] channels;    // byte positions of the filtered channels inside a pixel
+        final int bytesPerPixel;
+
+        if (GrayBuffer.supports(inData)) {
+            source = inData;
+            channels = new int[] { 0 };
+            bytesPerPixel = 1;
+        } else {
+            // other direct color formats are converted to 24 bits per pixel
+            source = RgbBuffer.supports(inData) ? inData : toRGB(inData);
+            var rgb = new RgbBuffer(source);
+            channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+            bytesPerPixel = rgb.m_bytesPerPixel;
         }
 
-        var outData = (ImageData)inData.clone();
+        var outData = (ImageData)source.clone();
+        var in = new ImageBuffer(source);
+        var out = new ImageBuffer(outData);
+        var taps = kernel(sigma, radius);
         var width = inData.width;
         var height = inData.height;
-        var pixels = new int[width * height];
-        inData.getPixels(0, 0, pixels.length, pixels, 0);
-
-        for (var y = 0; y < height; y++) {
-            for (var x = 0; x < width; x++) {
-                var sumGray = 0.0;
-                for (var ky = -radius; ky <= radius; ky++) {
-                    for (var kx = -radius; kx <= radius; kx++) {
-                        var pixel = pixels[Math.min(Math.max(y + ky, 0), height - 1) * width + Math.min(Math.max(x + kx, 0), width - 1)];
-                        sumGray += pixel * kernel[ky + radius][kx + radius];
+        var tmp = new char[channels.length][width * height]; // row pass results with FractionBits fraction bits
+
+        // row pass
+        Parallel.For(0, height, y -> {
+            for (var c = 0; c < channels.length; c++) {
+                filterRow(in.m_data, in.rowOffset(y) + channels[c], bytesPerPixel, width, taps, tmp[c], y * width);
+            }
+        });
+
+        // column pass: the rows above and below are clamped once per output row
+        final int shift = TapBits + FractionBits;
+        final int rounding = 1 << (shift - 1);
+
+        Parallel.For(0, height, y -> {
+            var rows = new int[2 * radius + 1];
+            var acc = new int[width];
+
+            for (var i = -radius; i <= radius; i++) {
+                rows[i + radius] = Math.min(Math.max(y + i, 0), height - 1) * width;
+            }
+            for (var c = 0; c < channels.length; c++) {
+                final char[] t = tmp[c];
+                final int center = rows[radius];
+
+                for (var x = 0; x < width; x++) {
+                    acc[x] = taps[0] * t[center + x] + rounding;
+                }
+                for (var i = 1; i <= radius; i++) {
+                    final int k = taps[i], above = rows[radius - i], below = rows[radius + i];
+
+                    for (var x = 0; x < width; x++) {
+                        acc[x] += k * (t[above + x] + t[below + x]);
                     }
                 }
-                outData.setPixel(x, y, (int) sumGray);
+
+                var pos = out.rowOffset(y) + channels[c];
+                for (var x = 0; x < width; x++, pos += bytesPerPixel) {
+                    out.m_data[pos] = (byte)(acc[x] >>> shift);
+                }
             }
+        });
+        return outData;
+    }
+
+    /**
+     * Filters one channel of an image row
+     * @param data pixel data
+     * @param pos index of the channel of the first pixel in data
+     * @param step bytes per pixel
+     * @param width number of pixels
+     * @param taps fixed-point taps
+     * @param dst output values with FractionBits fraction bits
+     * @param dstPos index of the first output value in dst
+     */
+    private static void filterRow(byte[] data, int pos, int step, int width, int[] taps, char[] dst, int dstPos) {
+        final int radius = taps.length - 1;
+        final int shift = TapBits - FractionBits;
+        final int rounding = 1 << (shift - 1);
+        final int start = Math.min(radius, width), stop = Math.max(start, width - radius);
+
+        // left and right border: clamped coordinates
+        for (var x = 0; x < start; x++) {
+            dst[dstPos + x] = (char)(borderSum(data, pos, step, width, taps, x) + rounding >>> shift);
         }
+        for (var x = stop; x < width; x++) {
+            dst[dstPos + x] = (char)(borderSum(data, pos, step, width, taps, x) + rounding >>> shift);
+        }
+
+        // interior: no clamping
+        for (var x = start; x < stop; x++) {
+            final int p = pos + x * step;
+            var sum = taps[0] * (0xFF & data[p]) + rounding;
+
+            for (int i = 1, d = step; i <= radius; i++, d += step) {
+                sum += taps[i] * ((0xFF & data[p - d]) + (0xFF & data[p + d]));
+            }
+            dst[dstPos + x] = (char)(sum >>> shift);
+        }
+    }
 
+    private static int borderSum(byte[] data, int pos, int step, int width, int[] taps, int x) {
+        var sum = taps[0] * (0xFF & data[pos + x * step]);
+
+        for (var i = 1; i < taps.length; i++) {
+            final int left = Math.max(x - i, 0), right = Math.min(x + i, width - 1);
+            sum += taps[i] * ((0xFF & data[pos + left * step]) + (0xFF & data[pos + right * step]));
+        }
+        return sum;
+    }
+
+    /**
+     * Copies a direct color image of any layout into a 24-bit RGB image
+     * @param inData
+     * @return
+     */
+    static ImageData toRGB(ImageData inData) {
+        var outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_RGB);
+
+        Parallel.For(0, inData.height, y -> {
+            for (var x = 0; x < inData.width; x++) {
+                outData.setPixel(x, y, outData.palette.getPixel(inData.palette.getRGB(inData.getPixel(x, y))));
+            }
+        });
+        outData.alphaData = inData.alphaData;
         return outData;
     }
-    
 }
@@ -0,0 +1,320 @@
+package imageprocessing.filter;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+
+import gui.OptionPane;
+import imageprocessing.IImageProcessor;
+import imageprocessing.binary.MorphologicFilter;
+import imageprocessing.binary.StructureDecomposition;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * Grayscale morphology of 8-bit channels with the structures of MorphologicFilter: erosion is the minimum, dilation the maximum
+ * of the channel values hit by the structure. Color channels are processed separately, alpha values are copied.
+ * Pixels outside of the image are ignored.
+ * Small structures are processed row by row: every structure element combines a shifted input row with the output row.
+ * Point-symmetric structures are decomposed into lines (see StructureDecomposition) if this is faster.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class GrayMorphologicFilter implements IImageProcessor {
+	public static String[] s_operations = { "Erosion", "Dilation", "Opening", "Closing", "White Top-Hat", "Black Top-Hat", "Gradient" };
+	public static final double ElementCost = 2;	// run time of the row by row processing per pixel, channel and structure element in ns
+
+	private final int m_operation;		// index in s_operations; -1: operation and structure are asked for in run
+	private final boolean[][] m_struct;
+	private final int m_cx, m_cy;
+	private final StructureDecomposition m_approximation;
+
+	/**
+	 * Grayscale morphology with interactive input of operation and structure
+	 */
+	public GrayMorphologicFilter() {
+		m_operation = -1;
+		m_struct = null;
+		m_cx = m_cy = 0;
+		m_approximation = null;
+	}
+
+	/**
+	 * Grayscale morphology
+	 * @param operation index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 */
+	public GrayMorphologicFilter(int operation, boolean[][] struct, int cx, int cy) {
+		this(operation, struct, cx, cy, null);
+	}
+
+	/**
+	 * Grayscale morphology with an approximate decomposition of the structure
+	 * @param operation index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @param approximation decomposition used instead of struct if it is faster, e.g. StructureDecomposition.disk, or null
+	 */
+	public GrayMorphologicFilter(int operation, boolean[][] struct, int cx, int cy, StructureDecomposition approximation) {
+		if (operation < 0 || operation >= s_operations.length) throw new IllegalArgumentException("unknown operation: " + operation);
+		m_operation = operation;
+		m_struct = struct;
+		m_cx = cx;
+		m_cy = cy;
+		m_approximation = approximation;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+	}
+
+	@Override
+	public int getHalo() {
+		if (m_operation < 0) return -1;
+
+		final int halo = Math.max(0, Math.max(m_cy, m_struct.length - 1 - m_cy));
+		return (m_operation == 0 || m_operation == 1 || m_operation == 6) ? halo : 2*halo;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		if (m_operation >= 0) return morph(inData, m_operation, m_struct, m_cx, m_cy, m_approximation);
+
+		int ch = OptionPane.showOptionDialog("Morphological Operation", SWT.ICON_INFORMATION, s_operations, 0);
+		if (ch < 0) return null;
+
+		int s = OptionPane.showOptionDialog("Structure", SWT.ICON_INFORMATION, MorphologicFilter.s_structures, 2);
+		if (s < 0) return null;
+
+		final int c = MorphologicFilter.origin(s);
+		return morph(inData, ch, MorphologicFilter.structure(s), c, c);
+	}
+
+	/**
+	 * Applies a morphological operation to a gray, RGB or RGBA image
+	 * @param inData
+	 * @param ch operation: index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new image
+	 */
+	public static ImageData morph(ImageData inData, int ch, boolean[][] struct, int cx, int cy) {
+		return morph(inData, ch, struct, cx, cy, null);
+	}
+
+	/**
+	 * Applies a morphological operation to a gray, RGB or RGBA image
+	 * @param inData
+	 * @param ch operation: index in s_operations
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @param approximation decomposition used instead of struct if it is faster, or null: only exact decompositions are used
+	 * @return new image
+	 */
+	public static ImageData morph(ImageData inData, int ch, boolean[][] struct, int cx, int cy, StructureDecomposition approximation) {
+		final StructureDecomposition d = StructureDecomposition.decompose(struct, cx, cy, approximation, ElementCost, 0);
+		// other direct color formats are converted to 24 bits per pixel
+		final ImageData source = (GrayBuffer.supports(inData) || RgbBuffer.supports(inData)) ? inData : GaussFilter.toRGB(inData);
+		final Channels in = new Channels(source);
+
+		switch(ch) {
+		case 0: return in.morph(struct, cx, cy, d, false, false);
+		case 1: return in.morph(struct, cx, cy, d, true, false);
+		case 2: return in.morph(struct, cx, cy, d, false, true);
+		case 3: return in.morph(struct, cx, cy, d, true, true);
+		case 4: return in.difference(source, in.morph(struct, cx, cy, d, false, true));
+		case 5: return in.difference(in.morph(struct, cx, cy, d, true, true), source);
+		case 6: return in.difference(in.morph(struct, cx, cy, d, true, false), in.morph(struct, cx, cy, d, false, false));
+		}
+		return null;
+	}
+
+	/**
+	 * Erosion
+	 * @param inData gray, RGB or RGBA image
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new eroded image
+	 */
+	public static ImageData erosion(ImageData inData, boolean[][] struct, int cx, int cy) {
+		return morph(inData, 0, struct, cx, cy);
+	}
+
+	/**
+	 * Dilation
+	 * @param inData gray, RGB or RGBA image
+	 * @param struct all true elements belong to the structure
+	 * @param cx origin of the structure (hotspot)
+	 * @param cy origin of the structure (hotspot)
+	 * @return new dilated image
+	 */
+	public static ImageData dilation(ImageData inData, boolean[][] struct, int cx, int cy) {
+		return morph(inData, 1, struct, cx, cy);
+	}
+
+	/**
+	 * Source image and the byte positions of its 8-bit channels
+	 */
+	private static class Channels {
+		private final ImageData m_source;
+		private final int m_width, m_height;
+		private final int m_bytesPerPixel;
+		private final int[] m_channels;		// byte positions of the processed channels inside a pixel
+
+		Channels(ImageData imageData) {
+			m_source = imageData;
+			m_width = imageData.width;
+			m_height = imageData.height;
+			if (GrayBuffer.supports(imageData)) {
+				m_bytesPerPixel = 1;
+				m_channels = new int[] { 0 };
+			} else {
+				final RgbBuffer rgb = new RgbBuffer(imageData);
+				m_bytesPerPixel = rgb.m_bytesPerPixel;
+				m_channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+			}
+		}
+
+		/**
+		 * Erosion, dilation, opening or closing of all channels of the source image.
+		 * Opening and closing apply the reflected structure in the second operation.
+		 * @param d decomposition of the structure or null: the structure elements are processed row by row
+		 * @param max true: dilation first, false: erosion first
+		 * @param twice true: opening or closing
+		 * @return new image
+		 */
+		ImageData morph(boolean[][] struct, int cx, int cy, StructureDecomposition d, boolean max, boolean twice) {
+			final ImageData outData = (ImageData)m_source.clone();
+
+			if (d != null) {
+				// channel planes processed by lines
+				final ImageBuffer out = new ImageBuffer(outData);
+				final byte[] plane = new byte[m_width*m_height];
+
+				for (int c : m_channels) {
+					copyChannel(out, c, plane, true);
+					d.morph(plane, m_width, m_height, max, twice, 255);
+					copyChannel(out, c, plane, false);
+				}
+				return outData;
+			}
+
+			// offsets of the structure elements
+			int n = 0;
+			for (boolean[] row : struct) for (boolean b : row) if (b) n++;
+
+			final int[] dx = new int[n], dy = new int[n];
+			for (int j=0, k=0; j < struct.length; j++) {
+				for (int i=0; i < struct[j].length; i++) {
+					if (struct[j][i]) {
+						dx[k] = i - cx;
+						dy[k] = j - cy;
+						k++;
+					}
+				}
+			}
+
+			filter(new ImageBuffer(m_source), new ImageBuffer(outData), dx, dy, max);
+			if (twice) {
+				// the second operation uses the reflected structure
+				final ImageData tmpData = (ImageData)outData.clone();
+				for (int k=0; k < n; k++) {
+					dx[k] = -dx[k];
+					dy[k] = -dy[k];
+				}
+				filter(new ImageBuffer(tmpData), new ImageBuffer(outData), dx, dy, !max);
+			}
+			return outData;
+		}
+
+		/**
+		 * Returns a - b of all channels, clamped at 0
+		 * @param a image with the pixel layout of this
+		 * @param b image with the pixel layout of this
+		 * @return new image
+		 */
+		ImageData difference(ImageData a, ImageData b) {
+			final ImageData outData = (ImageData)a.clone();
+			final ImageBuffer in = new ImageBuffer(b), out = new ImageBuffer(outData);
+
+			Parallel.For(0, m_height, v -> {
+				final int offset = out.rowOffset(v), end = offset + m_width*m_bytesPerPixel;
+
+				for (int c : m_channels) {
+					for (int pos=offset + c; pos < end; pos += m_bytesPerPixel) {
+						out.m_data[pos] = (byte)Math.max(0, (0xFF & out.m_data[pos]) - (0xFF & in.m_data[pos]));
+					}
+				}
+			});
+			return outData;
+		}
+
+		/**
+		 * Minimum or maximum of the input pixels (u + dx[k], v + dy[k]) of all channels.
+		 * Each row of the output is initialized and then combined with one shifted input row per structure element.
+		 * @param in input image
+		 * @param out output image with the same pixel layout
+		 * @param dx horizontal offsets of the structure elements
+		 * @param dy vertical offsets of the structure elements
+		 * @param max true: maximum (dilation), false: minimum (erosion)
+		 */
+		private void filter(ImageBuffer in, ImageBuffer out, int[] dx, int[] dy, boolean max) {
+			final int bpp = m_bytesPerPixel;
+			final byte init = (max) ? 0 : (byte)255;
+
+			Parallel.For(0, m_height, v -> {
+				final int offset = out.rowOffset(v);
+
+				for (int c : m_channels) {
+					for (int pos=offset + c; pos < offset + m_width*bpp; pos += bpp) out.m_data[pos] = init;
+
+					for (int k=0; k < dx.length; k++) {
+						final int y = v + dy[k];
+						if (y < 0 || y >= m_height) continue;	// outside of the image
+
+						// columns u with u + dx[k] inside of the image
+						final int u0 = Math.max(0, -dx[k]), u1 = Math.min(m_width, m_width - dx[k]);
+						final int delta = in.rowOffset(y) - offset + dx[k]*bpp;
+						final int end = offset + c + u1*bpp;
+
+						if (max) {
+							for (int pos=offset + c + u0*bpp; pos < end; pos += bpp) {
+								out.m_data[pos] = (byte)Math.max(0xFF & out.m_data[pos], 0xFF & in.m_data[pos + delta]);
+							}
+						} else {
+							for (int pos=offset + c + u0*bpp; pos < end; pos += bpp) {
+								out.m_data[pos] = (byte)Math.min(0xFF & out.m_data[pos], 0xFF & in.m_data[pos + delta]);
+							}
+						}
+					}
+				}
+			});
+		}
+
+		/**
+		 * Copies one channel between an image and a plane
+		 * @param image
+		 * @param c byte position of the channel
+		 * @param plane width*height values
+		 * @param toPlane true: image to plane, false: plane to image
+		 */
+		private void copyChannel(ImageBuffer image, int c, byte[] plane, boolean toPlane) {
+			Parallel.For(0, m_height, v -> {
+				for (int u=0, pos=image.rowOffset(v) + c; u < m_width; u++, pos += m_bytesPerPixel) {
+					if (toPlane) plane[v*m_width + u] = image.m_data[pos];
+					else image.m_data[pos] = plane[v*m_width + u];
+				}
+			});
+		}
+	}
+}
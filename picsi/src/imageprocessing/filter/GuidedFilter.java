@@ -0,0 +1,185 @@
+package imageprocessing.filter;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import gui.OptionPane;
+import imageprocessing.IImageProcessor;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * Edge-preserving smoothing with the guided filter of He, Sun and Tang, where each channel guides itself.
+ * In every window the output is a linear function a*I + b of the input, where a = var/(var + eps) is close to 0 in flat areas
+ * and close to 1 at edges. The coefficients are averaged over all windows containing a pixel.
+ * The filter consists of four box filters, therefore the cost per pixel doesn't depend on the radius.
+ * The box filters use prefix sums and run in parallel over the rows and over blocks of adjacent columns.
+ * Windows are clipped at the image border.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class GuidedFilter implements IImageProcessor {
+	private static final int BlockWidth = 64;	// number of columns filtered together in the column pass
+
+	private final int m_radius;		// 0: radius and epsilon are asked for in run
+	private final double m_eps;
+
+	/**
+	 * Guided filter with interactive input of radius and epsilon
+	 */
+	public GuidedFilter() {
+		m_radius = 0;
+		m_eps = 0;
+	}
+
+	/**
+	 * Guided filter
+	 * @param radius window size is (2*radius + 1)x(2*radius + 1)
+	 * @param eps regularization in squared intensity units: edges with a variance much smaller than eps are smoothed
+	 */
+	public GuidedFilter(int radius, double eps) {
+		if (radius <= 0 || eps <= 0) throw new IllegalArgumentException("wrong parameters: radius = " + radius + ", eps = " + eps);
+		m_radius = radius;
+		m_eps = eps;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+	}
+
+	@Override
+	public Object getCacheKey() {
+		return (m_radius == 0) ? null : m_radius + ":" + m_eps;
+	}
+
+	@Override
+	public int getHalo() {
+		// the coefficients of a pixel depend on the windows of all pixels in its window
+		return (m_radius == 0) ? -1 : 2*m_radius;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		int radius = m_radius;
+		double eps = m_eps;
+
+		if (radius == 0) {
+			Integer r = OptionPane.showIntegerDialog("Radius", 8);
+			if (r == null || r <= 0) return null;
+			Double e = OptionPane.showDoubleDialog("Epsilon in squared intensity levels", 400);
+			if (e == null || e <= 0) return null;
+			radius = r;
+			eps = e;
+		}
+		return guided(inData, radius, eps);
+	}
+
+	/**
+	 * Guided filter of a gray, RGB or RGBA image. Alpha values are copied.
+	 * @param inData
+	 * @param radius window size is (2*radius + 1)x(2*radius + 1)
+	 * @param eps regularization in squared intensity units
+	 * @return filtered image
+	 */
+	public static ImageData guided(ImageData inData, int radius, double eps) {
+		final ImageData source;
+		final int[] channels;	// byte positions of the filtered channels inside a pixel
+		final int bytesPerPixel;
+
+		if (GrayBuffer.supports(inData)) {
+			source = inData;
+			channels = new int[] { 0 };
+			bytesPerPixel = 1;
+		} else {
+			// other direct color formats are converted to 24 bits per pixel
+			source = RgbBuffer.supports(inData) ? inData : GaussFilter.toRGB(inData);
+			final RgbBuffer rgb = new RgbBuffer(source);
+			channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+			bytesPerPixel = rgb.m_bytesPerPixel;
+		}
+
+		final ImageData outData = (ImageData)source.clone();
+		final ImageBuffer in = new ImageBuffer(source), out = new ImageBuffer(outData);
+		final int width = inData.width, height = inData.height;
+		final float[] mean = new float[width*height], sq = new float[width*height];	// reused for the coefficients b and a
+
+		for (int c : channels) {
+			// window means of I and I^2
+			Parallel.For(0, height, v -> {
+				for (int u=0, i = v*width, pos = in.rowOffset(v) + c; u < width; u++, i++, pos += bytesPerPixel) {
+					final int val = 0xFF & in.m_data[pos];
+
+					mean[i] = val;
+					sq[i] = val*val;
+				}
+			});
+			box(mean, width, height, radius);
+			box(sq, width, height, radius);
+
+			// coefficients a and b per window
+			Parallel.For(0, height, v -> {
+				for (int i=v*width; i < (v + 1)*width; i++) {
+					final float m = mean[i];
+					final float var = Math.max(0, sq[i] - m*m);
+					final float a = (float)(var/(var + eps));
+
+					sq[i] = a;
+					mean[i] = (1 - a)*m;
+				}
+			});
+
+			// averaged coefficients of all windows containing a pixel
+			box(sq, width, height, radius);
+			box(mean, width, height, radius);
+			Parallel.For(0, height, v -> {
+				for (int u=0, i = v*width, pos = out.rowOffset(v) + c; u < width; u++, i++, pos += bytesPerPixel) {
+					final float q = sq[i]*(0xFF & in.m_data[pos]) + mean[i];
+
+					out.m_data[pos] = (byte)Math.max(0, Math.min(255, Math.round(q)));
+				}
+			});
+		}
+		return outData;
+	}
+
+	/**
+	 * Box filter in place: each value is replaced by the mean of its window clipped to the image
+	 * @param data width*height values
+	 * @param width
+	 * @param height
+	 * @param radius window size is (2*radius + 1)x(2*radius + 1)
+	 */
+	public static void box(float[] data, int width, int height, int radius) {
+		// row pass
+		Parallel.For(0, height, v -> {
+			final double[] prefix = new double[width + 1];
+			final int offset = v*width;
+
+			for (int u=0; u < width; u++) prefix[u + 1] = prefix[u] + data[offset + u];
+			for (int u=0; u < width; u++) {
+				final int lo = Math.max(0, u - radius), hi = Math.min(width, u + radius + 1);
+				data[offset + u] = (float)((prefix[hi] - prefix[lo])/(hi - lo));
+			}
+		});
+
+		// column pass: blocks of adjacent columns, the prefix sums of a block are stored row by row
+		Parallel.For(0, width, BlockWidth, u0 -> {
+			final int bw = Math.min(BlockWidth, width - u0);
+			final double[] prefix = new double[(height + 1)*bw];
+
+			for (int v=0; v < height; v++) {
+				for (int j=0, i = v*width + u0; j < bw; j++, i++) prefix[(v + 1)*bw + j] = prefix[v*bw + j] + data[i];
+			}
+			for (int v=0; v < height; v++) {
+				final int lo = Math.max(0, v - radius)*bw, hi = Math.min(height, v + radius + 1)*bw;
+				final double n = (hi - lo)/bw;
+
+				for (int j=0, i = v*width + u0; j < bw; j++, i++) data[i] = (float)((prefix[hi + j] - prefix[lo + j])/n);
+			}
+		});
+	}
+}
@@ -4,41 +4,206 @@ import org.eclipse.swt.graphics.ImageData;
 
 import imageprocessing.IImageProcessor;
 import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
 
+/**
+ * Median filter of a (2r+1)x(2r+1) window. Color channels are filtered separately.
+ * 3x3 and 5x5 windows use branch-free sorting networks: the columns of the window are sorted once per row
+ * and reused by the neighbouring pixels. Larger windows use the constant-time RankFilter.
+ * The image border is extended by repeating the border pixels.
+ */
 public class MedianFilter implements IImageProcessor {
+    public static final int MaxNetworkRadius = 2;    // larger radii use RankFilter
+
+    private final int m_radius;
+
+    /**
+     * 3x3 median filter
+     */
+    public MedianFilter() {
+        this(1);
+    }
+
+    /**
+     * Median filter
+     * @param radius window size is (2*radius + 1)x(2*radius + 1)
+     */
+    public MedianFilter(int radius) {
+        if (radius <= 0) throw new IllegalArgumentException("radius must be positive: " + radius);
+        m_radius = radius;
+    }
 
     @Override
     public boolean isEnabled(int imageType) {
-        return imageType == Picsi.IMAGE_TYPE_GRAY;
+        return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+    }
+
+    @Override
+    public Object getCacheKey() {
+        return m_radius;
+    }
+
+    @Override
+    public int getHalo() {
+        return m_radius;
     }
 
     @Override
     public ImageData run(ImageData inData, int imageType) {
-        var radius = 1;
+        return (m_radius <= MaxNetworkRadius) ? median(inData, m_radius) : RankFilter.rank(inData, m_radius, 50);
+    }
+
+    /**
+     * 3x3 or 5x5 median filter of a gray, RGB or RGBA image with sorting networks. Alpha values are copied.
+     * @param inData
+     * @param radius 1 or 2
+     * @return filtered image
+     */
+    public static ImageData median(ImageData inData, int radius) {
+        if (radius < 1 || radius > MaxNetworkRadius) throw new IllegalArgumentException("radius must be 1 or 2: " + radius);
+
+        final ImageData source;
+        final int[] channels;    // byte positions of the filtered channels inside a pixel
+        final int bytesPerPixel;
 
-        var outData = (ImageData)inData.clone();
+        if (GrayBuffer.supports(inData)) {
+            source = inData;
+            channels = new int[] { 0 };
+            bytesPerPixel = 1;
+        } else {
+            // other direct color formats are converted to 24 bits per pixel
+            source = RgbBuffer.supports(inData) ? inData : GaussFilter.toRGB(inData);
+            var rgb = new RgbBuffer(source);
+            channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+            bytesPerPixel = rgb.m_bytesPerPixel;
+        }
+
+        var outData = (ImageData)source.clone();
+        var in = new ImageBuffer(source);
+        var out = new ImageBuffer(outData);
         var width = inData.width;
         var height = inData.height;
-        var pixels = new int[width * height];
-        inData.getPixels(0, 0, pixels.length, pixels, 0);
-
-        var grays = new int[(radius * 2 + 1) * (radius * 2 + 1)];
-
-        for (var y = 0; y < height; y++) {
-            for (var x = 0; x < width; x++) {
-                var count = 0;
-                for (var ky = -radius; ky <= radius; ky++) {
-                    for (var kx = -radius; kx <= radius; kx++) {
-                        var pixel = pixels[Math.min(Math.max(y + ky, 0), height - 1) * width + Math.min(Math.max(x + kx, 0), width - 1)];
-                        grays[count++] = pixel;
+        var size = 2 * radius + 1;
+
+        Parallel.For(0, height, y -> {
+            var rows = new int[size];
+            var cols = new int[size][width + 2 * radius];    // sorted columns x - radius, cols[k] contains the k-th smallest values
+            var w = new int[size * size];
+
+            for (var k = 0; k < size; k++) {
+                rows[k] = in.rowOffset(Math.min(Math.max(y - radius + k, 0), height - 1));
+            }
+            for (var c : channels) {
+                // sort the columns of the window rows
+                for (var x = -radius; x < width + radius; x++) {
+                    final int p = Math.min(Math.max(x, 0), width - 1) * bytesPerPixel + c;
+
+                    for (var k = 0; k < size; k++) w[k] = 0xFF & in.m_data[rows[k] + p];
+                    if (size == 3) sort3(w, 0); else sort5(w, 0);
+                    for (var k = 0; k < size; k++) cols[k][x + radius] = w[k];
+                }
+
+                var pos = out.rowOffset(y) + c;
+                if (size == 3) {
+                    for (var x = 0; x < width; x++, pos += bytesPerPixel) {
+                        out.m_data[pos] = (byte)median3x3(cols, x);
+                    }
+                } else {
+                    for (var x = 0; x < width; x++, pos += bytesPerPixel) {
+                        out.m_data[pos] = (byte)median5x5(cols, x, w);
                     }
                 }
-                java.util.Arrays.sort(grays, 0, count);
-                outData.setPixel(x, y, grays[count / 2]);
             }
+        });
+        return outData;
+    }
+
+    /**
+     * Median of three sorted columns: the median of the maximum of the minima, the median of the medians and the minimum of the maxima
+     * @param cols sorted columns
+     * @param x index of the first column
+     * @return
+     */
+    private static int median3x3(int[][] cols, int x) {
+        final int[] lo = cols[0], mid = cols[1], hi = cols[2];
+
+        return med3(
+            Math.max(Math.max(lo[x], lo[x + 1]), lo[x + 2]),
+            med3(mid[x], mid[x + 1], mid[x + 2]),
+            Math.min(Math.min(hi[x], hi[x + 1]), hi[x + 2]));
+    }
+
+    /**
+     * Median of five sorted columns. After sorting the rows of the window, the median is the median of
+     * the maximum of the anti-diagonal above the center, the median of the center anti-diagonal and the minimum of the anti-diagonal below the center.
+     * @param cols sorted columns
+     * @param x index of the first column
+     * @param w work array of 25 values: w[5*k + j] is the j-th smallest k-th smallest column value
+     * @return
+     */
+    private static int median5x5(int[][] cols, int x, int[] w) {
+        for (var k = 0; k < 5; k++) {
+            final int[] col = cols[k];
+            final int o = 5 * k;
+
+            w[o] = col[x]; w[o + 1] = col[x + 1]; w[o + 2] = col[x + 2]; w[o + 3] = col[x + 3]; w[o + 4] = col[x + 4];
+            sort5(w, o);
         }
 
-        return outData;
+        final int above = Math.max(Math.max(w[3], w[7]), Math.max(w[11], w[15]));
+        final int below = Math.min(Math.min(w[9], w[13]), Math.min(w[17], w[21]));
+        return med3(above, med5(w, 4, 8, 12, 16, 20), below);
+    }
+
+    private static int med3(int a, int b, int c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
     }
-    
+
+    /**
+     * Median of five values with 7 compare-exchange operations; the values are partially reordered
+     * @param v values
+     * @param a index of the first value
+     * @param b index of the second value
+     * @param c index of the third value
+     * @param d index of the fourth value
+     * @param e index of the fifth value
+     * @return
+     */
+    private static int med5(int[] v, int a, int b, int c, int d, int e) {
+        sort(v, a, b); sort(v, d, e); sort(v, a, d); sort(v, b, e);
+        sort(v, b, c); sort(v, c, d); sort(v, b, c);
+        return v[c];
+    }
+
+    private static void sort3(int[] v, int o) {
+        sort(v, o, o + 1); sort(v, o + 1, o + 2); sort(v, o, o + 1);
+    }
+
+    /**
+     * Sorts five values with 9 compare-exchange operations
+     * @param v values
+     * @param o index of the first value
+     */
+    private static void sort5(int[] v, int o) {
+        sort(v, o, o + 1); sort(v, o + 3, o + 4); sort(v, o + 2, o + 4);
+        sort(v, o + 2, o + 3); sort(v, o, o + 3); sort(v, o, o + 2);
+        sort(v, o + 1, o + 4); sort(v, o + 1, o + 3); sort(v, o + 1, o + 2);
+    }
+
+    /**
+     * Compare-exchange without branches
+     * @param v values
+     * @param i index of the smaller value after the operation
+     * @param j index of the larger value after the operation
+     */
+    private static void sort(int[] v, int i, int j) {
+        final int a = v[i], b = v[j];
+
+        v[i] = Math.min(a, b);
+        v[j] = Math.max(a, b);
+    }
+
 }
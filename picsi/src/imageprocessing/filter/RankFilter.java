@@ -0,0 +1,250 @@
+package imageprocessing.filter;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import gui.OptionPane;
+import imageprocessing.IImageProcessor;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * Constant-time rank filter (median, minimum, maximum or any percentile) of 8-bit channels
+ * with the column histograms of Perreault and Hebert.
+ * Each column keeps a histogram of its 2r+1 pixels in the window; moving down one row changes two entries per column.
+ * The window histogram is the sum of 2r+1 column histograms; moving right adds one and subtracts one column histogram.
+ * Histograms have 16 coarse and 256 fine bins. The coarse window histogram is updated for every pixel,
+ * the fine window histogram only in the 16 bins of the coarse bin containing the rank, and only when it is needed.
+ * Therefore the cost per pixel doesn't depend on the radius.
+ * The image is processed in parallel strips of rows; the border is extended by repeating the border pixels.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class RankFilter implements IImageProcessor {
+	private static final int Coarse = 16;		// number of coarse bins
+	private static final int Fine = 256;		// number of fine bins
+	private static final int MinStripHeight = 32;
+
+	private final int m_radius;				// 0: radius and percentile are asked for in run
+	private final double m_percentile;
+
+	/**
+	 * Rank filter with interactive input of radius and percentile
+	 */
+	public RankFilter() {
+		m_radius = 0;
+		m_percentile = 50;
+	}
+
+	/**
+	 * Rank filter
+	 * @param radius window size is (2*radius + 1)x(2*radius + 1)
+	 * @param percentile 0 = minimum, 50 = median, 100 = maximum
+	 */
+	public RankFilter(int radius, double percentile) {
+		if (radius <= 0 || percentile < 0 || percentile > 100) throw new IllegalArgumentException("wrong parameters: radius = " + radius + ", percentile = " + percentile);
+		m_radius = radius;
+		m_percentile = percentile;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+	}
+
+	@Override
+	public Object getCacheKey() {
+		return (m_radius == 0) ? null : m_radius + ":" + m_percentile;
+	}
+
+	@Override
+	public int getHalo() {
+		return (m_radius == 0) ? -1 : m_radius;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		int radius = m_radius;
+		double percentile = m_percentile;
+
+		if (radius == 0) {
+			Integer r = OptionPane.showIntegerDialog("Radius", 3);
+			if (r == null || r <= 0) return null;
+			Double p = OptionPane.showDoubleDialog("Percentile: 0 = minimum, 50 = median, 100 = maximum", 50);
+			if (p == null) return null;
+			radius = r;
+			percentile = Math.max(0, Math.min(100, p));
+		}
+		return rank(inData, radius, percentile);
+	}
+
+	/**
+	 * Rank filter of a gray, RGB or RGBA image. Color channels are filtered separately, alpha values are copied.
+	 * @param inData
+	 * @param radius window size is (2*radius + 1)x(2*radius + 1)
+	 * @param percentile 0 = minimum, 50 = median, 100 = maximum
+	 * @return filtered image
+	 */
+	public static ImageData rank(ImageData inData, int radius, double percentile) {
+		final ImageData source;
+		final int[] channels;	// byte positions of the filtered channels inside a pixel
+		final int bytesPerPixel;
+
+		if (GrayBuffer.supports(inData)) {
+			source = inData;
+			channels = new int[] { 0 };
+			bytesPerPixel = 1;
+		} else {
+			// other direct color formats are converted to 24 bits per pixel
+			source = RgbBuffer.supports(inData) ? inData : GaussFilter.toRGB(inData);
+			final RgbBuffer rgb = new RgbBuffer(source);
+			channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+			bytesPerPixel = rgb.m_bytesPerPixel;
+		}
+
+		final ImageData outData = (ImageData)source.clone();
+		final ImageBuffer in = new ImageBuffer(source), out = new ImageBuffer(outData);
+		final int size = 2*radius + 1;
+		final int rank = (int)Math.round(percentile/100*(size*size - 1)); // 0-based rank in the sorted window
+		final int stripHeight = Math.max(MinStripHeight, (inData.height + 4*Parallel.getParallelism() - 1)/(4*Parallel.getParallelism()));
+
+		Parallel.For(0, inData.height, stripHeight, v0 -> {
+			final Strip strip = new Strip(in, out, bytesPerPixel, radius, rank);
+
+			for (int c : channels) {
+				strip.filter(c, v0, Math.min(v0 + stripHeight, inData.height));
+			}
+		});
+		return outData;
+	}
+
+	/**
+	 * Column and window histograms of one strip
+	 */
+	private static class Strip {
+		private final ImageBuffer m_in, m_out;
+		private final int m_bytesPerPixel, m_radius, m_rank, m_width, m_height;
+		private final int[] m_colFine, m_colCoarse;	// column histograms: m_width x Fine and m_width x Coarse bins
+		private final int[] m_fine = new int[Fine];	// window histogram
+		private final int[] m_coarse = new int[Coarse];
+		private final int[] m_fineX = new int[Coarse];	// column of the window for which the fine bins of a coarse bin are valid
+
+		Strip(ImageBuffer in, ImageBuffer out, int bytesPerPixel, int radius, int rank) {
+			m_in = in;
+			m_out = out;
+			m_bytesPerPixel = bytesPerPixel;
+			m_radius = radius;
+			m_rank = rank;
+			m_width = in.m_width;
+			m_height = in.m_height;
+			m_colFine = new int[m_width*Fine];
+			m_colCoarse = new int[m_width*Coarse];
+		}
+
+		/**
+		 * Filters one channel of the rows [v0, v1)
+		 * @param c byte position of the channel
+		 * @param v0 first row
+		 * @param v1 end row
+		 */
+		void filter(int c, int v0, int v1) {
+			// column histograms of the window rows of v0
+			Arrays.fill(m_colFine, 0);
+			Arrays.fill(m_colCoarse, 0);
+			for (int j=v0 - m_radius; j <= v0 + m_radius; j++) {
+				updateColumns(c, clampRow(j), 1);
+			}
+
+			for (int v=v0; v < v1; v++) {
+				if (v > v0) {
+					// move the column histograms down
+					updateColumns(c, clampRow(v - 1 - m_radius), -1);
+					updateColumns(c, clampRow(v + m_radius), 1);
+				}
+				filterRow(c, v);
+			}
+		}
+
+		private void filterRow(int c, int v) {
+			final int r = m_radius;
+
+			// coarse window histogram of column 0, fine bins are computed on demand
+			Arrays.fill(m_coarse, 0);
+			Arrays.fill(m_fineX, -2*r - 2);	// far enough left to be recomputed
+			for (int j=-r; j <= r; j++) {
+				final int col = clampCol(j)*Coarse;
+				for (int i=0; i < Coarse; i++) m_coarse[i] += m_colCoarse[col + i];
+			}
+
+			for (int u=0, pos = m_out.rowOffset(v) + c; u < m_width; u++, pos += m_bytesPerPixel) {
+				if (u > 0) {
+					final int add = clampCol(u + r)*Coarse, sub = clampCol(u - 1 - r)*Coarse;
+					for (int i=0; i < Coarse; i++) m_coarse[i] += m_colCoarse[add + i] - m_colCoarse[sub + i];
+				}
+
+				// coarse bin containing the rank
+				int s = 0, count = 0;
+				while (count + m_coarse[s] <= m_rank) count += m_coarse[s++];
+
+				// fine bins of the coarse bin
+				updateFine(s, u);
+				int b = s*Coarse;
+				while (count + m_fine[b] <= m_rank) count += m_fine[b++];
+				m_out.m_data[pos] = (byte)b;
+			}
+		}
+
+		/**
+		 * Brings the fine bins of coarse bin s to the window of column u
+		 * @param s coarse bin
+		 * @param u window column
+		 */
+		private void updateFine(int s, int u) {
+			final int r = m_radius, offset = s*Coarse;
+			final int last = m_fineX[s];
+
+			if (u - last > 2*r + 1) {
+				// recompute from the column histograms
+				Arrays.fill(m_fine, offset, offset + Coarse, 0);
+				for (int j=u - r; j <= u + r; j++) {
+					final int col = clampCol(j)*Fine + offset;
+					for (int i=0; i < Coarse; i++) m_fine[offset + i] += m_colFine[col + i];
+				}
+			} else {
+				// slide from column last to u
+				for (int x=last + 1; x <= u; x++) {
+					final int add = clampCol(x + r)*Fine + offset, sub = clampCol(x - 1 - r)*Fine + offset;
+					for (int i=0; i < Coarse; i++) m_fine[offset + i] += m_colFine[add + i] - m_colFine[sub + i];
+				}
+			}
+			m_fineX[s] = u;
+		}
+
+		/**
+		 * Adds or removes the pixels of one image row to or from all column histograms
+		 * @param c byte position of the channel
+		 * @param v image row
+		 * @param delta 1 or -1
+		 */
+		private void updateColumns(int c, int v, int delta) {
+			for (int u=0, pos = m_in.rowOffset(v) + c; u < m_width; u++, pos += m_bytesPerPixel) {
+				final int value = 0xFF & m_in.m_data[pos];
+				m_colFine[u*Fine + value] += delta;
+				m_colCoarse[u*Coarse + (value >> 4)] += delta;
+			}
+		}
+
+		private int clampRow(int v) {
+			return Math.max(0, Math.min(m_height - 1, v));
+		}
+
+		private int clampCol(int u) {
+			return Math.max(0, Math.min(m_width - 1, u));
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package imageprocessing.filter;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import gui.OptionPane;
+import imageprocessing.IImageProcessor;
+import main.Picsi;
+import utils.GrayBuffer;
+import utils.ImageBuffer;
+import utils.Parallel;
+import utils.RgbBuffer;
+
+/**
+ * Recursive (IIR) Gaussian filter of Young and van Vliet: a causal and an anti-causal third order filter per direction.
+ * The cost per pixel doesn't depend on sigma, therefore it is suited for large sigma (e.g. background flattening),
+ * while GaussFilter is more accurate for small sigma.
+ * The row pass runs in parallel over the image rows, the column pass in parallel over blocks of adjacent columns,
+ * such that the recursion over the rows reads and writes contiguous memory.
+ * The image border is extended by repeating the border pixels.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class RecursiveGaussFilter implements IImageProcessor {
+	public static final double MinSigma = 0.5;	// the coefficients are not defined for smaller sigma
+	private static final int BlockWidth = 64;	// number of columns filtered together in the column pass
+	private static final int MaxResponse = 1 << 20;	// maximum length of the impulse responses used for the boundary matrix
+
+	private final double m_sigma; // 0: sigma is asked for in run
+
+	/**
+	 * Recursive Gaussian filter with interactive input of sigma
+	 */
+	public RecursiveGaussFilter() {
+		m_sigma = 0;
+	}
+
+	/**
+	 * Recursive Gaussian filter
+	 * @param sigma standard deviation >= MinSigma
+	 */
+	public RecursiveGaussFilter(double sigma) {
+		if (sigma < MinSigma) throw new IllegalArgumentException("sigma must be at least " + MinSigma + ": " + sigma);
+		m_sigma = sigma;
+	}
+
+	@Override
+	public boolean isEnabled(int imageType) {
+		return imageType == Picsi.IMAGE_TYPE_GRAY || imageType == Picsi.IMAGE_TYPE_RGB || imageType == Picsi.IMAGE_TYPE_RGBA;
+	}
+
+	@Override
+	public Object getCacheKey() {
+		return (m_sigma == 0) ? null : m_sigma;
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType) {
+		double sigma = m_sigma;
+
+		if (sigma == 0) {
+			Double d = OptionPane.showDoubleDialog("Sigma", 20);
+			if (d == null) return null;
+			sigma = Math.max(MinSigma, d);
+		}
+		return gauss(inData, sigma);
+	}
+
+	/**
+	 * Filter coefficients
+	 * @param b gain B
+	 * @param a1 b1/b0
+	 * @param a2 b2/b0
+	 * @param a3 b3/b0
+	 * @param m boundary matrix: the initial state of the anti-causal filter at the right border is u + m*(w - u),
+	 * where w are the last three outputs of the causal filter and u is the border value
+	 */
+	private static record Coefficients(double b, double a1, double a2, double a3, double[][] m) {}
+
+	/**
+	 * Computes the normalized filter coefficients
+	 * @param sigma >= MinSigma
+	 * @return { B, b1/b0, b2/b0, b3/b0 } of the recursion y[n] = B*x[n] + (b1*y[n-1] + b2*y[n-2] + b3*y[n-3])/b0
+	 */
+	public static double[] coefficients(double sigma) {
+		assert sigma >= MinSigma : "sigma too small: " + sigma;
+
+		final double q = (sigma >= 2.5) ? 0.98711*sigma - 0.96330 : 3.97156 - 4.14554*Math.sqrt(1 - 0.26891*sigma);
+		final double q2 = q*q, q3 = q2*q;
+		final double b0 = 1.57825 + 2.44413*q + 1.4281*q2 + 0.422205*q3;
+		final double b1 = 2.44413*q + 2.85619*q2 + 1.26661*q3;
+		final double b2 = -(1.4281*q2 + 1.26661*q3);
+		final double b3 = 0.422205*q3;
+
+		return new double[] { 1 - (b1 + b2 + b3)/b0, b1/b0, b2/b0, b3/b0 };
+	}
+
+	/**
+	 * Recursive Gaussian filter of a gray, RGB or RGBA image. Alpha values are copied.
+	 * @param inData
+	 * @param sigma standard deviation >= MinSigma
+	 * @return filtered image
+	 */
+	public static ImageData gauss(ImageData inData, double sigma) {
+		final ImageData source;
+		final int[] channels;	// byte positions of the filtered channels inside a pixel
+		final int bytesPerPixel;
+
+		if (GrayBuffer.supports(inData)) {
+			source = inData;
+			channels = new int[] { 0 };
+			bytesPerPixel = 1;
+		} else {
+			// other direct color formats are converted to 24 bits per pixel
+			source = RgbBuffer.supports(inData) ? inData : GaussFilter.toRGB(inData);
+			final RgbBuffer rgb = new RgbBuffer(source);
+			channels = new int[] { rgb.m_r, rgb.m_g, rgb.m_b };
+			bytesPerPixel = rgb.m_bytesPerPixel;
+		}
+
+		final ImageData outData = (ImageData)source.clone();
+		final ImageBuffer in = new ImageBuffer(source), out = new ImageBuffer(outData);
+		final int width = inData.width, height = inData.height;
+		final float[][] tmp = new float[channels.length][width*height];
+		final Coefficients coeffs = boundary(coefficients(sigma));
+
+		// row pass
+		Parallel.For(0, height, v -> {
+			for (int c=0; c < channels.length; c++) {
+				final float[] t = tmp[c];
+				final int offset = v*width;
+
+				for (int u=0, pos = in.rowOffset(v) + channels[c]; u < width; u++, pos += bytesPerPixel) {
+					t[offset + u] = 0xFF & in.m_data[pos];
+				}
+				filterRow(t, offset, width, coeffs);
+			}
+		});
+
+		// column pass: blocks of adjacent columns
+		Parallel.For(0, width, BlockWidth, u0 -> {
+			final int bw = Math.min(BlockWidth, width - u0);
+
+			for (int c=0; c < channels.length; c++) {
+				final float[] t = tmp[c];
+
+				filterColumns(t, u0, bw, width, height, coeffs);
+				for (int v=0; v < height; v++) {
+					for (int u=u0, i = v*width + u0, pos = out.rowOffset(v) + u0*bytesPerPixel + channels[c]; u < u0 + bw; u++, i++, pos += bytesPerPixel) {
+						out.m_data[pos] = (byte)Math.max(0, Math.min(255, Math.round(t[i])));
+					}
+				}
+			}
+		});
+		return outData;
+	}
+
+	/**
+	 * Computes the boundary matrix of Triggs and Sdika for repeated border pixels.
+	 * The columns are the responses of both filters to a unit deviation of the causal state from the border value,
+	 * computed by running the filters on a decaying signal after the border.
+	 * @param coeffs { B, a1, a2, a3 }
+	 * @return
+	 */
+	private static Coefficients boundary(double[] coeffs) {
+		final double b = coeffs[0], a1 = coeffs[1], a2 = coeffs[2], a3 = coeffs[3];
+		final double[][] m = new double[3][3];
+		final double eps = 1e-12;
+
+		for (int k=0; k < 3; k++) {
+			// causal filter with input 0 after the border: d[0..2] is the state, d[3..] is the decaying continuation
+			double[] d = new double[1024];
+			int len = 3;
+
+			d[2 - k] = 1;
+			for (; len < MaxResponse && (len < 6 || Math.abs(d[len - 1]) + Math.abs(d[len - 2]) + Math.abs(d[len - 3]) > eps); len++) {
+				if (len == d.length) d = Arrays.copyOf(d, 2*len);
+				d[len] = a1*d[len - 1] + a2*d[len - 2] + a3*d[len - 3];
+			}
+
+			// anti-causal filter from the end of the decayed signal
+			double y1 = 0, y2 = 0, y3 = 0;
+			for (int n=len - 1; n >= 3; n--) {
+				final double y = b*d[n] + a1*y1 + a2*y2 + a3*y3;
+				y3 = y2; y2 = y1; y1 = y;
+			}
+			m[0][k] = y1;
+			m[1][k] = y2;
+			m[2][k] = y3;
+		}
+		return new Coefficients(b, a1, a2, a3, m);
+	}
+
+	/**
+	 * Causal and anti-causal recursion of one row in place
+	 * @param t values
+	 * @param offset index of the first value
+	 * @param n number of values
+	 * @param coeffs filter coefficients
+	 */
+	private static void filterRow(float[] t, int offset, int n, Coefficients coeffs) {
+		final double b = coeffs.b(), a1 = coeffs.a1(), a2 = coeffs.a2(), a3 = coeffs.a3();
+		final double[][] m = coeffs.m();
+		final int end = offset + n;
+		final double u = t[end - 1];
+
+		// causal: the border value is the steady state of a constant signal
+		double w1 = t[offset], w2 = w1, w3 = w1;
+		for (int i=offset; i < end; i++) {
+			final double w = b*t[i] + a1*w1 + a2*w2 + a3*w3;
+			t[i] = (float)w;
+			w3 = w2; w2 = w1; w1 = w;
+		}
+
+		// anti-causal
+		final double d1 = w1 - u, d2 = w2 - u, d3 = w3 - u;
+		w1 = u + m[0][0]*d1 + m[0][1]*d2 + m[0][2]*d3;
+		w2 = u + m[1][0]*d1 + m[1][1]*d2 + m[1][2]*d3;
+		w3 = u + m[2][0]*d1 + m[2][1]*d2 + m[2][2]*d3;
+		for (int i=end - 1; i >= offset; i--) {
+			final double w = b*t[i] + a1*w1 + a2*w2 + a3*w3;
+			t[i] = (float)w;
+			w3 = w2; w2 = w1; w1 = w;
+		}
+	}
+
+	/**
+	 * Causal and anti-causal recursion of a block of columns in place. The recursion runs over the rows of the block.
+	 * @param t values
+	 * @param u0 first column of the block
+	 * @param bw number of columns of the block
+	 * @param width row length of t
+	 * @param height number of rows
+	 * @param coeffs filter coefficients
+	 */
+	private static void filterColumns(float[] t, int u0, int bw, int width, int height, Coefficients coeffs) {
+		final double b = coeffs.b(), a1 = coeffs.a1(), a2 = coeffs.a2(), a3 = coeffs.a3();
+		final double[][] m = coeffs.m();
+		final double[] w1 = new double[bw], w2 = new double[bw], w3 = new double[bw], u = new double[bw];
+		final int last = (height - 1)*width + u0;
+
+		for (int j=0; j < bw; j++) u[j] = t[last + j];
+
+		// causal: the poles are close to 1 for large sigma, therefore the state is kept in double precision
+		for (int j=0; j < bw; j++) w1[j] = w2[j] = w3[j] = t[u0 + j];
+		for (int v=0; v < height; v++) {
+			final int offset = v*width + u0;
+
+			for (int j=0; j < bw; j++) {
+				final double w = b*t[offset + j] + a1*w1[j] + a2*w2[j] + a3*w3[j];
+				t[offset + j] = (float)w;
+				w3[j] = w2[j]; w2[j] = w1[j]; w1[j] = w;
+			}
+		}
+
+		// anti-causal
+		for (int j=0; j < bw; j++) {
+			final double d1 = w1[j] - u[j], d2 = w2[j] - u[j], d3 = w3[j] - u[j];
+			w1[j] = u[j] + m[0][0]*d1 + m[0][1]*d2 + m[0][2]*d3;
+			w2[j] = u[j] + m[1][0]*d1 + m[1][1]*d2 + m[1][2]*d3;
+			w3[j] = u[j] + m[2][0]*d1 + m[2][1]*d2 + m[2][2]*d3;
+		}
+		for (int v=height - 1; v >= 0; v--) {
+			final int offset = v*width + u0;
+
+			for (int j=0; j < bw; j++) {
+				final double w = b*t[offset + j] + a1*w1[j] + a2*w2[j] + a3*w3[j];
+				t[offset + j] = (float)w;
+				w3[j] = w2[j]; w2[j] = w1[j]; w1[j] = w;
+			}
+		}
+	}
+}
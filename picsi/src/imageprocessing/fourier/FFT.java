@@ -149,42 +149,41 @@ public class FFT implements IImageProcessor {
 			h <<= 1;
 		}
 		
-		Complex[] row = new Complex[w];
-		Complex[] col = new Complex[h];
+		final int wPow2 = w, hPow2 = h;
 		Complex[][] G = new Complex[h][];
 		
-		// create arrays
-		for (int i=0; i < row.length; i++) {
-			row[i] = new Complex();
-		}
-		
-		// forward transform rows
-		int rowPos = 0;
-		for (int v=0; v < h; v++) {
+		// forward transform rows: the rows are processed in parallel, the short loops inside a row sequentially
+		Parallel.For(0, h, v -> {
 			if (v < inData.height) {
-				final int rP = rowPos;
-				Parallel.For(0, Math.min(w, inData.width), u -> {
-					row[u].m_re = (0xFF & inData.data[rP + u])/norm;
-				});
+				final int rowPos = v*inData.bytesPerLine;
+				final int uMax = Math.min(wPow2, inData.width);
+				Complex[] row = new Complex[wPow2];
+				
+				for (int u=0; u < uMax; u++) {
+					row[u] = new Complex((0xFF & inData.data[rowPos + u])/norm, 0);
+				}
+				for (int u=uMax; u < wPow2; u++) {
+					row[u] = new Complex();
+				}
 				G[v] = FFT1D.fft(row);
-				rowPos += inData.bytesPerLine;
 			} else {
-				G[v] = new Complex[w];
+				G[v] = new Complex[wPow2];
 				Arrays.fill(G[v], new Complex());
 			}
-		}
+		});
 		
 		// forward transform columns
-		for (int u=0; u < w; u++) {
-			final int u_ = u;
-			Parallel.For(0, h, v -> {
-				col[v] = G[v][u_];
-			});
+		Parallel.For(0, w, u -> {
+			Complex[] col = new Complex[hPow2];
+			
+			for (int v=0; v < hPow2; v++) {
+				col[v] = G[v][u];
+			}
 			Complex[] Gcol = FFT1D.fft(col);
-			Parallel.For(0, h, v -> {
-				G[v][u_] = Gcol[v];
-			});
-		}
+			for (int v=0; v < hPow2; v++) {
+				G[v][u] = Gcol[v];
+			}
+		});
 		return new FrequencyDomain(inData, width, height, G);
 	}
 	
@@ -196,24 +195,26 @@ public class FFT implements IImageProcessor {
 	public static ImageData ifft2D(FrequencyDomain fdOrig) {
 		FrequencyDomain fd = fdOrig.clone();
 		ImageData outData = new ImageData(fd.m_width, fd.m_height, fd.m_depth, fd.m_palette);
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
+		final int h = fd.getSpectrumHeight();
+		final int vMax = Math.min(outData.height, h);
 	
 		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
+		Parallel.For(0, h, v -> {
 			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
+		});
 		
 		// inverse transform columns
-		for (int u=0; u < Math.min(outData.width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
+		Parallel.For(0, Math.min(outData.width, fd.getSpectrumWidth()), u -> {
+			Complex[] col = new Complex[h];
+			
+			for (int v=0; v < h; v++) {
+				col[v] = fd.m_g[v][u];
+			}
 			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(outData.height, fd.getSpectrumHeight()), v -> {
-				outData.data[u_ + v*outData.bytesPerLine] = (byte)ImageProcessing.clamp8(Gcol[v].m_re);
-			});
-		}
+			for (int v=0; v < vMax; v++) {
+				outData.data[u + v*outData.bytesPerLine] = (byte)ImageProcessing.clamp8(Gcol[v].m_re);
+			}
+		});
 		return outData;
 	}
 
@@ -225,24 +226,26 @@ public class FFT implements IImageProcessor {
 	public static double[][] ifft2Dreal(FrequencyDomain fdOrig) {
 		FrequencyDomain fd = fdOrig.clone();
 		double[][] outData = new double[fd.m_height][fd.m_width];
-		Complex[] col = new Complex[fd.getSpectrumHeight()];
+		final int h = fd.getSpectrumHeight();
+		final int vMax = Math.min(fd.m_height, h);
 	
 		// inverse transform rows
-		for (int v=0; v < fd.getSpectrumHeight(); v++) {
+		Parallel.For(0, h, v -> {
 			fd.m_g[v] = FFT1D.ifft(fd.m_g[v]);
-		}
+		});
 		
 		// inverse transform columns
-		for (int u=0; u < Math.min(fd.m_width, fd.getSpectrumWidth()); u++) {
-			final int u_ = u;
-			Parallel.For(0, fd.getSpectrumHeight(), v -> {
-				col[v] = fd.m_g[v][u_];
-			});
+		Parallel.For(0, Math.min(fd.m_width, fd.getSpectrumWidth()), u -> {
+			Complex[] col = new Complex[h];
+			
+			for (int v=0; v < h; v++) {
+				col[v] = fd.m_g[v][u];
+			}
 			Complex[] Gcol = FFT1D.ifft(col);
-			Parallel.For(0, Math.min(fd.m_height, fd.getSpectrumHeight()), v -> {
-				outData[v][u_] = Gcol[v].m_re;
-			});
-		}
+			for (int v=0; v < vMax; v++) {
+				outData[v][u] = Gcol[v].m_re;
+			}
+		});
 		return outData;
 		
 	}
@@ -0,0 +1,123 @@
+package imageprocessing.fourier;
+
+/**
+ * Iterative in-place radix-2 FFT of a fixed length on primitive arrays.
+ * Twiddle factors and the bit-reversal permutation are computed once per plan, therefore a plan is
+ * suited for many transforms of the same size, e.g. the tiles of a convolution. A plan is immutable and can be shared by threads.
+ * In contrast to FFT1D the inverse transform is not normalized: forward followed by inverse multiplies by the length.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class FFTPlan {
+	public final int m_n;			// transform length: power of 2
+	private final double[] m_cos;	// cos(2*pi*k/n), k < n/2
+	private final double[] m_sin;	// sin(2*pi*k/n), k < n/2
+	private final int[] m_rev;		// bit-reversal permutation
+
+	/**
+	 * @param n transform length: power of 2
+	 */
+	public FFTPlan(int n) {
+		if (n <= 0 || (n & (n - 1)) != 0) throw new IllegalArgumentException("n is not a power of 2: " + n);
+
+		m_n = n;
+		m_cos = new double[n/2];
+		m_sin = new double[n/2];
+		for (int k=0; k < n/2; k++) {
+			m_cos[k] = Math.cos(2*Math.PI*k/n);
+			m_sin[k] = Math.sin(2*Math.PI*k/n);
+		}
+		m_rev = new int[n];
+		final int bits = Integer.numberOfTrailingZeros(n);
+		for (int i=1; i < n; i++) {
+			m_rev[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	/**
+	 * Transforms n complex values in place
+	 * @param re real parts
+	 * @param im imaginary parts
+	 * @param pos index of the first value
+	 * @param inverse true: inverse transform without normalization
+	 */
+	public void transform(double[] re, double[] im, int pos, boolean inverse) {
+		final int n = m_n;
+
+		for (int i=1; i < n; i++) {
+			final int j = m_rev[i];
+
+			if (i < j) {
+				final double tr = re[pos + i], ti = im[pos + i];
+				re[pos + i] = re[pos + j]; im[pos + i] = im[pos + j];
+				re[pos + j] = tr; im[pos + j] = ti;
+			}
+		}
+		for (int len=2; len <= n; len <<= 1) {
+			final int half = len/2, step = n/len;
+
+			for (int i=pos; i < pos + n; i += len) {
+				for (int k=0; k < half; k++) {
+					final double wr = m_cos[k*step], wi = (inverse) ? m_sin[k*step] : -m_sin[k*step];
+					final int a = i + k, b = a + half;
+					final double xr = re[b]*wr - im[b]*wi, xi = re[b]*wi + im[b]*wr;
+
+					re[b] = re[a] - xr; im[b] = im[a] - xi;
+					re[a] += xr; im[a] += xi;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Transforms an n x n array of complex values in place: first the rows, then the columns.
+	 * The columns are transformed together: each butterfly combines two whole rows, such that the inner loop reads contiguous memory.
+	 * @param re real parts, row by row
+	 * @param im imaginary parts, row by row
+	 * @param inverse true: inverse transform without normalization
+	 */
+	public void transform2D(double[] re, double[] im, boolean inverse) {
+		final int n = m_n;
+
+		for (int v=0; v < n; v++) {
+			transform(re, im, v*n, inverse);
+		}
+
+		// bit-reversal permutation of the rows
+		final double[] tmp = new double[n];
+		for (int i=1; i < n; i++) {
+			final int j = m_rev[i];
+
+			if (i < j) {
+				swapRows(re, i*n, j*n, tmp);
+				swapRows(im, i*n, j*n, tmp);
+			}
+		}
+		for (int len=2; len <= n; len <<= 1) {
+			final int half = len/2, step = n/len;
+
+			for (int i=0; i < n; i += len) {
+				for (int k=0; k < half; k++) {
+					final double wr = m_cos[k*step], wi = (inverse) ? m_sin[k*step] : -m_sin[k*step];
+					final int a = (i + k)*n, b = a + half*n;
+
+					for (int u=0; u < n; u++) {
+						final double xr = re[b + u]*wr - im[b + u]*wi, xi = re[b + u]*wi + im[b + u]*wr;
+
+						re[b + u] = re[a + u] - xr; im[b + u] = im[a + u] - xi;
+						re[a + u] += xr; im[a + u] += xi;
+					}
+				}
+			}
+		}
+	}
+
+	private static void swapRows(double[] data, int a, int b, double[] tmp) {
+		final int n = tmp.length;
+
+		System.arraycopy(data, a, tmp, 0, n);
+		System.arraycopy(data, b, data, a, n);
+		System.arraycopy(tmp, 0, data, b, n);
+	}
+}
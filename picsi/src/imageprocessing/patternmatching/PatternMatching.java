@@ -15,10 +15,12 @@ import org.eclipse.swt.widgets.Display;
 import gui.OptionPane;
 import gui.RectTracker;
 import imageprocessing.IImageProcessor;
+import imageprocessing.IProgressMonitor;
 import imageprocessing.ImageProcessing;
 import imageprocessing.geometry.ROI;
 import main.Picsi;
 import utils.BoundedPQ;
+import utils.IntegralImage;
 import utils.Parallel;
 
 /**
@@ -49,6 +51,11 @@ public class PatternMatching implements IImageProcessor {
 
 	@Override
 	public ImageData run(ImageData inData, int imageType) {
+		return run(inData, imageType, IProgressMonitor.NONE);
+	}
+
+	@Override
+	public ImageData run(ImageData inData, int imageType, IProgressMonitor monitor) {
 		// let the user choose the operation
 		Object[] operations = { "Pattern Matching", "PM with modified Pattern", "User defined Pattern" };
 		int f = OptionPane.showOptionDialog("Pattern Matching Operation", SWT.ICON_INFORMATION, operations, 0);
@@ -65,8 +72,7 @@ public class PatternMatching implements IImageProcessor {
 			pr = new Rectangle(200, 310, 70, 50);
 		} else {
 			// let the user choose the ROI using a tracker
-			RectTracker rt = new RectTracker();
-			pr = rt.start(70, 50); //inData.width/2, inData.height/2, 70, 50);
+			pr = RectTracker.track(70, 50); //inData.width/2, inData.height/2, 70, 50);
 		}
 		
 		final int nResults = 10*10;	// search nResults best matches
@@ -91,7 +97,7 @@ public class PatternMatching implements IImageProcessor {
         }
 		
 		// pattern matching
-		BoundedPQ<PMResult> results = pm(inData, pattern, nResults);
+		BoundedPQ<PMResult> results = pm(inData, pattern, nResults, monitor);
 		
 		// create output
 		ImageData outData = ImageProcessing.createImage(inData.width, inData.height, Picsi.IMAGE_TYPE_RGB);
@@ -115,6 +121,18 @@ public class PatternMatching implements IImageProcessor {
 	 * @return results
 	 */
 	public static BoundedPQ<PMResult> pm(ImageData inData, ROI pattern, int nResults) {
+		return pm(inData, pattern, nResults, IProgressMonitor.NONE);
+	}
+
+	/**
+	 * Pattern matching based on correlation coefficient with progress reporting and cancellation
+	 * @param inData
+	 * @param pattern
+	 * @param nResults number of best results
+	 * @param monitor is polled once per row
+	 * @return results
+	 */
+	public static BoundedPQ<PMResult> pm(ImageData inData, ROI pattern, int nResults, IProgressMonitor monitor) {
 		final int pw = pattern.getWidth();
 		final int ph = pattern.getHeight();
 		final int k = ph*pw;
@@ -142,23 +160,25 @@ public class PatternMatching implements IImageProcessor {
 
 
 
+        // mean and sum of squares of the image under the pattern in constant time
+        final IntegralImage integral = new IntegralImage(inData, true);
+
         for (int y = 0; y < inData.height - ph; y++) {
+            monitor.checkCanceled();
+            monitor.setProgress((double)y/(inData.height - ph));
             for (int x = 0; x < inData.width - pw; x++) {
                 double sumIR = 0.0;
-                double i_ = 0.0;
-                double i2 = 0.0;
                 
                 for (int yRoi = 0; yRoi < ph; yRoi++) {
                     for (int xRoi = 0; xRoi < pw; xRoi++) {
                         int p = inData.getPixel(x + xRoi, y + yRoi);
                         int q = pattern.getPixel(xRoi, yRoi);
                         sumIR += p*q;
-                        i_ += p;
-                        i2 += p*p;
                     }
                 }
 
-                i_ /= k;
+                final double i_ = integral.rectMean(x, y, pw, ph);
+                final double i2 = integral.rectSquareSum(x, y, pw, ph);
                 
                 var cl = (sumIR - k*i_*r_) / ( Math.sqrt(i2 - k*i_*i_) * standardDeviation * Math.sqrt(k) );
 
@@ -177,6 +197,11 @@ public class PatternMatching implements IImageProcessor {
 	 * @return
 	 */
 	private ImageData createOutput(ImageData outData, BoundedPQ<PMResult> pq, int nResults) {
+		// drawing with GC needs the UI thread
+		return Picsi.syncExec(() -> drawResults(outData, pq, nResults));
+	}
+
+	private ImageData drawResults(ImageData outData, BoundedPQ<PMResult> pq, int nResults) {
 		ArrayList<PMResult> results = new ArrayList<>();
 		
 		// create image and write text into image
@@ -13,6 +13,11 @@ public class Rotator implements IImageProcessor {
         return true;
     }
 
+    @Override
+    public Object getCacheKey() {
+        return ""; // no parameters
+    }
+
     @Override
     public ImageData run(ImageData inData, int imageType) {        
         return rotate(inData, imageType);
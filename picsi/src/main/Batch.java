@@ -0,0 +1,486 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+
+import files.ImageFiles;
+import files.ImagePipeline;
+import files.StripStream;
+import imageprocessing.IImageProcessor;
+import imageprocessing.ImageProcessing;
+import imageprocessing.ParticleAnalyzer;
+import imageprocessing.ProcessorStats;
+import imageprocessing.bayerPattern.DebayeringConverter;
+import imageprocessing.binary.MorphologicFilter;
+import imageprocessing.binary.OtsuThresholdConverter;
+import imageprocessing.binary.RunningMinMax;
+import imageprocessing.binary.StructureDecomposition;
+import imageprocessing.colors.DitheringConverter;
+import imageprocessing.colors.GrayScaleConverter;
+import imageprocessing.colors.Inverter;
+import imageprocessing.colors.PointOperation;
+import imageprocessing.filter.BilateralGridFilter;
+import imageprocessing.filter.Convolution;
+import imageprocessing.filter.GaussFilter;
+import imageprocessing.filter.GrayMorphologicFilter;
+import imageprocessing.filter.GuidedFilter;
+import imageprocessing.filter.MedianFilter;
+import imageprocessing.filter.RankFilter;
+import imageprocessing.filter.RecursiveGaussFilter;
+
+/**
+ * Headless batch processing: applies a chain of image processors to many image files without GUI.
+ * Usage: java main.Batch -p grayscale,otsu,morph:closing:circle-5 [-o outDir] [-e ext] [-j n] [-s] files or directories
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class Batch {
+	private static final String USAGE = """
+		Usage: java main.Batch -p <op>[,<op>...] [-o <dir>] [-e <ext>] [-j <n>] [-s] <file or directory>...
+		  -p  processing chain applied from left to right
+		  -o  output directory (default: out)
+		  -e  output file extension (default: extension of the input file)
+		  -j  number of images processed concurrently (default: number of cores)
+		  -s  stream images strip by strip instead of loading them as a whole: for images larger than the memory,
+		      only operations with a bounded neighbourhood, images are processed one after the other
+		Operations: {0}
+		  morph:<operation>:<structure> with operation in {1}
+		                                 and structure in {2}
+		                                 or disk-<radius>, diamond-<radius>, square-<radius>:
+		                                 rectangles and diamonds are decomposed into lines where this is faster,
+		                                 disk-<radius> is approximated by a 16-gon where this is faster
+		  gmorph:<operation>:<structure> morphology of gray and color images with operation in {4}
+		                                 and the structures of morph
+		  rect:<operation>:<width>:<height>
+		                                 erosion, dilation, opening or closing of binary or gray images with a centered rectangle,
+		                                 the run time is independent of the rectangle size
+		  gauss[:<sigma>[:<radius>]]      default: sigma 1, radius 3*sigma
+		  rgauss:<sigma>                 recursive Gaussian filter for large sigma
+		  median[:<radius>]              default: radius 1
+		  rank:<radius>:<percentile>     percentile 0 = minimum, 50 = median, 100 = maximum
+		  bilateral:<sigmaS>:<sigmaR>    bilateral grid with spatial and range sigma
+		  guided:<radius>:<eps>          guided filter, eps in squared intensity levels
+		  conv:<kernel>[:<border>]       rows separated by semicolons, values by blanks, e.g. "conv:1 2 1;2 4 2;1 2 1:mirror"
+		                                 normalized to sum 1 if the sum is not 0, border in {3} (default: clamp)
+		  gamma:<gamma>, levels:<low>:<high>, threshold:<value>
+		                                 consecutive point operations are fused into one look-up table
+		""";
+
+	private static final Map<String, Function<String[], IImageProcessor>> s_operations = new LinkedHashMap<>();
+
+	static {
+		s_operations.put("invert", p -> new Inverter());
+		s_operations.put("grayscale", p -> new GrayScaleConverter());
+		s_operations.put("dithering", p -> new DitheringConverter());
+		s_operations.put("otsu", p -> new OtsuThresholdConverter());
+		s_operations.put("particles", p -> new ParticleAnalyzer());
+		s_operations.put("morph", Batch::createMorphologicFilter);
+		s_operations.put("rect", Batch::createRectangleFilter);
+		s_operations.put("gmorph", Batch::createGrayMorphologicFilter);
+		s_operations.put("debayer", p -> new DebayeringConverter());
+		s_operations.put("gauss", Batch::createGaussFilter);
+		s_operations.put("median", p -> new MedianFilter((p.length > 1) ? Integer.parseInt(p[1]) : 1));
+		s_operations.put("rank", p -> new RankFilter(Integer.parseInt(param(p, 1, "rank:<radius>:<percentile>")), Double.parseDouble(param(p, 2, "rank:<radius>:<percentile>"))));
+		s_operations.put("bilateral", p -> new BilateralGridFilter(Double.parseDouble(param(p, 1, "bilateral:<sigmaS>:<sigmaR>")), Double.parseDouble(param(p, 2, "bilateral:<sigmaS>:<sigmaR>"))));
+		s_operations.put("guided", p -> new GuidedFilter(Integer.parseInt(param(p, 1, "guided:<radius>:<eps>")), Double.parseDouble(param(p, 2, "guided:<radius>:<eps>"))));
+		s_operations.put("conv", Batch::createConvolution);
+		s_operations.put("rgauss", p -> new RecursiveGaussFilter(Double.parseDouble(param(p, 1, "rgauss:<sigma>"))));
+		s_operations.put("gamma", p -> new PointOperation().gamma(Double.parseDouble(param(p, 1, "gamma:<gamma>"))));
+		s_operations.put("levels", p -> new PointOperation().levels(Integer.parseInt(param(p, 1, "levels:<low>:<high>")), Integer.parseInt(param(p, 2, "levels:<low>:<high>")), 0, 255));
+		s_operations.put("threshold", p -> new PointOperation().threshold(Integer.parseInt(param(p, 1, "threshold:<value>"))));
+	}
+
+	/**
+	 * Processing step: image processor and its textual specification
+	 */
+	public static record Step(String spec, IImageProcessor proc) {}
+
+	public static void main(String[] args) {
+		String chainSpec = null;
+		String outDir = "out";
+		String ext = null;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		boolean streaming = false;
+		List<File> inputs = new ArrayList<>();
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch(args[i]) {
+				case "-p": chainSpec = args[++i]; break;
+				case "-o": outDir = args[++i]; break;
+				case "-e": ext = args[++i]; break;
+				case "-j": nThreads = Integer.parseInt(args[++i]); break;
+				case "-s": streaming = true; break;
+				default: inputs.add(new File(args[i]));
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			chainSpec = null;
+		}
+		if (chainSpec == null || inputs.isEmpty() || nThreads <= 0) {
+			System.err.println(usage());
+			System.exit(2);
+		}
+
+		ImageFiles.registerUserImageFiles();
+		try {
+			List<Step> chain = parseChain(chainSpec);
+			List<File> files = collectFiles(inputs);
+			int failed = (streaming) ? stream(files, chain, new File(outDir), ext) : run(files, chain, new File(outDir), ext, nThreads);
+
+			System.out.println(Picsi.createMsg("{0} of {1} images processed", new Object[] { files.size() - failed, files.size() }));
+			System.exit(failed == 0 ? 0 : 1);
+		} catch(Exception e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Parses a comma separated processing chain, e.g. "grayscale,otsu,morph:closing:circle-5".
+	 * Consecutive point operations are fused into one step with a single look-up table.
+	 * @param spec
+	 * @return processing steps
+	 * @throws IllegalArgumentException if an operation is unknown or has wrong parameters
+	 */
+	public static List<Step> parseChain(String spec) {
+		List<Step> chain = new ArrayList<>();
+
+		for (String s : spec.split(",")) {
+			String[] params = s.trim().toLowerCase(Locale.ROOT).split(":");
+			Function<String[], IImageProcessor> creator = s_operations.get(params[0]);
+
+			if (creator == null) throw new IllegalArgumentException("unknown operation: " + s);
+
+			final IImageProcessor proc;
+			try {
+				proc = creator.apply(params);
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("wrong parameter: " + s);
+			}
+
+			final int last = chain.size() - 1;
+			if (last >= 0 && proc instanceof PointOperation op && chain.get(last).proc() instanceof PointOperation prev) {
+				chain.set(last, new Step(chain.get(last).spec() + "," + s.trim(), prev.then(op)));
+			} else {
+				chain.add(new Step(s.trim(), proc));
+			}
+		}
+		return chain;
+	}
+
+	/**
+	 * Processes all files: files are loaded and saved on virtual threads,
+	 * at most nThreads images are processed concurrently and at most 2*nThreads images are in flight
+	 * @param files input files
+	 * @param chain processing chain
+	 * @param outDir output directory
+	 * @param ext output file extension or null
+	 * @param nThreads number of concurrently processed images
+	 * @return number of failed files
+	 * @throws InterruptedException
+	 */
+	public static int run(List<File> files, List<Step> chain, File outDir, String ext, int nThreads) throws InterruptedException {
+		if (!outDir.isDirectory() && !outDir.mkdirs()) throw new IllegalArgumentException("cannot create output directory: " + outDir);
+
+		AtomicInteger failed = new AtomicInteger();
+		List<CompletableFuture<Void>> futures = new ArrayList<>(files.size());
+
+		try (ImagePipeline pipeline = new ImagePipeline(nThreads, 2*nThreads)) {
+			for (File f : files) {
+				futures.add(pipeline.submit(f.getPath(), outputFile(f, outDir, ext).getPath(), (inData, fileName) -> apply(inData, chain))
+					.exceptionally(e -> {
+						failed.incrementAndGet();
+						System.err.println(Picsi.createMsg("Error in {0}: {1}", new Object[] { f, (e instanceof CompletionException) ? e.getCause() : e }));
+						return null;
+					}));
+			}
+		}
+		futures.forEach(CompletableFuture::join);
+		return failed.get();
+	}
+
+	/**
+	 * Processes all files one after the other strip by strip, such that only a few rows of each image are in memory
+	 * @param files input files
+	 * @param chain processing chain of operations with a bounded neighbourhood
+	 * @param outDir output directory
+	 * @param ext output file extension or null
+	 * @return number of failed files
+	 * @throws IllegalArgumentException if an operation needs the whole image
+	 */
+	public static int stream(List<File> files, List<Step> chain, File outDir, String ext) {
+		if (!outDir.isDirectory() && !outDir.mkdirs()) throw new IllegalArgumentException("cannot create output directory: " + outDir);
+
+		int halo = 0, failed = 0;
+
+		for (Step step : chain) {
+			final int h = step.proc().getHalo();
+
+			if (h < 0) throw new IllegalArgumentException(step.spec() + " needs the whole image and cannot be streamed");
+			halo += h;
+		}
+		for (File f : files) {
+			try {
+				StripStream.run(f.getPath(), outputFile(f, outDir, ext).getPath(), halo, strip -> apply(strip, chain));
+			} catch(Exception e) {
+				failed++;
+				System.err.println(Picsi.createMsg("Error in {0}: {1}", new Object[] { f, e }));
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Applies the processing chain to the given image
+	 * @param imageData input image
+	 * @param chain processing chain
+	 * @return output image
+	 * @throws IllegalStateException if a step is not applicable or produces no output
+	 */
+	public static ImageData apply(ImageData imageData, List<Step> chain) {
+		for (Step step : chain) {
+			final int imageType = ImageProcessing.determineImageType(imageData);
+
+			if (!step.proc().isEnabled(imageType)) {
+				throw new IllegalStateException(Picsi.createMsg("{0} is not applicable to {1} images", new Object[] { step.spec(), Picsi.imageTypeString(imageType) }));
+			}
+			final ImageData inData = imageData;
+
+			// each step is emitted as JFR event
+			imageData = ProcessorStats.measure(step.spec(), inData, () -> step.proc().run(inData, imageType), null);
+			if (imageData == null) throw new IllegalStateException(step.spec() + " produced no output");
+		}
+		return imageData;
+	}
+
+	/**
+	 * Returns all image files of the given files and directories (not recursive)
+	 * @param inputs
+	 * @return
+	 */
+	public static List<File> collectFiles(List<File> inputs) {
+		List<File> files = new ArrayList<>();
+
+		for (File f : inputs) {
+			if (f.isDirectory()) {
+				File[] children = f.listFiles(c -> c.isFile() && ImageFiles.determinefileType(c.getName()) != SWT.IMAGE_UNDEFINED);
+				if (children != null) {
+					Arrays.sort(children);
+					files.addAll(List.of(children));
+				}
+			} else {
+				files.add(f);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the output file in outDir with the name of the input file and the given extension
+	 * @param in input file
+	 * @param outDir output directory
+	 * @param ext output extension or null
+	 * @return
+	 */
+	public static File outputFile(File in, File outDir, String ext) {
+		String name = in.getName();
+
+		if (ext != null) {
+			final int dot = name.lastIndexOf('.');
+			if (dot >= 0) name = name.substring(0, dot);
+			name += ext.startsWith(".") ? ext : "." + ext;
+		}
+		return new File(outDir, name);
+	}
+
+	private static IImageProcessor createMorphologicFilter(String[] params) {
+		if (params.length != 3) throw new IllegalArgumentException("morph needs an operation and a structure, e.g. morph:closing:circle-5");
+
+		final int op = indexOf(MorphologicFilter.s_operations, params[1]);
+		final int s = indexOf(MorphologicFilter.s_structures, params[2]);
+		if (op < 0) throw new IllegalArgumentException("unknown morphological operation: " + params[1]);
+		if (s < 0) return createMorphologicFilter(op, params[2]);
+
+		return new MorphologicFilter() {
+			@Override
+			public ImageData run(ImageData inData, int imageType) {
+				return morph(inData, imageType, op, s);
+			}
+
+			@Override
+			public int getHalo() {
+				return halo(op, s);
+			}
+		};
+	}
+
+	private static IImageProcessor createMorphologicFilter(int op, String structure) {
+		final boolean[][] struct = createStructure(structure);
+		final int r = struct.length/2;
+		final StructureDecomposition approximation = createApproximation(structure, r);
+
+		return new MorphologicFilter() {
+			@Override
+			public ImageData run(ImageData inData, int imageType) {
+				return morph(inData, imageType, op, struct, r, r, approximation);
+			}
+
+			@Override
+			public int getHalo() {
+				return halo(op, struct, r);
+			}
+		};
+	}
+
+	private static IImageProcessor createGrayMorphologicFilter(String[] params) {
+		final String syntax = "gmorph:<operation>:<structure>";
+		final int op = indexOf(GrayMorphologicFilter.s_operations, param(params, 1, syntax));
+		final int s = indexOf(MorphologicFilter.s_structures, param(params, 2, syntax));
+		if (op < 0) throw new IllegalArgumentException("unknown morphological operation: " + params[1]);
+
+		if (s >= 0) return new GrayMorphologicFilter(op, MorphologicFilter.structure(s), MorphologicFilter.origin(s), MorphologicFilter.origin(s));
+
+		final boolean[][] struct = createStructure(params[2]);
+		final int r = struct.length/2;
+		return new GrayMorphologicFilter(op, struct, r, r, createApproximation(params[2], r));
+	}
+
+	/**
+	 * Returns the approximation of disk-<radius> by a 16-gon: only explicitly named disks are approximated
+	 * @param structure
+	 * @param r radius
+	 * @return approximation or null
+	 */
+	private static StructureDecomposition createApproximation(String structure, int r) {
+		return (structure.startsWith("disk-")) ? StructureDecomposition.disk(r) : null;
+	}
+
+	/**
+	 * Creates a structure with the origin in the center from disk-<radius>, diamond-<radius> or square-<radius>
+	 * @param structure
+	 * @return
+	 */
+	private static boolean[][] createStructure(String structure) {
+		final int dash = structure.lastIndexOf('-');
+		final int r;
+
+		try {
+			r = (dash >= 0) ? Integer.parseInt(structure.substring(dash + 1)) : -1;
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("unknown structure: " + structure);
+		}
+
+		switch((r >= 0) ? structure.substring(0, dash) : structure) {
+		case "disk": return MorphologicFilter.disk(r);
+		case "diamond": return MorphologicFilter.diamond(r);
+		case "square":
+			final boolean[][] struct = new boolean[2*r + 1][2*r + 1];
+			for (boolean[] row : struct) Arrays.fill(row, true);
+			return struct;
+		default: throw new IllegalArgumentException("unknown structure: " + structure);
+		}
+	}
+
+	private static IImageProcessor createRectangleFilter(String[] params) {
+		final String syntax = "rect:<operation>:<width>:<height>";
+		final int op = indexOf(MorphologicFilter.s_operations, param(params, 1, syntax));
+		final int w = Integer.parseInt(param(params, 2, syntax)), h = Integer.parseInt(param(params, 3, syntax));
+		if (op < 0 || op > 3) throw new IllegalArgumentException("unknown rectangle operation: " + params[1]);
+		if (w < 1 || h < 1) throw new IllegalArgumentException("wrong rectangle size: " + w + "x" + h);
+
+		final int cx = (w - 1)/2, cy = (h - 1)/2;
+
+		return new IImageProcessor() {
+			@Override
+			public boolean isEnabled(int imageType) {
+				return imageType == Picsi.IMAGE_TYPE_BINARY || imageType == Picsi.IMAGE_TYPE_GRAY;
+			}
+
+			@Override
+			public ImageData run(ImageData inData, int imageType) {
+				switch(op) {
+				case 0: return RunningMinMax.erosion(inData, w, h, cx, cy);
+				case 1: return RunningMinMax.dilation(inData, w, h, cx, cy);
+				case 2: return RunningMinMax.opening(inData, w, h, cx, cy);
+				default: return RunningMinMax.closing(inData, w, h, cx, cy);
+				}
+			}
+
+			@Override
+			public int getHalo() {
+				// opening and closing apply two operations
+				final int halo = Math.max(cy, h - 1 - cy);
+				return (op >= 2) ? 2*halo : halo;
+			}
+		};
+	}
+
+	private static IImageProcessor createGaussFilter(String[] params) {
+		if (params.length == 1) return new GaussFilter();
+
+		final double sigma = Double.parseDouble(params[1]);
+		return new GaussFilter(sigma, (params.length > 2) ? Integer.parseInt(params[2]) : GaussFilter.radius(sigma));
+	}
+
+	private static IImageProcessor createConvolution(String[] params) {
+		final String[] rows = param(params, 1, "conv:<kernel>[:<border>]").trim().split("\\s*;\\s*");
+		final double[][] kernel = new double[rows.length][];
+		double sum = 0;
+
+		for (int j = 0; j < rows.length; j++) {
+			kernel[j] = Arrays.stream(rows[j].split("\\s+")).mapToDouble(Double::parseDouble).toArray();
+			sum += Arrays.stream(kernel[j]).sum();
+		}
+		if (sum != 0) {
+			for (double[] row : kernel) {
+				for (int i = 0; i < row.length; i++) row[i] /= sum;
+			}
+		}
+
+		final Convolution.Border border = (params.length > 2) ? Convolution.Border.valueOf(params[2].toUpperCase(Locale.ROOT)) : Convolution.Border.CLAMP;
+		return new Convolution(kernel, border);
+	}
+
+	private static String param(String[] params, int i, String syntax) {
+		if (i >= params.length) throw new IllegalArgumentException("missing parameter: " + syntax);
+		return params[i];
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (optionName(names[i]).equals(name)) return i;
+		}
+		return -1;
+	}
+
+	private static String optionName(String name) {
+		return name.toLowerCase(Locale.ROOT).replace(' ', '-');
+	}
+
+	private static String usage() {
+		List<String> ops = new ArrayList<>();
+		List<String> structures = new ArrayList<>();
+		List<String> borders = new ArrayList<>();
+		List<String> grayOps = new ArrayList<>();
+
+		for (String s : MorphologicFilter.s_operations) ops.add(optionName(s));
+		for (String s : MorphologicFilter.s_structures) structures.add(optionName(s));
+		for (Convolution.Border b : Convolution.Border.values()) borders.add(optionName(b.name()));
+		for (String s : GrayMorphologicFilter.s_operations) grayOps.add(optionName(s));
+		return Picsi.createMsg(USAGE, new Object[] { String.join(", ", s_operations.keySet()), String.join(", ", ops), String.join(", ", structures), String.join(", ", borders), String.join(", ", grayOps) });
+	}
+}
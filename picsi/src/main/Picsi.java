@@ -7,6 +7,8 @@ import gui.TwinView;
 import java.text.MessageFormat;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.widgets.Control;
@@ -73,6 +75,24 @@ public class Picsi {
 		return formatter.format(new Object[]{arg});
 	}
 
+	/**
+	 * Runs a UI operation on the SWT thread and returns its result.
+	 * Image processors running on a background thread use it for dialogs and trackers.
+	 * @param op UI operation
+	 * @return result of op
+	 */
+	public static <T> T syncExec(Supplier<T> op) {
+		Display display = s_shell.getDisplay();
+		
+		if (display.getThread() == Thread.currentThread()) {
+			return op.get();
+		} else {
+			AtomicReference<T> result = new AtomicReference<>();
+			display.syncExec(() -> result.set(op.get()));
+			return result.get();
+		}
+	}
+
 	/**
 	 * Return twin view
 	 * @return
@@ -0,0 +1,88 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Zero-copy access to a binary image with one bit per pixel.
+ * SWT stores 1-bit images with the most significant bit first.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class BinaryBuffer extends ImageBuffer {
+
+	/**
+	 * Wraps the pixel data of the given binary image
+	 * @param imageData image with depth 1
+	 */
+	public BinaryBuffer(ImageData imageData) {
+		super(imageData);
+		if (!supports(imageData)) throw new IllegalArgumentException("wrong depth: " + imageData.depth);
+	}
+
+	/**
+	 * Returns true if the given image can be wrapped by a binary buffer
+	 * @param imageData
+	 * @return
+	 */
+	public static boolean supports(ImageData imageData) {
+		return imageData.depth == 1;
+	}
+
+	/**
+	 * Returns the pixel value at position (u,v)
+	 * @param u column
+	 * @param v row
+	 * @return 0 or 1
+	 */
+	public final int get(int u, int v) {
+		return (m_data[v*m_stride + (u >> 3)] >> (7 - (u & 7))) & 1;
+	}
+
+	/**
+	 * Sets the pixel value at position (u,v)
+	 * @param u column
+	 * @param v row
+	 * @param value 0 or 1
+	 */
+	public final void set(int u, int v, int value) {
+		final int pos = v*m_stride + (u >> 3);
+		final int bit = 0x80 >> (u & 7);
+
+		if (value != 0) m_data[pos] = (byte)(m_data[pos] | bit);
+		else m_data[pos] = (byte)(m_data[pos] & ~bit);
+	}
+
+	/**
+	 * Unpacks the pixel values of row v to dst
+	 * @param v row
+	 * @param dst destination array of at least m_width values; each value is 0 or 1
+	 */
+	public void getRow(int v, int[] dst) {
+		final int offset = rowOffset(v);
+
+		for (int u=0; u < m_width; u++) {
+			dst[u] = (m_data[offset + (u >> 3)] >> (7 - (u & 7))) & 1;
+		}
+	}
+
+	/**
+	 * Packs the pixel values of src into row v
+	 * @param v row
+	 * @param src source array of at least m_width values; each value different from 0 sets the pixel
+	 */
+	public void setRow(int v, int[] src) {
+		final int offset = rowOffset(v);
+		int u = 0;
+
+		for (int i=0; i < m_rowBytes; i++) {
+			final int stop = Math.min(m_width, u + 8);
+			int b = 0, mask = 0x80;
+
+			for (; u < stop; u++, mask >>= 1) {
+				if (src[u] != 0) b |= mask;
+			}
+			m_data[offset + i] = (byte)b;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Zero-copy access to an 8-bit image with one byte per pixel (grayscale or palette index)
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class GrayBuffer extends ImageBuffer {
+
+	/**
+	 * Wraps the pixel data of the given 8-bit image
+	 * @param imageData image with depth 8
+	 */
+	public GrayBuffer(ImageData imageData) {
+		super(imageData);
+		if (imageData.depth != 8) throw new IllegalArgumentException("wrong depth: " + imageData.depth);
+	}
+
+	/**
+	 * Returns true if the given image can be wrapped by a gray buffer
+	 * @param imageData
+	 * @return
+	 */
+	public static boolean supports(ImageData imageData) {
+		return imageData.depth == 8;
+	}
+
+	/**
+	 * Returns the pixel value at position (u,v)
+	 * @param u column
+	 * @param v row
+	 * @return value in [0, 255]
+	 */
+	public final int get(int u, int v) {
+		return 0xFF & m_data[v*m_stride + u];
+	}
+
+	/**
+	 * Returns the pixel value at the given index in m_data
+	 * @param pos rowOffset(v) + u
+	 * @return value in [0, 255]
+	 */
+	public final int get(int pos) {
+		return 0xFF & m_data[pos];
+	}
+
+	/**
+	 * Sets the pixel value at position (u,v)
+	 * @param u column
+	 * @param v row
+	 * @param value in [0, 255]
+	 */
+	public final void set(int u, int v, int value) {
+		m_data[v*m_stride + u] = (byte)value;
+	}
+
+	/**
+	 * Sets the pixel value at the given index in m_data
+	 * @param pos rowOffset(v) + u
+	 * @param value in [0, 255]
+	 */
+	public final void set(int pos, int value) {
+		m_data[pos] = (byte)value;
+	}
+
+	/**
+	 * Copies the pixel values of row v to dst
+	 * @param v row
+	 * @param dst destination array of at least m_width values
+	 */
+	public void getRow(int v, int[] dst) {
+		final int offset = rowOffset(v);
+
+		for (int u=0; u < m_width; u++) {
+			dst[u] = 0xFF & m_data[offset + u];
+		}
+	}
+
+	/**
+	 * Sets the pixel values of row v
+	 * @param v row
+	 * @param src source array of at least m_width values in [0, 255]
+	 */
+	public void setRow(int v, int[] src) {
+		final int offset = rowOffset(v);
+
+		for (int u=0; u < m_width; u++) {
+			m_data[offset + u] = (byte)src[u];
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Zero-copy row access to the pixel data of an image.
+ * Wraps ImageData.data and ImageData.bytesPerLine; changes are directly visible in the wrapped image.
+ * Subclasses provide typed pixel access without the depth and bit order decoding of ImageData.getPixel/setPixel.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class ImageBuffer {
+	public final ImageData m_imageData;	// wrapped image
+	public final byte[] m_data;			// pixel data of the wrapped image
+	public final int m_width, m_height;	// image size
+	public final int m_stride;			// number of bytes per image row including padding
+	public final int m_rowBytes;		// number of bytes per image row used by pixels
+
+	/**
+	 * Wraps the pixel data of the given image
+	 * @param imageData
+	 */
+	public ImageBuffer(ImageData imageData) {
+		m_imageData = imageData;
+		m_data = imageData.data;
+		m_width = imageData.width;
+		m_height = imageData.height;
+		m_stride = imageData.bytesPerLine;
+		m_rowBytes = (imageData.width*imageData.depth + 7)/8;
+	}
+
+	/**
+	 * Returns the index of the first byte of row v in m_data
+	 * @param v row
+	 * @return
+	 */
+	public final int rowOffset(int v) {
+		return v*m_stride;
+	}
+
+	/**
+	 * Copies the bytes of row v to dst
+	 * @param v row
+	 * @param dst destination array of at least m_rowBytes bytes
+	 * @param dstPos start position in dst
+	 */
+	public void getRow(int v, byte[] dst, int dstPos) {
+		System.arraycopy(m_data, rowOffset(v), dst, dstPos, m_rowBytes);
+	}
+
+	/**
+	 * Copies m_rowBytes bytes from src to row v
+	 * @param v row
+	 * @param src source array
+	 * @param srcPos start position in src
+	 */
+	public void setRow(int v, byte[] src, int srcPos) {
+		System.arraycopy(src, srcPos, m_data, rowOffset(v), m_rowBytes);
+	}
+
+	/**
+	 * Copies row vSrc of this buffer to row vDst of buffer dst with the same pixel format
+	 * @param vSrc source row
+	 * @param dst destination buffer
+	 * @param vDst destination row
+	 */
+	public void copyRow(int vSrc, ImageBuffer dst, int vDst) {
+		assert m_rowBytes == dst.m_rowBytes : "different row sizes";
+		System.arraycopy(m_data, rowOffset(vSrc), dst.m_data, dst.rowOffset(vDst), m_rowBytes);
+	}
+
+	/**
+	 * Returns the wrapped image
+	 * @return
+	 */
+	public ImageData getImageData() {
+		return m_imageData;
+	}
+}
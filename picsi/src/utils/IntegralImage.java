@@ -0,0 +1,147 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+
+/**
+ * Integral image (summed-area table) of an 8-bit channel with optional table of squared values.
+ * The sum, mean and variance of any axis-parallel rectangle are computed in constant time.
+ * The tables have an additional zero row and column, such that entry (u,v) contains the sum of all pixels (x,y) with x < u and y < v.
+ * Sums of 8-bit values and of their squares are exact in long arithmetic for images of up to 2^47 pixels.
+ * The tables are built in parallel: prefix sums of the rows followed by prefix sums of blocks of adjacent columns.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class IntegralImage {
+	private static final int BlockWidth = 256;	// number of columns summed up together in the column pass
+
+	public final int m_width, m_height;	// image size
+	private final int m_stride;			// table row length: m_width + 1
+	private final long[] m_sum;			// sums of values
+	private final long[] m_sqSum;		// sums of squared values or null
+
+	/**
+	 * Integral image of an 8-bit image (gray values or palette indices)
+	 * @param imageData image with depth 8
+	 * @param squares true if rectangle variances are needed
+	 */
+	public IntegralImage(ImageData imageData, boolean squares) {
+		this(new GrayBuffer(imageData), 1, 0, squares);
+	}
+
+	/**
+	 * Integral image of one channel of an image with bytesPerPixel bytes per pixel
+	 * @param buffer image
+	 * @param bytesPerPixel 1 for gray images, RgbBuffer.m_bytesPerPixel for color images
+	 * @param c byte position of the channel inside a pixel, e.g. RgbBuffer.m_r
+	 * @param squares true if rectangle variances are needed
+	 */
+	public IntegralImage(ImageBuffer buffer, int bytesPerPixel, int c, boolean squares) {
+		assert 0 <= c && c < bytesPerPixel : "wrong channel: " + c;
+
+		m_width = buffer.m_width;
+		m_height = buffer.m_height;
+		m_stride = m_width + 1;
+		m_sum = new long[m_stride*(m_height + 1)];
+		m_sqSum = (squares) ? new long[m_sum.length] : null;
+
+		// row pass: prefix sums of the image rows
+		Parallel.For(0, m_height, v -> {
+			final int offset = (v + 1)*m_stride + 1;
+			long sum = 0, sqSum = 0;
+
+			for (int u=0, pos = buffer.rowOffset(v) + c; u < m_width; u++, pos += bytesPerPixel) {
+				final int val = 0xFF & buffer.m_data[pos];
+
+				sum += val;
+				m_sum[offset + u] = sum;
+				if (m_sqSum != null) {
+					sqSum += val*val;
+					m_sqSum[offset + u] = sqSum;
+				}
+			}
+		});
+
+		// column pass: prefix sums of the table columns, the rows of a block are contiguous
+		Parallel.For(1, m_stride, BlockWidth, u0 -> {
+			final int u1 = Math.min(u0 + BlockWidth, m_stride);
+
+			for (int v=2; v <= m_height; v++) {
+				final int offset = v*m_stride, above = offset - m_stride;
+
+				for (int u=u0; u < u1; u++) m_sum[offset + u] += m_sum[above + u];
+				if (m_sqSum != null) {
+					for (int u=u0; u < u1; u++) m_sqSum[offset + u] += m_sqSum[above + u];
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns true if the table of squared values is available
+	 * @return
+	 */
+	public boolean hasSquares() {
+		return m_sqSum != null;
+	}
+
+	/**
+	 * Returns the sum of all values in the rectangle
+	 * @param x left column
+	 * @param y top row
+	 * @param w width > 0
+	 * @param h height > 0
+	 * @return
+	 */
+	public long rectSum(int x, int y, int w, int h) {
+		return rectSum(m_sum, x, y, w, h);
+	}
+
+	/**
+	 * Returns the sum of all squared values in the rectangle
+	 * @param x left column
+	 * @param y top row
+	 * @param w width > 0
+	 * @param h height > 0
+	 * @return
+	 */
+	public long rectSquareSum(int x, int y, int w, int h) {
+		if (m_sqSum == null) throw new IllegalStateException("integral image has been built without squares");
+		return rectSum(m_sqSum, x, y, w, h);
+	}
+
+	/**
+	 * Returns the mean value of the rectangle
+	 * @param x left column
+	 * @param y top row
+	 * @param w width > 0
+	 * @param h height > 0
+	 * @return
+	 */
+	public double rectMean(int x, int y, int w, int h) {
+		return (double)rectSum(x, y, w, h)/(w*h);
+	}
+
+	/**
+	 * Returns the variance (not the sample variance) of the values of the rectangle
+	 * @param x left column
+	 * @param y top row
+	 * @param w width > 0
+	 * @param h height > 0
+	 * @return
+	 */
+	public double rectVariance(int x, int y, int w, int h) {
+		final double n = (double)w*h;
+		final double mean = rectSum(x, y, w, h)/n;
+
+		// rounding errors must not produce negative variances of constant rectangles
+		return Math.max(0, rectSquareSum(x, y, w, h)/n - mean*mean);
+	}
+
+	private long rectSum(long[] table, int x, int y, int w, int h) {
+		assert x >= 0 && y >= 0 && w > 0 && h > 0 && x + w <= m_width && y + h <= m_height : "rectangle outside image";
+
+		final int top = y*m_stride + x, bottom = (y + h)*m_stride + x;
+		return table[bottom + w] - table[bottom] - table[top + w] + table[top];
+	}
+}
@@ -3,10 +3,16 @@ package utils;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /**
  * Parallel for loop
- * 
+ * All loops run on one long-lived work-stealing pool. Exceptions thrown in a loop body
+ * are propagated to the caller of the loop.
+ * The iterations are distributed with guided scheduling: each worker repeatedly grabs a chunk
+ * of the remaining iterations, so unevenly loaded loops keep all workers busy until the end.
+ *
  * @author Christoph Stamm
  *
  */
@@ -14,7 +20,7 @@ public class Parallel {
 	public static interface IntLoopBody {
 	    void run(int i);
 	}
-	
+
 	public static interface LoopBody<T> {
 	    void run(T i);
 	}
@@ -22,21 +28,91 @@ public class Parallel {
 	public static interface RedDataCreator<T> {
 		T run();
 	}
-	
+
 	public static interface RedLoopBody<T> {
 	    void run(int i, T data);
 	}
-	
+
 	public static interface Reducer<T> {
 	    void run(T data);
 	}
-	
-	private static class ReductionData<T> {
-		Future<?> future;
-		T data;
+
+	public static interface TileBody {
+		void run(Tile tile);
+	}
+
+	/**
+	 * Rectangular part [x, x + width) x [y, y + height) of an image of size imageWidth x imageHeight.
+	 * The halo is the border of haloX columns and haloY rows around the tile that a neighbourhood kernel reads in addition.
+	 */
+	public static record Tile(int x, int y, int width, int height, int imageWidth, int imageHeight, int haloX, int haloY) {
+		/** @return exclusive right end of the tile */
+		public int right() { return x + width; }
+
+		/** @return exclusive bottom end of the tile */
+		public int bottom() { return y + height; }
+
+		/** @return first column of the halo region clipped to the image */
+		public int haloLeft() { return Math.max(0, x - haloX); }
+
+		/** @return first row of the halo region clipped to the image */
+		public int haloTop() { return Math.max(0, y - haloY); }
+
+		/** @return exclusive right end of the halo region clipped to the image */
+		public int haloRight() { return Math.min(imageWidth, x + width + haloX); }
+
+		/** @return exclusive bottom end of the halo region clipped to the image */
+		public int haloBottom() { return Math.min(imageHeight, y + height + haloY); }
+
+		/** @return true if the tile and its halo lie completely inside the image, so a kernel needs no border handling */
+		public boolean isInterior() {
+			return x >= haloX && y >= haloY && x + width + haloX <= imageWidth && y + height + haloY <= imageHeight;
+		}
+	}
+
+	private static interface ChunkBody {
+		void run(int kStart, int kStop);
 	}
-	
+
 	static final int nCPU = Runtime.getRuntime().availableProcessors();
+	static final int ChunksPerWorker = 2;	// guided scheduling: a chunk contains at most 1/(ChunksPerWorker*parallelism) of the remaining iterations
+	static final int MaxSurplusTasks = 3;	// nested loops run sequentially if the current worker has more surplus tasks
+	static final int CacheSize = Integer.getInteger("picsi.l2cache", 256*1024); // per-core cache budget of one tile in bytes
+	static final int MinTileWidth = 64;		// tiles are at least as wide as a few cache lines
+
+	private static final String ParallelismProperty = "picsi.parallelism"; // system property used to configure the pool size
+	private static volatile ForkJoinPool s_pool = createPool(Integer.getInteger(ParallelismProperty, nCPU));
+
+	/**
+	 * Returns the shared pool used by all parallel loops
+	 * @return
+	 */
+	public static ForkJoinPool getPool() {
+		return s_pool;
+	}
+
+	/**
+	 * Returns the number of worker threads of the shared pool
+	 * @return
+	 */
+	public static int getParallelism() {
+		return s_pool.getParallelism();
+	}
+
+	/**
+	 * Replaces the shared pool by a new pool with the given number of worker threads.
+	 * Loops that are already running finish on the old pool.
+	 * @param parallelism > 0
+	 */
+	public static synchronized void setParallelism(int parallelism) {
+		if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+
+		if (parallelism == s_pool.getParallelism()) return;
+
+		ForkJoinPool old = s_pool;
+		s_pool = createPool(parallelism);
+		old.shutdown();
+	}
 
 	/**
 	 * Parallel for each: executes the loopBody for each item in the collection
@@ -44,21 +120,14 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static <T> void forEach(Iterable <T> collection, final LoopBody<T> loopBody) {
-	    ExecutorService executor = Executors.newFixedThreadPool(nCPU);
-	    List<Future<?>> futures  = new ArrayList<Future<?>>(nCPU);
+	    List<ForkJoinTask<?>> tasks = new ArrayList<>();
 
 	    for (final T param : collection) {
-	    	futures.add(executor.submit(() -> loopBody.run(param) ));
+	    	tasks.add(ForkJoinTask.adapt(() -> loopBody.run(param)));
 	    }
+	    if (tasks.isEmpty()) return;
 
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+	    invoke(() -> ForkJoinTask.invokeAll(tasks));
 	}
 
 	/**
@@ -79,62 +148,29 @@ public class Parallel {
 	 * @param loopBody
 	 */
 	public static void For(int start, int stop, int delta, final IntLoopBody loopBody) {
-		assert delta != 0 : "delta must be not 0: " + delta;
-		
-		if (start == stop) return;
-		
-		ExecutorService executor = null;
-		List<Future<?>> futures = null;
-		
-		if (start < stop) {
-			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j < iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));     
-		    }
-		} else {
-			// start > stop
-			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        futures  = new ArrayList<Future<?>>(nThreads);
-	
-	        for (int i=start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            
-		        futures.add(executor.submit(() -> {
-	            	for (int j = iStart; j > iStop; j += delta) 
-	            		loopBody.run(j);
-	            }));  
-	        }
-		}
+		For(start, stop, delta, 1, loopBody);
+	}
 
-        for (Future<?> f : futures) {
-        	try { 
-        		f.get();
-		    } catch (InterruptedException | ExecutionException e) { 
-		    	System.out.println(e); 
-		    }
-        }
-	    executor.shutdown();     
+	/**
+	 * Parallel for: executes the loopBody for values in the semi-open range [start, stop) with step size delta.
+	 * Ranges with at most grain iterations are executed sequentially in the calling thread.
+	 * @param start != stop
+	 * @param stop
+	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
+	 * @param grain minimum number of iterations executed by one task; use large values for cheap loop bodies
+	 * @param loopBody
+	 */
+	public static void For(int start, int stop, int delta, int grain, final IntLoopBody loopBody) {
+		assert grain > 0 : "grain must be positive: " + grain;
+		final int n = iterations(start, stop, delta);
+
+		if (n <= 0) return;
+
+		execute(n, grain, (kStart, kStop) -> {
+			for (int k = kStart, j = start + kStart*delta; k < kStop; k++, j += delta) {
+				loopBody.run(j);
+			}
+		});
 	}
 
 	/**
@@ -149,10 +185,10 @@ public class Parallel {
 	public static <T> void For(int start, int stop, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
 		For(start, stop, 1, creator, loopBody, reducer);
 	}
-	
+
 	/**
 	 * Parallel for: executes the loopBody for each int value in the semi-open range [start, stop) with step size delta
-	 * and performs a reduction.
+	 * and performs a reduction. The reducer is called in the calling thread.
 	 * @param start != stop
 	 * @param stop
 	 * @param delta if start < stop then delta has to be positive, if start > stop then delta must be negative
@@ -161,74 +197,202 @@ public class Parallel {
 	 * @param reducer computes reduction of temporary reduction data and stores it in external result
 	 */
 	public static <T> void For(int start, int stop, int delta, final RedDataCreator<T> creator, final RedLoopBody<T> loopBody, final Reducer<T> reducer) {
+		final int n = iterations(start, stop, delta);
+
+		if (n <= 0) return;
+
+		final int nTasks = tasks(n, 1);
+		final List<T> redData = new ArrayList<>(nTasks);
+
+		for (int t = 0; t < nTasks; t++) {
+			redData.add(creator.run());
+		}
+		schedule(n, 1, nTasks, t -> {
+			final T data = redData.get(t);
+			return (kStart, kStop) -> {
+				for (int k = kStart, j = start + kStart*delta; k < kStop; k++, j += delta) {
+					loopBody.run(j, data);
+				}
+			};
+		});
+
+		for (T data : redData) {
+			if (data != null) {
+				reducer.run(data);
+			}
+		}
+	}
+
+	/**
+	 * Parallel tile loop: splits an image of size width x height into rectangular tiles
+	 * and executes the tileBody for each tile
+	 * @param width image width
+	 * @param height image height
+	 * @param bytesPerPixel number of bytes per pixel read and written by the tileBody
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, int bytesPerPixel, final TileBody tileBody) {
+		forTiles(width, height, bytesPerPixel, 0, 0, tileBody);
+	}
+
+	/**
+	 * Parallel tile loop: splits an image of size width x height into rectangular tiles
+	 * and executes the tileBody for each tile.
+	 * A tile, its halo and the corresponding output fit into the per-core cache,
+	 * so a neighbourhood kernel reloads the rows of its window from cache instead of memory.
+	 * Tiles start at multiples of MinTileWidth columns, hence tiles of bit-packed images never share a byte.
+	 * @param width image width
+	 * @param height image height
+	 * @param bytesPerPixel number of bytes per pixel read and written by the tileBody
+	 * @param haloX number of additional columns left and right of a tile read by the tileBody
+	 * @param haloY number of additional rows above and below a tile read by the tileBody
+	 * @param tileBody
+	 */
+	public static void forTiles(int width, int height, int bytesPerPixel, int haloX, int haloY, final TileBody tileBody) {
+		assert bytesPerPixel > 0 : "bytesPerPixel must be positive: " + bytesPerPixel;
+		assert haloX >= 0 && haloY >= 0 : "halo must not be negative";
+
+		if (width <= 0 || height <= 0) return;
+
+		// input with halo and output of a tile use at most CacheSize bytes
+		final int pixels = Math.max(1, CacheSize/(2*bytesPerPixel));
+		final int side = Math.max(MinTileWidth, ((int)Math.sqrt(pixels) - 2*haloX)/MinTileWidth*MinTileWidth);
+		final int tw = Math.min(width, side);
+		final int th = Math.min(height, Math.max(1, pixels/(tw + 2*haloX) - 2*haloY));
+		final int nx = (width + tw - 1)/tw;
+		final int ny = (height + th - 1)/th;
+
+		// tiles are handed out in row-major order
+		execute(nx*ny, 1, (kStart, kStop) -> {
+			for (int k = kStart; k < kStop; k++) {
+				final int x = (k%nx)*tw;
+				final int y = (k/nx)*th;
+
+				tileBody.run(new Tile(x, y, Math.min(tw, width - x), Math.min(th, height - y), width, height, haloX, haloY));
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of loop iterations in the range [start, stop) with step size delta
+	 * @param start
+	 * @param stop
+	 * @param delta
+	 * @return
+	 */
+	private static int iterations(int start, int stop, int delta) {
 		assert delta != 0 : "delta must be not 0: " + delta;
-		
-		if (start == stop) return;
-		
-		ExecutorService executor = null;
-		List<ReductionData<T>> redData = null;
-		
+
+		if (start == stop) return 0;
 		if (start < stop) {
 			assert delta > 0 : "delta must be positive: " + delta;
-		    int chunkSize = (stop - start + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize += delta - rest;
-	        final int nThreads = (stop - start + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i < stop; ) {
-	            final int iStart = i;
-	            i += chunkSize;
-	            final int iStop = (i < stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j < iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
+			return (int)(((long)stop - start + delta - 1)/delta);
 		} else {
-			// start > stop
 			assert delta < 0 : "delta must be negative: " + delta;
-		    int chunkSize = (start - stop + nCPU - 1)/nCPU;
-		    int rest = chunkSize%delta;
-		    if (rest != 0) chunkSize -= delta + rest;
-	        final int nThreads = (start - stop + chunkSize - 1)/chunkSize;
-	        executor = Executors.newFixedThreadPool(nThreads);
-	        redData  = new ArrayList<ReductionData<T>>(nThreads);
-	
-	        for (int i = start; i > stop; ) {
-	            final int iStart = i;
-	            i -= chunkSize;
-	            final int iStop = (i > stop) ? i : stop;
-	            final ReductionData<T> rd = new ReductionData<T>();
-	                        
-	            rd.data = creator.run();
-		        rd.future = executor.submit(() -> {
-		            for (int j = iStart; j > iStop; j += delta) {
-		            	loopBody.run(j, rd.data);
-		            }
-		        });
-		        redData.add(rd);
-		    }
+			return (int)(((long)start - stop - delta - 1)/-delta);
+		}
+	}
+
+	/**
+	 * Runs the iteration range [0, n) in the shared pool
+	 * @param n number of iterations
+	 * @param grain minimum chunk size
+	 * @param body
+	 */
+	private static void execute(int n, int grain, ChunkBody body) {
+		schedule(n, grain, tasks(n, grain), t -> body);
+	}
+
+	/**
+	 * Returns the number of tasks used to process n iterations.
+	 * Small ranges and nested loops inside a busy worker are not split.
+	 * @param n number of iterations
+	 * @param grain minimum chunk size
+	 * @return
+	 */
+	private static int tasks(int n, int grain) {
+		final ForkJoinPool pool = s_pool;
+		final int parallelism = pool.getParallelism();
+
+		if (n <= grain || parallelism == 1) return 1;
+		if (ForkJoinTask.getPool() == pool && ForkJoinTask.getSurplusQueuedTaskCount() > MaxSurplusTasks) {
+			// enough work is already queued: avoid oversubscription in nested loops
+			return 1;
 		}
+		return (int)Math.min(parallelism, ((long)n + grain - 1)/grain);
+	}
+
+	/**
+	 * Guided scheduling: nTasks tasks share the iteration range [0, n). Each task repeatedly takes
+	 * the next chunk of at least grain iterations. The chunk size shrinks with the number of remaining iterations.
+	 * The calling thread takes part as task 0.
+	 * @param n number of iterations
+	 * @param grain minimum chunk size
+	 * @param nTasks number of tasks
+	 * @param bodies returns the chunk body of task t
+	 */
+	private static void schedule(int n, int grain, int nTasks, IntFunction<ChunkBody> bodies) {
+		if (nTasks == 1) {
+			bodies.apply(0).run(0, n);
+			return;
+		}
+
+		final AtomicInteger next = new AtomicInteger();
+		final int divisor = ChunksPerWorker*nTasks;
+		final List<ForkJoinTask<?>> tasks = new ArrayList<>(nTasks);
 
-        for (ReductionData<T> rd : redData) {
-        	try { 
-        		rd.future.get();
-        		if (rd.data != null) {
-        			reducer.run(rd.data);
-        		}
-		    } catch (InterruptedException | ExecutionException e) { 
-				e.printStackTrace();
-		    }
-        }
-	    executor.shutdown();     
+		for (int t = 0; t < nTasks; t++) {
+			final ChunkBody body = bodies.apply(t);
+
+			tasks.add(ForkJoinTask.adapt(() -> {
+				int kStart;
+				while ((kStart = next.get()) < n) {
+					final int kStop = kStart + Math.min(n - kStart, Math.max(grain, (n - kStart)/divisor));
+					if (next.compareAndSet(kStart, kStop)) {
+						body.run(kStart, kStop);
+					}
+				}
+			}));
+		}
+		invoke(() -> ForkJoinTask.invokeAll(tasks));
 	}
-}
 
+	/**
+	 * Runs the action inside the shared pool and waits until it has finished.
+	 * Nested calls run directly in the current worker thread.
+	 * Runtime exceptions and errors of the action are rethrown in the calling thread.
+	 * @param action
+	 */
+	private static void invoke(Runnable action) {
+		ForkJoinPool pool = s_pool;
 
+		if (ForkJoinTask.getPool() == pool) {
+			action.run();
+			return;
+		}
+		while (true) {
+			try {
+				pool.invoke(ForkJoinTask.adapt(action));
+				return;
+			} catch(RejectedExecutionException e) {
+				// the pool has been shut down by setParallelism after it was read: use the new pool
+				if (!pool.isShutdown() || pool == s_pool) throw e;
+				pool = s_pool;
+			}
+		}
+	}
+
+	/**
+	 * Creates a work-stealing pool with daemon worker threads
+	 * @param parallelism
+	 * @return
+	 */
+	private static ForkJoinPool createPool(int parallelism) {
+		return new ForkJoinPool(Math.max(1, parallelism), pool -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			t.setName("Parallel-" + t.getPoolIndex());
+			t.setDaemon(true);
+			return t;
+		}, null, false);
+	}
+}
@@ -0,0 +1,252 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Row kernels of per-pixel point and arithmetic operations on 8-bit channels.
+ * This class contains the scalar implementation. If the module jdk.incubator.vector is present
+ * (java --add-modules jdk.incubator.vector), get() returns the SIMD implementation VectorKernels instead,
+ * but only if it produces the same results as the scalar kernels on random test rows.
+ * The system property picsi.vector=false forces the scalar kernels.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class PixelKernels {
+	private static final String VectorProperty = "picsi.vector"; // system property used to disable the vector kernels
+	private static final String VectorModule = "jdk.incubator.vector";
+	private static final PixelKernels s_scalar = new PixelKernels();
+	private static final PixelKernels s_kernels = select();
+
+	/**
+	 * Returns the fastest available kernels
+	 * @return
+	 */
+	public static PixelKernels get() {
+		return s_kernels;
+	}
+
+	/**
+	 * Returns the scalar kernels
+	 * @return
+	 */
+	public static PixelKernels scalar() {
+		return s_scalar;
+	}
+
+	/**
+	 * Returns true if the kernels use SIMD instructions
+	 * @return
+	 */
+	public boolean isVectorized() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "scalar kernels";
+	}
+
+	/**
+	 * Luminance with the weights 0.299, 0.587, 0.114, rounded half up
+	 * @param r red in [0, 255]
+	 * @param g green in [0, 255]
+	 * @param b blue in [0, 255]
+	 * @return gray value in [0, 255]
+	 */
+	public static int gray(int r, int g, int b) {
+		return (299*r + 587*g + 114*b + 500)/1000;
+	}
+
+	/**
+	 * Converts n pixels of a 24-bit or 32-bit direct color row to gray values
+	 * @param src pixel data
+	 * @param srcPos index of the first pixel in src
+	 * @param bytesPerPixel 3 or 4
+	 * @param r byte position of red inside a pixel
+	 * @param g byte position of green inside a pixel
+	 * @param b byte position of blue inside a pixel
+	 * @param dst gray values
+	 * @param dstPos index of the first gray value in dst
+	 * @param n number of pixels
+	 */
+	public void gray(byte[] src, int srcPos, int bytesPerPixel, int r, int g, int b, byte[] dst, int dstPos, int n) {
+		for (int i=0; i < n; i++, srcPos += bytesPerPixel) {
+			dst[dstPos + i] = (byte)gray(0xFF & src[srcPos + r], 0xFF & src[srcPos + g], 0xFF & src[srcPos + b]);
+		}
+	}
+
+	/**
+	 * Copies one channel of n pixels of a 24-bit or 32-bit direct color row
+	 * @param src pixel data
+	 * @param srcPos index of the first pixel in src
+	 * @param bytesPerPixel 3 or 4
+	 * @param c byte position of the channel inside a pixel
+	 * @param dst channel values
+	 * @param dstPos index of the first channel value in dst
+	 * @param n number of pixels
+	 */
+	public void channel(byte[] src, int srcPos, int bytesPerPixel, int c, byte[] dst, int dstPos, int n) {
+		for (int i=0; i < n; i++, srcPos += bytesPerPixel) {
+			dst[dstPos + i] = src[srcPos + c];
+		}
+	}
+
+	/**
+	 * Inverts all bits of n bytes in place
+	 * @param data
+	 * @param pos index of the first byte
+	 * @param n number of bytes
+	 */
+	public void invert(byte[] data, int pos, int n) {
+		for (int i=pos; i < pos + n; i++) {
+			data[i] = (byte)~data[i];
+		}
+	}
+
+	/**
+	 * Thresholds n gray values: v -> (v <= threshold) ? low : high
+	 * @param src gray values
+	 * @param srcPos index of the first gray value in src
+	 * @param dst output values
+	 * @param dstPos index of the first output value in dst
+	 * @param n number of gray values
+	 * @param threshold
+	 * @param low output value of gray values <= threshold
+	 * @param high output value of gray values > threshold
+	 */
+	public void threshold(byte[] src, int srcPos, byte[] dst, int dstPos, int n, int threshold, int low, int high) {
+		for (int i=0; i < n; i++) {
+			dst[dstPos + i] = (byte)(((0xFF & src[srcPos + i]) <= threshold) ? low : high);
+		}
+	}
+
+	/**
+	 * Thresholds n gray values into a row of a binary image with the most significant bit first
+	 * @param src gray values
+	 * @param srcPos index of the first gray value in src
+	 * @param dst bits
+	 * @param dstPos index of the first output byte in dst; (n + 7)/8 bytes are written
+	 * @param n number of gray values
+	 * @param threshold
+	 * @param low bit of gray values <= threshold: 0 or 1
+	 * @param high bit of gray values > threshold: 0 or 1
+	 */
+	public void thresholdBits(byte[] src, int srcPos, byte[] dst, int dstPos, int n, int threshold, int low, int high) {
+		for (int i=0, u=0; u < n; i++) {
+			final int stop = Math.min(n, u + 8);
+			int b = 0, mask = 0x80;
+
+			for (; u < stop; u++, mask >>= 1) {
+				if ((((0xFF & src[srcPos + u]) <= threshold) ? low : high) != 0) b |= mask;
+			}
+			dst[dstPos + i] = (byte)b;
+		}
+	}
+
+	/**
+	 * Absolute differences of n unsigned bytes: dst = |a - b|
+	 * @param a
+	 * @param aPos index of the first byte in a
+	 * @param b
+	 * @param bPos index of the first byte in b
+	 * @param dst
+	 * @param dstPos index of the first byte in dst
+	 * @param n number of bytes
+	 */
+	public void absDiff(byte[] a, int aPos, byte[] b, int bPos, byte[] dst, int dstPos, int n) {
+		for (int i=0; i < n; i++) {
+			dst[dstPos + i] = (byte)Math.abs((0xFF & a[aPos + i]) - (0xFF & b[bPos + i]));
+		}
+	}
+
+	/**
+	 * Sum of squared differences of one channel of n pixels
+	 * @param a
+	 * @param aPos index of the first pixel in a
+	 * @param b
+	 * @param bPos index of the first pixel in b
+	 * @param bytesPerPixel 1, 3 or 4
+	 * @param c byte position of the channel inside a pixel
+	 * @param n number of pixels
+	 * @return
+	 */
+	public long squaredDiff(byte[] a, int aPos, byte[] b, int bPos, int bytesPerPixel, int c, int n) {
+		long sum = 0;
+
+		for (int i=0; i < n; i++, aPos += bytesPerPixel, bPos += bytesPerPixel) {
+			final int d = (0xFF & a[aPos + c]) - (0xFF & b[bPos + c]);
+			sum += d*d;
+		}
+		return sum;
+	}
+
+	/**
+	 * Compares all kernels with the scalar kernels on random rows of different lengths and offsets.
+	 * Also bytes outside of the processed ranges are compared.
+	 * @param kernels
+	 * @return true if all results are equal
+	 */
+	public static boolean crossCheck(PixelKernels kernels) {
+		final Random random = new Random(1);
+		final int maxLen = 300;
+		final byte[] a = new byte[4*maxLen + 16], b = new byte[a.length];
+
+		for (int len : new int[] { 0, 1, 7, 8, 9, 31, 64, 100, 257, maxLen }) {
+			final int pos = random.nextInt(8), n = len;
+			random.nextBytes(a);
+			random.nextBytes(b);
+
+			for (int bpp = 3; bpp <= 4; bpp++) {
+				final int bytesPerPixel = bpp;
+				for (int c = 0; c < bpp; c++) {
+					final int ch = c;
+					if (!equal(kernels, (k, dst) -> k.channel(a, pos, bytesPerPixel, ch, dst, 1, n), a.length)) return false;
+				}
+				if (!equal(kernels, (k, dst) -> k.gray(a, pos, bytesPerPixel, 2, 1, 0, dst, 3, n), a.length)) return false;
+				if (!equal(kernels, (k, dst) -> k.gray(a, pos, bytesPerPixel, 0, 1, 2, dst, 0, n), a.length)) return false;
+				if (kernels.squaredDiff(a, pos, b, pos + 1, bytesPerPixel, 1, n) != s_scalar.squaredDiff(a, pos, b, pos + 1, bytesPerPixel, 1, n)) return false;
+			}
+			for (int t : new int[] { 0, 100, 128, 255 }) {
+				if (!equal(kernels, (k, dst) -> k.threshold(a, pos, dst, 2, n, t, 0, 1), a.length)) return false;
+				if (!equal(kernels, (k, dst) -> k.threshold(a, pos, dst, 2, n, t, 255, 0), a.length)) return false;
+				if (!equal(kernels, (k, dst) -> k.thresholdBits(a, pos, dst, 1, n, t, 0, 1), a.length)) return false;
+				if (!equal(kernels, (k, dst) -> k.thresholdBits(a, pos, dst, 1, n, t, 1, 0), a.length)) return false;
+				if (!equal(kernels, (k, dst) -> k.thresholdBits(a, pos, dst, 1, n, t, 1, 1), a.length)) return false;
+			}
+			if (!equal(kernels, (k, dst) -> k.absDiff(a, pos, b, pos + 3, dst, 1, n), a.length)) return false;
+			if (!equal(kernels, (k, dst) -> { System.arraycopy(a, 0, dst, 0, a.length); k.invert(dst, pos, n); }, a.length)) return false;
+			if (kernels.squaredDiff(a, pos, b, 5, 1, 0, n) != s_scalar.squaredDiff(a, pos, b, 5, 1, 0, n)) return false;
+		}
+		return true;
+	}
+
+	private interface Call {
+		void apply(PixelKernels kernels, byte[] dst);
+	}
+
+	private static boolean equal(PixelKernels kernels, Call call, int len) {
+		final byte[] expected = new byte[len], actual = new byte[len];
+
+		call.apply(s_scalar, expected);
+		call.apply(kernels, actual);
+		return Arrays.equals(expected, actual);
+	}
+
+	private static PixelKernels select() {
+		if (!Boolean.parseBoolean(System.getProperty(VectorProperty, "true")) || ModuleLayer.boot().findModule(VectorModule).isEmpty()) {
+			return s_scalar;
+		}
+		try {
+			// loaded by reflection: the class cannot be resolved without the vector module
+			final PixelKernels kernels = (PixelKernels)Class.forName("utils.VectorKernels").getDeclaredConstructor().newInstance();
+
+			if (crossCheck(kernels)) return kernels;
+			System.err.println(kernels + " disabled: results differ from " + s_scalar);
+		} catch(ReflectiveOperationException | LinkageError e) {
+			System.err.println("vector kernels not available: " + e);
+		}
+		return s_scalar;
+	}
+}
@@ -0,0 +1,150 @@
+package utils;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+/**
+ * Zero-copy access to a 24-bit or 32-bit direct color image with 8 bits per channel.
+ * The byte positions of the channels are derived once from the palette masks.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class RgbBuffer extends ImageBuffer {
+	public final int m_bytesPerPixel;	// 3 or 4
+	public final int m_r, m_g, m_b;		// byte position of the channels inside a pixel
+	private final byte[] m_alpha;		// alpha data or null
+
+	/**
+	 * Wraps the pixel data of the given direct color image
+	 * @param imageData image with depth 24 or 32 and byte aligned 8-bit channel masks
+	 */
+	public RgbBuffer(ImageData imageData) {
+		super(imageData);
+		if (!supports(imageData)) throw new IllegalArgumentException("unsupported pixel format: depth = " + imageData.depth);
+
+		final PaletteData palette = imageData.palette;
+		m_bytesPerPixel = imageData.depth/8;
+		m_r = bytePos(palette.redMask, m_bytesPerPixel);
+		m_g = bytePos(palette.greenMask, m_bytesPerPixel);
+		m_b = bytePos(palette.blueMask, m_bytesPerPixel);
+		m_alpha = imageData.alphaData;
+	}
+
+	/**
+	 * Returns true if the given image can be wrapped by a RGB buffer
+	 * @param imageData
+	 * @return
+	 */
+	public static boolean supports(ImageData imageData) {
+		final PaletteData palette = imageData.palette;
+
+		return (imageData.depth == 24 || imageData.depth == 32) && palette.isDirect
+				&& bytePos(palette.redMask, imageData.depth/8) >= 0
+				&& bytePos(palette.greenMask, imageData.depth/8) >= 0
+				&& bytePos(palette.blueMask, imageData.depth/8) >= 0;
+	}
+
+	/**
+	 * Returns the index of the first byte of pixel (u,v) in m_data
+	 * @param u column
+	 * @param v row
+	 * @return
+	 */
+	public final int offset(int u, int v) {
+		return v*m_stride + u*m_bytesPerPixel;
+	}
+
+	public final int red(int pos) { return 0xFF & m_data[pos + m_r]; }
+	public final int green(int pos) { return 0xFF & m_data[pos + m_g]; }
+	public final int blue(int pos) { return 0xFF & m_data[pos + m_b]; }
+
+	/**
+	 * Returns channel c of the pixel at the given index
+	 * @param pos offset(u,v)
+	 * @param c 0 = red, 1 = green, 2 = blue
+	 * @return value in [0, 255]
+	 */
+	public final int channel(int pos, int c) {
+		return 0xFF & m_data[pos + (c == 0 ? m_r : c == 1 ? m_g : m_b)];
+	}
+
+	/**
+	 * Returns the color of the pixel at the given index as 0xRRGGBB
+	 * @param pos offset(u,v)
+	 * @return
+	 */
+	public final int rgb(int pos) {
+		return (0xFF & m_data[pos + m_r]) << 16 | (0xFF & m_data[pos + m_g]) << 8 | (0xFF & m_data[pos + m_b]);
+	}
+
+	/**
+	 * Sets the color of the pixel at the given index
+	 * @param pos offset(u,v)
+	 * @param r red in [0, 255]
+	 * @param g green in [0, 255]
+	 * @param b blue in [0, 255]
+	 */
+	public final void setRGB(int pos, int r, int g, int b) {
+		m_data[pos + m_r] = (byte)r;
+		m_data[pos + m_g] = (byte)g;
+		m_data[pos + m_b] = (byte)b;
+	}
+
+	/**
+	 * Sets channel c of the pixel at the given index
+	 * @param pos offset(u,v)
+	 * @param c 0 = red, 1 = green, 2 = blue
+	 * @param value in [0, 255]
+	 */
+	public final void setChannel(int pos, int c, int value) {
+		m_data[pos + (c == 0 ? m_r : c == 1 ? m_g : m_b)] = (byte)value;
+	}
+
+	/**
+	 * Returns the alpha value of pixel (u,v)
+	 * @param u column
+	 * @param v row
+	 * @return 0 = fully transparent, 255 = opaque
+	 */
+	public final int alpha(int u, int v) {
+		return (m_alpha == null) ? 255 : 0xFF & m_alpha[v*m_width + u];
+	}
+
+	/**
+	 * Copies the colors of row v as 0xRRGGBB to dst
+	 * @param v row
+	 * @param dst destination array of at least m_width values
+	 */
+	public void getRow(int v, int[] dst) {
+		for (int u=0, pos = rowOffset(v); u < m_width; u++, pos += m_bytesPerPixel) {
+			dst[u] = rgb(pos);
+		}
+	}
+
+	/**
+	 * Sets the colors of row v
+	 * @param v row
+	 * @param src source array of at least m_width colors stored as 0xRRGGBB
+	 */
+	public void setRow(int v, int[] src) {
+		for (int u=0, pos = rowOffset(v); u < m_width; u++, pos += m_bytesPerPixel) {
+			final int c = src[u];
+			setRGB(pos, (c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+		}
+	}
+
+	/**
+	 * Returns the byte position of an 8-bit channel inside a pixel.
+	 * SWT stores the most significant byte of a pixel first.
+	 * @param mask channel mask
+	 * @param bytesPerPixel
+	 * @return byte position or -1 if the mask doesn't cover exactly one byte
+	 */
+	private static int bytePos(int mask, int bytesPerPixel) {
+		final int shift = Integer.numberOfTrailingZeros(mask);
+
+		if (shift%8 != 0 || shift >= 8*bytesPerPixel || mask != 0xFF << shift) return -1;
+		return bytesPerPixel - 1 - shift/8;
+	}
+}
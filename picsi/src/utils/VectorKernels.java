@@ -0,0 +1,192 @@
+package utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the pixel kernels with the incubating Java Vector API.
+ * Bytes are processed in vectors of the preferred species, channels of 24-bit and 32-bit pixels are widened to int lanes.
+ * Remaining pixels at the end of a row are processed by the scalar kernels.
+ * Channel extraction and inversion are not overridden: the JIT compiler vectorizes the scalar loops itself or they are limited by memory bandwidth.
+ * Only used through PixelKernels.get(), because this class requires the module jdk.incubator.vector.
+ *
+ * @author Christoph Stamm
+ *
+ */
+public class VectorKernels extends PixelKernels {
+	private static final VectorSpecies<Byte> BS = ByteVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> IS = BS.withLanes(int.class);	// same shape, a quarter of the lanes
+	private static final int L = BS.length();	// bytes per vector
+	private static final int M = IS.length();	// pixels per int vector
+	private static final int FlushIterations = 4096;	// int accumulators are added to a long before they can overflow
+
+	// luminance weights in 12.20 fixed point; the rounding constant is chosen such that the results equal PixelKernels.gray for all colors
+	private static final int GrayR = 313524, GrayG = 615514, GrayB = 119538, GrayRounding = (1 << 19) + 400;
+
+	// moves the three bytes of pixel i to the lowest three bytes of int lane i
+	private static final VectorShuffle<Byte> s_pixels3 = VectorShuffle.fromOp(BS, j -> (j/4)*3 + Math.min(j%4, 2));
+
+	public VectorKernels() {
+		if (BS.vectorBitSize() < 128) throw new UnsupportedOperationException("no SIMD support: " + BS);
+	}
+
+	@Override
+	public boolean isVectorized() {
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "vector kernels (" + BS.vectorBitSize() + " bit)";
+	}
+
+	@Override
+	public void gray(byte[] src, int srcPos, int bytesPerPixel, int r, int g, int b, byte[] dst, int dstPos, int n) {
+		final VectorShuffle<Byte> shuffle = (bytesPerPixel == 3) ? s_pixels3 : null;
+		final int end = vectorEnd(src.length - srcPos, bytesPerPixel, n);
+		int u = 0;
+
+		for (; u < end; u += L) {
+			ByteVector out = ByteVector.zero(BS);
+
+			for (int p=0; p < 4; p++) {
+				final IntVector px = pixels(src, srcPos + (u + p*M)*bytesPerPixel, shuffle);
+				final IntVector sum = channel(px, r).mul(GrayR).add(channel(px, g).mul(GrayG)).add(channel(px, b).mul(GrayB));
+				final IntVector gray = sum.add(GrayRounding).lanewise(VectorOperators.LSHR, 20);
+
+				out = out.or((ByteVector)gray.convertShape(VectorOperators.I2B, BS, -p));
+			}
+			out.intoArray(dst, dstPos + u);
+		}
+		super.gray(src, srcPos + u*bytesPerPixel, bytesPerPixel, r, g, b, dst, dstPos + u, n - u);
+	}
+
+	@Override
+	public void threshold(byte[] src, int srcPos, byte[] dst, int dstPos, int n, int threshold, int low, int high) {
+		final ByteVector highs = ByteVector.broadcast(BS, (byte)high);
+		final int end = BS.loopBound(n);
+		int i = 0;
+
+		for (; i < end; i += L) {
+			final VectorMask<Byte> isLow = ByteVector.fromArray(BS, src, srcPos + i).compare(VectorOperators.UNSIGNED_LE, (byte)threshold);
+			highs.blend((byte)low, isLow).intoArray(dst, dstPos + i);
+		}
+		super.threshold(src, srcPos + i, dst, dstPos + i, n - i, threshold, low, high);
+	}
+
+	@Override
+	public void thresholdBits(byte[] src, int srcPos, byte[] dst, int dstPos, int n, int threshold, int low, int high) {
+		final int end = BS.loopBound(n);
+		int u = 0;
+
+		for (; u < end; u += L) {
+			final VectorMask<Byte> isLow = ByteVector.fromArray(BS, src, srcPos + u).compare(VectorOperators.UNSIGNED_LE, (byte)threshold);
+			final long lows = isLow.toLong(), highs = ~lows;
+			final long set = ((low != 0) ? lows : 0) | ((high != 0) ? highs : 0);
+
+			// lane i is bit i of set: reverse the bit order in each byte (most significant bit first)
+			final long bits = Long.reverseBytes(Long.reverse(set));
+			for (int j=0; j < L/8; j++) {
+				dst[dstPos + u/8 + j] = (byte)(bits >>> 8*j);
+			}
+		}
+		super.thresholdBits(src, srcPos + u, dst, dstPos + u/8, n - u, threshold, low, high);
+	}
+
+	@Override
+	public void absDiff(byte[] a, int aPos, byte[] b, int bPos, byte[] dst, int dstPos, int n) {
+		final int end = BS.loopBound(n);
+		int i = 0;
+
+		for (; i < end; i += L) {
+			// flipping the sign bits maps unsigned order to signed order
+			final ByteVector va = ByteVector.fromArray(BS, a, aPos + i).lanewise(VectorOperators.XOR, (byte)0x80);
+			final ByteVector vb = ByteVector.fromArray(BS, b, bPos + i).lanewise(VectorOperators.XOR, (byte)0x80);
+			va.max(vb).sub(va.min(vb)).intoArray(dst, dstPos + i);
+		}
+		super.absDiff(a, aPos + i, b, bPos + i, dst, dstPos + i, n - i);
+	}
+
+	@Override
+	public long squaredDiff(byte[] a, int aPos, byte[] b, int bPos, int bytesPerPixel, int c, int n) {
+		long sum = 0;
+		IntVector acc = IntVector.zero(IS);
+		int u = 0, iterations = 0;
+
+		if (bytesPerPixel == 1) {
+			final int end = BS.loopBound(n);
+
+			for (; u < end; u += L) {
+				final ByteVector va = ByteVector.fromArray(BS, a, aPos + u);
+				final ByteVector vb = ByteVector.fromArray(BS, b, bPos + u);
+
+				for (int p=0; p < 4; p++) {
+					final IntVector d = ((IntVector)va.convertShape(VectorOperators.ZERO_EXTEND_B2I, IS, p)).sub((IntVector)vb.convertShape(VectorOperators.ZERO_EXTEND_B2I, IS, p));
+					acc = acc.add(d.mul(d));
+				}
+				if (++iterations == FlushIterations) {
+					sum += acc.reduceLanesToLong(VectorOperators.ADD);
+					acc = IntVector.zero(IS);
+					iterations = 0;
+				}
+			}
+			sum += acc.reduceLanesToLong(VectorOperators.ADD);
+			return sum + super.squaredDiff(a, aPos + u, b, bPos + u, bytesPerPixel, c, n - u);
+		} else {
+			final VectorShuffle<Byte> shuffle = (bytesPerPixel == 3) ? s_pixels3 : null;
+			final int end = Math.min(vectorEnd(a.length - aPos, bytesPerPixel, n), vectorEnd(b.length - bPos, bytesPerPixel, n));
+
+			for (; u < end; u += L) {
+				for (int p=0; p < 4; p++) {
+					final int offset = (u + p*M)*bytesPerPixel;
+					final IntVector d = channel(pixels(a, aPos + offset, shuffle), c).sub(channel(pixels(b, bPos + offset, shuffle), c));
+					acc = acc.add(d.mul(d));
+				}
+				if (++iterations == FlushIterations) {
+					sum += acc.reduceLanesToLong(VectorOperators.ADD);
+					acc = IntVector.zero(IS);
+					iterations = 0;
+				}
+			}
+			sum += acc.reduceLanesToLong(VectorOperators.ADD);
+			return sum + super.squaredDiff(a, aPos + u*bytesPerPixel, b, bPos + u*bytesPerPixel, bytesPerPixel, c, n - u);
+		}
+	}
+
+	/**
+	 * Loads M pixels of 3 or 4 bytes into the int lanes, the first byte of a pixel is the least significant byte of a lane
+	 * @param src
+	 * @param pos index of the first pixel
+	 * @param shuffle s_pixels3 or null for 4 bytes per pixel
+	 * @return
+	 */
+	private static IntVector pixels(byte[] src, int pos, VectorShuffle<Byte> shuffle) {
+		final ByteVector v = ByteVector.fromArray(BS, src, pos);
+
+		return ((shuffle == null) ? v : v.rearrange(shuffle)).reinterpretAsInts();
+	}
+
+	private static IntVector channel(IntVector pixels, int c) {
+		return pixels.lanewise(VectorOperators.LSHR, 8*c).and(0xFF);
+	}
+
+	/**
+	 * Returns the number of pixels processed by vectors of L pixels, such that all vector loads remain inside the array
+	 * @param available number of bytes from the first pixel to the end of the array
+	 * @param bytesPerPixel
+	 * @param n number of pixels
+	 * @return multiple of L
+	 */
+	private static int vectorEnd(int available, int bytesPerPixel, int n) {
+		// the last load of a vector starts at pixel u + 3*M and reads L bytes
+		final int maxStart = (available - L)/bytesPerPixel - 3*M;
+
+		if (maxStart < 0) return 0;
+		final int pixels = Math.min(n, maxStart + L);
+		return pixels - pixels%L;
+	}
+}